@@ -0,0 +1,123 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.List;
+
+import org.openrdf.model.URI;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+
+/**
+ *
+ * What the algorithms share: the priority table, the term dictionary their
+ * cores are keyed on and the way entity descriptions are read from a
+ * repository (through a shared cache, a prefetcher, batched SPARQL) before
+ * resolving over the resulting snapshot.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public abstract class AbstractReferringExpressionAlgorithm implements ReferringExpressionAlgorithm, Cloneable {
+
+    // null for algorithms that can work without priorities
+    protected PriorityTable priorities;
+    protected TermDictionary dictionary;
+    private EntityDescriptionCache cache = null;
+    private Prefetcher prefetcher = null;
+
+    protected AbstractReferringExpressionAlgorithm(PriorityTable priorities) {
+        this.priorities = priorities;
+        this.dictionary = priorities == null ? TermDictionary.getDefault() : priorities.getDictionary();
+    }
+
+    public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo)
+            throws ReferringExpressionException, RepositoryException {
+        // ignored predicates are dropped while fetching
+        KnowledgeBase kb = knowledgeBase(repo);
+        PredicateFilter filter = priorities == null ? null : priorities.forEntity(referent, kb);
+        return resolve(EntityContext.build(referent, confusors, kb, filter));
+    }
+
+    /**
+     * Where the descriptions for a request over the connection are read from.
+     */
+    protected KnowledgeBase knowledgeBase(RepositoryConnection repo) {
+        if (prefetcher != null)
+            return prefetcher.knowledgeBase(repo, cache);
+        return SparqlKnowledgeBase.forConnection(repo, cache);
+    }
+
+    public EntityDescriptionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Read entity descriptions through a cache shared with other algorithms
+     * and requests, null to read them from the repository each time.
+     */
+    public void setCache(EntityDescriptionCache cache) {
+        this.cache = cache;
+    }
+
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Fetch the confusors concurrently through the prefetcher, null to fetch
+     * them one after the other.
+     */
+    public void setPrefetcher(Prefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * This algorithm, keying each resolution on a dictionary of its own, so a
+     * long running process does not grow a shared one without bound and the
+     * ids (and the order of anything sorted by them) only depend on the
+     * request. The predicates, a small set, keep the ids of this algorithm's
+     * dictionary, so the priority table is not rebuilt for each request.
+     */
+    public ReferringExpressionAlgorithm withDictionaryPerRequest() {
+        return new ReferringExpressionAlgorithm() {
+            public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo)
+                    throws ReferringExpressionException, RepositoryException {
+                return withDictionary(new TermDictionary(dictionary)).resolve(referent, confusors, repo);
+            }
+
+            public ReferringExpression resolve(EntityContext context) throws ReferringExpressionException {
+                return withDictionary(new TermDictionary(dictionary)).resolve(context);
+            }
+        };
+    }
+
+    /**
+     * A copy of this algorithm, sharing its settings, over another
+     * dictionary.
+     */
+    public AbstractReferringExpressionAlgorithm withDictionary(TermDictionary dictionary) {
+        AbstractReferringExpressionAlgorithm result;
+        try {
+            result = (AbstractReferringExpressionAlgorithm) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        result.setDictionary(dictionary);
+        return result;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+        // the ranks are keyed by predicate id only
+        if (priorities != null && priorities.getDictionary() != dictionary.getPredicates())
+            this.priorities = priorities.withDictionary(dictionary.getPredicates());
+    }
+}
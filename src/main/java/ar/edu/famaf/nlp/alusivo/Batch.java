@@ -0,0 +1,170 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ *
+ * Resolves a stream of jobs on a pool of threads, each with its own
+ * RepositoryConnection, writing the answers as JSON lines in the order of the
+ * jobs. A job is either a RequestHandler request (a line starting with '{') or
+ * a tab separated line
+ *
+ * <pre>
+ * referent TAB confusors (space separated) [TAB type [TAB algorithm]]
+ * </pre>
+ *
+ * whose id is its line number. Empty lines and lines starting with '#' are
+ * skipped. At most window jobs are in flight: reading waits for the oldest one
+ * to be written, so the jobs are never all in memory.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class Batch {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private RequestHandler handler;
+    private Repository repository;
+    private int threads;
+    private int window;
+
+    public Batch(RequestHandler handler, Repository repository, int threads) {
+        this.handler = handler;
+        this.repository = repository;
+        this.threads = threads;
+        this.window = threads * 4;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Jobs read ahead of the one being written, at least the number of
+     * threads to keep them all busy.
+     */
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Run all the jobs in the input.
+     *
+     * @return the number of jobs.
+     */
+    public long run(BufferedReader in, Writer out) throws IOException, RepositoryException {
+        final Queue<RepositoryConnection> opened = new ConcurrentLinkedQueue<RepositoryConnection>();
+        final ThreadLocal<RepositoryConnection> connections = new ThreadLocal<RepositoryConnection>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "alusivo-batch");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+        long jobs = 0;
+        try {
+            String line;
+            long lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#"))
+                    continue;
+                final String request = request(line, lineNumber);
+                pending.add(executor.submit(new Callable<String>() {
+                    public String call() throws RepositoryException {
+                        RepositoryConnection conn = connections.get();
+                        if (conn == null) {
+                            conn = repository.getConnection();
+                            opened.add(conn);
+                            connections.set(conn);
+                        }
+                        return handler.handle(request, conn);
+                    }
+                }));
+                jobs++;
+                while (pending.size() >= window)
+                    write(pending.poll(), out);
+            }
+            while (!pending.isEmpty())
+                write(pending.poll(), out);
+            out.flush();
+        } finally {
+            for (Future<String> future : pending)
+                future.cancel(true);
+            executor.shutdownNow();
+            for (RepositoryConnection conn : opened)
+                conn.close();
+        }
+        return jobs;
+    }
+
+    private void write(Future<String> answer, Writer out) throws IOException, RepositoryException {
+        try {
+            out.write(answer.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            // the handler answers errors, only opening a connection can fail
+            if (e.getCause() instanceof RepositoryException)
+                throw (RepositoryException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        out.write('\n');
+    }
+
+    /**
+     * The job as a RequestHandler request.
+     */
+    static String request(String line, long lineNumber) throws IOException {
+        if (line.trim().startsWith("{"))
+            return line;
+        String[] fields = line.split("\t");
+        StringWriter result = new StringWriter();
+        JsonGenerator json = JSON.createGenerator(result);
+        json.writeStartObject();
+        json.writeNumberField("id", lineNumber);
+        json.writeStringField("referent", fields[0].trim());
+        json.writeArrayFieldStart("confusors");
+        if (fields.length > 1)
+            for (String confusor : fields[1].trim().split(" +"))
+                if (!confusor.isEmpty())
+                    json.writeString(confusor);
+        json.writeEndArray();
+        if (fields.length > 2 && !fields[2].trim().isEmpty())
+            json.writeStringField("type", fields[2].trim());
+        if (fields.length > 3 && !fields[3].trim().isEmpty())
+            json.writeStringField("algorithm", fields[3].trim());
+        json.writeEndObject();
+        json.close();
+        return result.toString();
+    }
+}
@@ -0,0 +1,200 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+/**
+ *
+ * Coarsest bisimulation over the graph of a scene, by partition refinement:
+ * the nodes start in one block and are split by the (predicate, direction,
+ * block of the neighbour) labels of their edges until no block splits any
+ * more. Literals, and the neighbours that are not refined, are labelled by
+ * themselves. Nodes ending in the same block satisfy the same descriptions
+ * built from the statements, so no referring expression can tell them apart.
+ *
+ * Each round is a sort of the edges, and there are at most as many rounds as
+ * nodes (usually a handful), so it costs far less than the search of any of
+ * the algorithms.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class Bisimulation {
+
+    private Map<Value, Integer> nodes = new HashMap<Value, Integer>();
+    private int[] blocks;
+    private int blockCount;
+    private int rounds;
+
+    /**
+     * All the resources are anonymous and compared by their structure only,
+     * as GraphAlgorithm does.
+     */
+    public static Bisimulation structural(Collection<Statement> stmts, Collection<? extends Value> entities,
+            TermDictionary dictionary) {
+        return new Bisimulation(stmts, entities, true, dictionary);
+    }
+
+    /**
+     * Only the entities are compared, and their neighbours are taken by name.
+     * The attribute-value algorithms compare less than this (Gardent the
+     * (predicate, object) pairs, Dale and Reiter the outgoing statements) and
+     * check their own features instead.
+     */
+    public static Bisimulation named(Collection<Statement> stmts, Collection<? extends Value> entities,
+            TermDictionary dictionary) {
+        return new Bisimulation(stmts, entities, false, dictionary);
+    }
+
+    private Bisimulation(Collection<Statement> stmts, Collection<? extends Value> entities, boolean structural,
+            TermDictionary dictionary) {
+        List<Value> values = new ArrayList<Value>();
+        for (Value entity : entities)
+            node(entity, values);
+        if (structural)
+            for (Statement stmt : stmts) {
+                node(stmt.getSubject(), values);
+                if (stmt.getObject() instanceof Resource)
+                    node(stmt.getObject(), values);
+            }
+
+        // edges as (owner, label, neighbour), the neighbour is a node index
+        // or the complement of its dictionary id when not refined
+        int n = values.size();
+        int[] degree = new int[n];
+        List<int[]> edges = new ArrayList<int[]>(stmts.size() * 2);
+        for (Statement stmt : stmts) {
+            int predicate = dictionary.predicate(stmt.getPredicate());
+            Integer subject = nodes.get(stmt.getSubject());
+            Integer object = nodes.get(stmt.getObject());
+            if (subject != null) {
+                edges.add(new int[] { subject, predicate * 2,
+                        structural && object != null ? object : ~dictionary.id(stmt.getObject()) });
+                degree[subject]++;
+            }
+            if (object != null) {
+                edges.add(new int[] { object, predicate * 2 + 1,
+                        structural ? subject : ~dictionary.id(stmt.getSubject()) });
+                degree[object]++;
+            }
+        }
+        int[][] adjacent = new int[n][];
+        for (int i = 0; i < n; i++)
+            adjacent[i] = new int[degree[i]];
+        Arrays.fill(degree, 0);
+        for (int e = 0; e < edges.size(); e++) {
+            int owner = edges.get(e)[0];
+            adjacent[owner][degree[owner]++] = e;
+        }
+
+        blocks = new int[n];
+        blockCount = n == 0 ? 0 : 1;
+        while (true) {
+            rounds++;
+            Map<Signature, Integer> next = new HashMap<Signature, Integer>();
+            int[] refined = new int[n];
+            for (int i = 0; i < n; i++) {
+                long[] labels = new long[adjacent[i].length + 1];
+                labels[0] = blocks[i];
+                for (int k = 0; k < adjacent[i].length; k++) {
+                    int[] edge = edges.get(adjacent[i][k]);
+                    int neighbour = edge[2] >= 0 ? blocks[edge[2]] : edge[2];
+                    labels[k + 1] = TermDictionary.key(edge[1], neighbour);
+                }
+                Signature signature = new Signature(labels);
+                Integer block = next.get(signature);
+                if (block == null) {
+                    block = next.size();
+                    next.put(signature, block);
+                }
+                refined[i] = block;
+            }
+            blocks = refined;
+            // blocks only split, so the same count means nothing changed
+            if (next.size() == blockCount)
+                break;
+            blockCount = next.size();
+        }
+    }
+
+    private void node(Value value, List<Value> values) {
+        if (!nodes.containsKey(value)) {
+            nodes.put(value, values.size());
+            values.add(value);
+        }
+    }
+
+    /**
+     * Whether the two values are in the same block. Values not in the graph
+     * are only equivalent to themselves.
+     */
+    public boolean equivalent(Value a, Value b) {
+        Integer i = nodes.get(a);
+        Integer j = nodes.get(b);
+        if (i == null || j == null)
+            return a.equals(b);
+        return blocks[i] == blocks[j];
+    }
+
+    /**
+     * The confusors in the block of the referent, in confusor order.
+     */
+    public List<URI> indistinguishable(URI referent, List<URI> confusors) {
+        List<URI> result = new ArrayList<URI>();
+        for (URI confusor : confusors)
+            if (equivalent(referent, confusor))
+                result.add(confusor);
+        return result;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Refinement rounds, the last one splitting nothing.
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * The block of the node followed by the sorted, distinct edge labels.
+     */
+    private static class Signature {
+        private long[] labels;
+
+        Signature(long[] labels) {
+            Arrays.sort(labels, 1, labels.length);
+            int n = Math.min(labels.length, 2);
+            for (int i = 2; i < labels.length; i++)
+                if (labels[i] != labels[n - 1])
+                    labels[n++] = labels[i];
+            this.labels = Arrays.copyOf(labels, n);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Signature && Arrays.equals(labels, ((Signature) obj).labels);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(labels);
+        }
+    }
+}
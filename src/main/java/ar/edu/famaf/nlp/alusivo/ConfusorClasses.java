@@ -0,0 +1,139 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+
+/**
+ *
+ * The confusors of a context grouped into equivalence classes: confusors
+ * with the same signature (the statements an algorithm looks at, as
+ * dictionary keys) are told apart from the referent by exactly the same
+ * properties, so an algorithm can run on one representative per class and
+ * expand the ones left over back to all the members. Repeated confusors
+ * always end up in the same class.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ConfusorClasses {
+
+    private List<URI> confusors;
+    private List<URI> representatives = new ArrayList<URI>();
+    private Map<URI, URI> representativeOf = new HashMap<URI, URI>();
+
+    private ConfusorClasses(List<URI> confusors) {
+        this.confusors = confusors;
+    }
+
+    /**
+     * Classes by the (predicate, object) pairs of the outgoing statements,
+     * only for the given predicates.
+     */
+    public static ConfusorClasses byOutgoing(EntityContext context, Set<URI> predicates, TermDictionary dictionary) {
+        ConfusorClasses result = new ConfusorClasses(context.getConfusors());
+        Map<Signature, URI> seen = new HashMap<Signature, URI>();
+        for (URI confusor : context.getConfusors()) {
+            List<Statement> stmts = new ArrayList<Statement>();
+            for (Statement stmt : context.outgoing(confusor))
+                if (predicates.contains(stmt.getPredicate()))
+                    stmts.add(stmt);
+            result.add(confusor, new Signature(stmts, dictionary), seen);
+        }
+        return result;
+    }
+
+    /**
+     * Classes by the (predicate, value) pairs of the whole description,
+     * outgoing and incoming, with the predicates accepted by the filter (null
+     * accepting all).
+     */
+    public static ConfusorClasses byDescription(EntityContext context, PredicateFilter filter,
+            TermDictionary dictionary) {
+        ConfusorClasses result = new ConfusorClasses(context.getConfusors());
+        Map<Signature, URI> seen = new HashMap<Signature, URI>();
+        for (URI confusor : context.getConfusors()) {
+            List<Statement> stmts = new ArrayList<Statement>();
+            for (Statement stmt : context.description(confusor))
+                if (filter == null || filter.accept(stmt.getPredicate()))
+                    stmts.add(stmt);
+            result.add(confusor, new Signature(stmts, dictionary), seen);
+        }
+        return result;
+    }
+
+    private void add(URI confusor, Signature signature, Map<Signature, URI> seen) {
+        if (representativeOf.containsKey(confusor))
+            return;
+        URI representative = seen.get(signature);
+        if (representative == null) {
+            seen.put(signature, confusor);
+            representatives.add(confusor);
+            representative = confusor;
+        }
+        representativeOf.put(confusor, representative);
+    }
+
+    /**
+     * The first confusor of each class, in confusor order.
+     */
+    public List<URI> getRepresentatives() {
+        return Collections.unmodifiableList(representatives);
+    }
+
+    public URI representativeOf(URI confusor) {
+        return representativeOf.get(confusor);
+    }
+
+    /**
+     * All the confusors (repeated ones included) whose representative is in
+     * the given ones, in confusor order.
+     */
+    public List<URI> expand(Collection<URI> representatives) {
+        Set<URI> kept = new HashSet<URI>(representatives);
+        List<URI> result = new ArrayList<URI>();
+        for (URI confusor : confusors)
+            if (kept.contains(representativeOf.get(confusor)))
+                result.add(confusor);
+        return result;
+    }
+
+    /**
+     * The sorted (predicate, object) keys of some statements.
+     */
+    private static class Signature {
+        private long[] keys;
+
+        Signature(List<Statement> stmts, TermDictionary dictionary) {
+            keys = new long[stmts.size()];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = TermDictionary.key(dictionary.predicate(stmts.get(i).getPredicate()),
+                        dictionary.id(stmts.get(i).getObject()));
+            Arrays.sort(keys);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Signature && Arrays.equals(keys, ((Signature) obj).keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(keys);
+        }
+    }
+}
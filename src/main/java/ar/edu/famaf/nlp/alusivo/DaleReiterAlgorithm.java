@@ -5,10 +5,9 @@
 
 package ar.edu.famaf.nlp.alusivo;
 
-import info.aduna.iteration.Iterations;
-
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -16,11 +15,8 @@ import java.util.Set;
 
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
+import org.openrdf.model.Value;
 import org.openrdf.model.impl.StatementImpl;
-import org.openrdf.model.vocabulary.RDF;
-import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.RepositoryException;
-import org.openrdf.repository.RepositoryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,116 +47,236 @@ import org.slf4j.LoggerFactory;
 // address = {Stroudsburg, PA, USA},
 // }
 
-public class DaleReiterAlgorithm implements ReferringExpressionAlgorithm {
+public class DaleReiterAlgorithm extends AbstractReferringExpressionAlgorithm {
 
     static final Logger logger = LoggerFactory.getLogger(DaleReiterAlgorithm.class);
 
-    private Map<String, List<String>> priorities;
-    private Map<String, List<String>> ignored;
+    private InvertedIndex index = null;
 
     public DaleReiterAlgorithm(Map<String, List<String>> priorities, Map<String, List<String>> ignored) {
-        this.priorities = new HashMap<String, List<String>>();
-        for (Map.Entry<String, List<String>> e : priorities.entrySet()) {
-            this.priorities.put(e.getKey(), new ArrayList<String>(e.getValue()));
-        }
-        this.ignored = new HashMap<String, List<String>>();
-        if (ignored != null)
-            for (Map.Entry<String, List<String>> e : ignored.entrySet()) {
-                this.ignored.put(e.getKey(), new ArrayList<String>(e.getValue()));
-            }
+        super(new PriorityTable(priorities, ignored, TermDictionary.getDefault()));
     }
 
-    public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo)
-            throws ReferringExpressionException, RepositoryException {
-        RepositoryResult<Statement> types = repo.getStatements(referent, RDF.TYPE, null, true);
-        List<String> priorities = null;
-        Set<String> ignored = new HashSet<String>();
-        StringBuilder typeNames = new StringBuilder();
-        String type = null;
-        try {
-            if (!types.hasNext())
-                throw new ReferringExpressionException("Unknwon type for referent '" + referent + "'");
-            while (types.hasNext()) {
-                Statement typeStmt = types.next();
-                type = typeStmt.getObject().stringValue();
-                typeNames.append(' ').append(type);
-                priorities = this.priorities.get(type);
-                if (priorities != null) {
-                    if (this.ignored.containsKey(type))
-                        ignored.addAll(this.ignored.get(type));
-                    break;
-                }
-            }
-        } finally {
-            types.close();
-        }
-
-        if (priorities == null)
+    public ReferringExpression resolve(EntityContext context) throws ReferringExpressionException {
+        URI referent = context.getReferent();
+        List<URI> confusors = context.getConfusors();
+        List<Value> types = context.types(referent);
+        if (types.isEmpty())
+            throw new ReferringExpressionException("Unknwon type for referent '" + referent + "'");
+        PriorityTable.Ranks ranks = priorities.forTypes(types);
+        if (ranks == null) {
+            StringBuilder typeNames = new StringBuilder();
+            for (Value typeValue : types)
+                typeNames.append(' ').append(typeValue.stringValue());
             throw new ReferringExpressionException("No priorities for referent with types [" + typeNames + " ]");
-        logger.debug("Using priorities " + priorities + " (type '" + type + "') for referent '" + referent);
+        }
+        String type = ranks.getType();
+        logger.debug("Using priorities " + ranks.getPriorities() + " (type '" + type + "') for referent '" + referent);
 
-        List<Statement> worldStmts = new ArrayList<Statement>();
-        Iterations.addAll(repo.getStatements(referent, null, null, true), worldStmts);
-        Iterations.addAll(repo.getStatements(null, null, referent, true), worldStmts);
-        List<Statement> referentStmts = new ArrayList<Statement>(worldStmts);
-        for (URI confusor : confusors) {
-            boolean empty = true;
-            RepositoryResult<Statement> confusorStmts1 = repo.getStatements(confusor, null, null, true);
-            try {
-                if (confusorStmts1.hasNext())
-                    empty = false;
-                Iterations.addAll(confusorStmts1, worldStmts);
-            } finally {
-                confusorStmts1.close();
-            }
-            RepositoryResult<Statement> confusorStmts2 = repo.getStatements(null, null, confusor, true);
-            try {
-                if (confusorStmts2.hasNext())
-                    empty = false;
-                Iterations.addAll(confusorStmts2, worldStmts);
-            } finally {
-                confusorStmts2.close();
-            }
-            if (empty)
+        List<Statement> referentStmts = context.description(referent);
+        for (URI confusor : confusors)
+            if (context.description(confusor).isEmpty())
                 throw new ReferringExpressionException("No information available for confusor " + confusor);
-        }
 
         // check we know about all predicates for this type
         Set<String> unknownPredicates = new HashSet<String>();
-        for (Statement stmt : worldStmts)
-            unknownPredicates.add(stmt.getPredicate().getLocalName());
-        unknownPredicates.removeAll(priorities);
-        unknownPredicates.removeAll(ignored);
+        for (URI predicate : context.predicates())
+            if (ranks.isUnknown(predicate.getLocalName()))
+                unknownPredicates.add(predicate.getLocalName());
         if (!unknownPredicates.isEmpty())
             logger.warn("For type '" + type + "' missing properties: " + unknownPredicates + ", referent " + referent);
 
+        // the ranked referent statements, by rank and then by term
+        int[] rank = new int[referentStmts.size()];
+        for (int i = 0; i < rank.length; i++)
+            rank[i] = ranks.rank(dictionary.predicate(referentStmts.get(i).getPredicate()));
+        int[] order = byRank(referentStmts, rank);
+        int ranked = order.length;
+
+        // confusors none of the ranked statements rules out (as rulesOut
+        // does, by their outgoing statements) would be left, fail right away
+        List<URI> indistinguishable = new ArrayList<URI>();
+        for (URI confusor : confusors) {
+            List<Statement> outgoing = context.outgoing(confusor);
+            LongIndex predicates = new LongIndex(outgoing.size());
+            LongIndex pairs = new LongIndex(outgoing.size());
+            for (Statement stmt : outgoing) {
+                int predicate = dictionary.predicate(stmt.getPredicate());
+                predicates.add(predicate);
+                pairs.add(TermDictionary.key(predicate, dictionary.id(stmt.getObject())));
+            }
+            boolean ruledOut = false;
+            for (int k = 0; k < ranked && !ruledOut; k++) {
+                Statement stmt = referentStmts.get(order[k]);
+                int predicate = dictionary.predicate(stmt.getPredicate());
+                ruledOut = predicates.contains(predicate)
+                        && !pairs.contains(TermDictionary.key(predicate, dictionary.id(stmt.getObject())));
+            }
+            if (!ruledOut)
+                indistinguishable.add(confusor);
+        }
+        if (!indistinguishable.isEmpty())
+            throw new IndistinguishableException(referent, indistinguishable);
+
+        // confusors agreeing on the ranked predicates are ruled out together,
+        // work on one of each
+        Set<URI> rankedPredicates = new HashSet<URI>();
+        for (int k = 0; k < ranked; k++)
+            rankedPredicates.add(referentStmts.get(order[k]).getPredicate());
+        ConfusorClasses classes = ConfusorClasses.byOutgoing(context, rankedPredicates, dictionary);
+        List<URI> representatives = classes.getRepresentatives();
+        if (representatives.size() < confusors.size())
+            logger.debug(confusors.size() + " confusors in " + representatives.size() + " classes");
+
         ReferringExpression result = new ReferringExpression(referent);
-        Set<Statement> added = new HashSet<Statement>();
-
-        List<URI> remainingConfusors = new ArrayList<URI>(confusors);
-        for (String predicate : priorities) {
-            for (Statement stmt : referentStmts)
-                if (!added.contains(stmt) && stmt.getPredicate().getLocalName().equals(predicate)) {
-                    List<URI> removed = rulesOut(remainingConfusors, stmt, worldStmts);
-                    if (!removed.isEmpty()) {
-                        added.add(stmt);
-                        result.addPositive(stmt);
-                        remainingConfusors.removeAll(removed);
-                        if (remainingConfusors.isEmpty())
-                            break;
-                    }
+        List<URI> remainingConfusors = new ArrayList<URI>(representatives);
+        if (index != null) {
+            // ruled out confusors by bitmap operations over the whole knowledge
+            // base
+            EntityBitmap remaining = index.entities(representatives);
+            for (int k = 0; k < ranked && !remaining.isEmpty(); k++) {
+                Statement stmt = referentStmts.get(order[k]);
+                EntityBitmap removed = index.rulesOut(remaining, dictionary.predicate(stmt.getPredicate()),
+                        dictionary.id(stmt.getObject()));
+                if (!removed.isEmpty()) {
+                    logger.debug("Statement " + stmt + " rules out " + removed.cardinality() + " confusors");
+                    result.addPositive(stmt);
+                    remaining = remaining.andNot(removed);
                 }
-            if (remainingConfusors.isEmpty())
-                break;
+            }
+            remainingConfusors.clear();
+            for (URI confusor : representatives)
+                if (remaining.contains(dictionary.id(confusor)))
+                    remainingConfusors.add(confusor);
+        } else {
+            // index the world by subject and predicate, and by subject,
+            // predicate and object
+            List<Statement> worldStmts = new ArrayList<Statement>(referentStmts);
+            for (URI confusor : representatives)
+                worldStmts.addAll(context.description(confusor));
+            LongIndex subjectPredicate = new LongIndex(worldStmts.size());
+            LongIndex triples = new LongIndex(worldStmts.size());
+            for (Statement stmt : worldStmts) {
+                int sp = subjectPredicate.add(TermDictionary.key(dictionary.id(stmt.getSubject()),
+                        dictionary.predicate(stmt.getPredicate())));
+                triples.add(TermDictionary.key(sp, dictionary.id(stmt.getObject())));
+            }
+
+            for (int k = 0; k < ranked && !remainingConfusors.isEmpty(); k++) {
+                Statement stmt = referentStmts.get(order[k]);
+                List<URI> removed = rulesOut(remainingConfusors, dictionary.predicate(stmt.getPredicate()),
+                        dictionary.id(stmt.getObject()), subjectPredicate, triples);
+                if (!removed.isEmpty()) {
+                    result.addPositive(stmt);
+                    remainingConfusors.removeAll(removed);
+                }
+            }
         }
 
         if (!remainingConfusors.isEmpty()) {
-            throw new ReferringExpressionException("Confusors left: " + remainingConfusors);
+            throw new ReferringExpressionException("Confusors left: " + classes.expand(remainingConfusors));
         }
 
         return result;
     }
 
+    /**
+     * The positions of the statements with a rank (UNRANKED ones left out),
+     * by rank and then by predicate, object and subject, so the order does
+     * not depend on the order the store returns the statements in.
+     */
+    static int[] byRank(final List<Statement> stmts, final int[] rank) {
+        List<Integer> positions = new ArrayList<Integer>(stmts.size());
+        for (int i = 0; i < rank.length; i++)
+            if (rank[i] != PriorityTable.UNRANKED)
+                positions.add(i);
+        Collections.sort(positions, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                if (rank[i1] != rank[i2])
+                    return rank[i1] < rank[i2] ? -1 : 1;
+                Statement s1 = stmts.get(i1);
+                Statement s2 = stmts.get(i2);
+                int result = s1.getPredicate().stringValue().compareTo(s2.getPredicate().stringValue());
+                if (result != 0)
+                    return result;
+                result = s1.getObject().stringValue().compareTo(s2.getObject().stringValue());
+                if (result != 0)
+                    return result;
+                result = s1.getObject().toString().compareTo(s2.getObject().toString());
+                // incoming statements differ by subject
+                return result != 0 ? result : s1.getSubject().toString().compareTo(s2.getSubject().toString());
+            }
+        });
+        int[] result = new int[positions.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = positions.get(i);
+        return result;
+    }
+
+    /**
+     * Keep an expression resolved for the context up to date while the
+     * confusors change, extending it by the priorities of the referent type.
+     */
+    public IncrementalResolution incremental(ReferringExpression expression, EntityContext context)
+            throws ReferringExpressionException {
+        PriorityTable.Ranks ranks = priorities.forTypes(context.types(context.getReferent()));
+        if (ranks == null)
+            throw new ReferringExpressionException("No priorities for referent '" + context.getReferent() + "'");
+        return new IncrementalResolution(expression, context, ranks);
+    }
+
+    public InvertedIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Rule out confusors with a precomputed knowledge base wide index, null to
+     * index the statements of each request instead. It must be over the
+     * dictionary of the algorithm and reflect the repository being queried.
+     */
+    public void setIndex(InvertedIndex index) {
+        if (index != null && index.getDictionary() != dictionary)
+            throw new IllegalArgumentException("Index over another dictionary");
+        this.index = index;
+    }
+
+    /**
+     * The index is over the dictionary of this algorithm, with one the
+     * algorithm keeps it.
+     */
+    @Override
+    public AbstractReferringExpressionAlgorithm withDictionary(TermDictionary dictionary) {
+        if (index != null)
+            return this;
+        return super.withDictionary(dictionary);
+    }
+
+    /**
+     * Same as the public rulesOut, over the world indexed by dictionary ids:
+     * subjectPredicate numbers the (subject, predicate) keys and triples holds
+     * the (subject-predicate number, object) keys.
+     */
+    private List<URI> rulesOut(List<URI> confusors, int predicate, int object, LongIndex subjectPredicate,
+            LongIndex triples) {
+        List<URI> result = new ArrayList<URI>();
+        for (URI confusor : confusors) {
+            if (result.contains(confusor))
+                // in case repeated of confusors
+                continue;
+            int sp = subjectPredicate.indexOf(TermDictionary.key(dictionary.id(confusor), predicate));
+            if (sp < 0)
+                // nothing known about this predicate for the confusor
+                continue;
+            if (triples.contains(TermDictionary.key(sp, object))) {
+                // it holds, this confusor is not ruled out
+                continue;
+            }
+            result.add(confusor);
+            logger.debug("Predicate " + dictionary.term(predicate) + " rules out confusor " + confusor);
+        }
+        return result;
+    }
+
     /**
      * Check which confusors will get ruled out by adding a given statement.
      */
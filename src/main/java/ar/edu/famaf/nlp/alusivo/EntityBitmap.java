@@ -0,0 +1,351 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Compressed set of entity ids (TermDictionary ids), in the style of Roaring
+ * bitmaps: the ids are split by their high 16 bits into containers holding
+ * the low 16 bits, either as a sorted array (up to 4096 values) or as a 65536
+ * bit bitmap. Intersections and differences work container by container.
+ *
+ * The results of and() and andNot() share nothing with their arguments.
+ * Not thread-safe while adding.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class EntityBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size = 0;
+
+    public EntityBitmap() {
+    }
+
+    public static EntityBitmap of(int... ids) {
+        EntityBitmap result = new EntityBitmap();
+        for (int id : ids)
+            result.add(id);
+        return result;
+    }
+
+    public void add(int id) {
+        char key = (char) (id >>> 16);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(containers, i, containers, i + 1, size - i);
+            keys[i] = key;
+            containers[i] = new ArrayContainer();
+            size++;
+        }
+        containers[i] = containers[i].add((char) id);
+    }
+
+    public boolean contains(int id) {
+        int i = find((char) (id >>> 16));
+        return i >= 0 && containers[i].contains((char) id);
+    }
+
+    public int cardinality() {
+        int result = 0;
+        for (int i = 0; i < size; i++)
+            result += containers[i].cardinality();
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The ids in both bitmaps.
+     */
+    public EntityBitmap and(EntityBitmap other) {
+        EntityBitmap result = new EntityBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j])
+                i++;
+            else if (keys[i] > other.keys[j])
+                j++;
+            else {
+                result.append(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The ids in this bitmap and not in the other.
+     */
+    public EntityBitmap andNot(EntityBitmap other) {
+        EntityBitmap result = new EntityBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i])
+                j++;
+            if (j < other.size && other.keys[j] == keys[i])
+                result.append(keys[i], containers[i].andNot(other.containers[j]));
+            else
+                result.append(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * The ids, in increasing order (as unsigned ints).
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int pos = 0;
+        for (int i = 0; i < size; i++)
+            pos = containers[i].fill(result, pos, keys[i] << 16);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof EntityBitmap && Arrays.equals(toArray(), ((EntityBitmap) obj).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    // keys are appended in increasing order, empty containers are dropped
+    private void append(char key, Container container) {
+        if (container.cardinality() == 0)
+            return;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+    private static abstract class Container {
+
+        abstract Container add(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract int fill(int[] result, int pos, int high);
+    }
+
+    private static class ArrayContainer extends Container {
+
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0)
+                return this;
+            if (cardinality == ARRAY_MAX)
+                return toBitmap().add(value);
+            i = -i - 1;
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        Container and(Container other) {
+            char[] result = new char[Math.min(cardinality, other.cardinality())];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < cardinality && j < o.cardinality) {
+                    if (values[i] < o.values[j])
+                        i++;
+                    else if (values[i] > o.values[j])
+                        j++;
+                    else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else
+                for (int i = 0; i < cardinality; i++)
+                    if (other.contains(values[i]))
+                        result[n++] = values[i];
+            return new ArrayContainer(result, n);
+        }
+
+        Container andNot(Container other) {
+            char[] result = new char[cardinality];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int j = 0;
+                for (int i = 0; i < cardinality; i++) {
+                    while (j < o.cardinality && o.values[j] < values[i])
+                        j++;
+                    if (j == o.cardinality || o.values[j] != values[i])
+                        result[n++] = values[i];
+                }
+            } else
+                for (int i = 0; i < cardinality; i++)
+                    if (!other.contains(values[i]))
+                        result[n++] = values[i];
+            return new ArrayContainer(result, n);
+        }
+
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        int fill(int[] result, int pos, int high) {
+            for (int i = 0; i < cardinality; i++)
+                result[pos++] = high | values[i];
+            return pos;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer result = new BitmapContainer(new long[WORDS], 0);
+            for (int i = 0; i < cardinality; i++)
+                result.add(values[i]);
+            return result;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+
+        private long[] words;
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        Container and(Container other) {
+            if (other instanceof ArrayContainer)
+                return other.and(this);
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[WORDS];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                result[i] = words[i] & o[i];
+                n += Long.bitCount(result[i]);
+            }
+            return shrink(result, n);
+        }
+
+        Container andNot(Container other) {
+            long[] result = Arrays.copyOf(words, WORDS);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.cardinality; i++)
+                    result[o.values[i] >>> 6] &= ~(1L << o.values[i]);
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < WORDS; i++)
+                    result[i] &= ~o[i];
+            }
+            int n = 0;
+            for (long word : result)
+                n += Long.bitCount(word);
+            return shrink(result, n);
+        }
+
+        Container copy() {
+            return new BitmapContainer(Arrays.copyOf(words, WORDS), cardinality);
+        }
+
+        int fill(int[] result, int pos, int high) {
+            for (int i = 0; i < WORDS; i++)
+                for (long word = words[i]; word != 0; word &= word - 1)
+                    result[pos++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+            return pos;
+        }
+
+        // back to an array if small enough
+        private static Container shrink(long[] words, int cardinality) {
+            if (cardinality > ARRAY_MAX)
+                return new BitmapContainer(words, cardinality);
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++)
+                for (long word = words[i]; word != 0; word &= word - 1)
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+            return new ArrayContainer(values, n);
+        }
+    }
+}
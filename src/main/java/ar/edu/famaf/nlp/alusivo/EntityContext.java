@@ -0,0 +1,308 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+
+/**
+ *
+ * Snapshot of the neighbourhood of a referent and its confusors: the
+ * statements having each of them as subject or object, indexed by entity and by
+ * predicate. Built once from the repository (or any KnowledgeBase), it can then
+ * be handed to several algorithms and to the Resolver without further
+ * repository access, none of which change it. Only update() does: it hands the
+ * indexes over to the updated context, after which this context (and any view
+ * of it from withConfusors()) throws IllegalStateException when used.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class EntityContext {
+
+    private URI referent;
+    private List<URI> confusors;
+
+    private static class Indexes {
+        private Map<URI, List<Statement>> outgoing = new HashMap<URI, List<Statement>>();
+        private Map<URI, List<Statement>> incoming = new HashMap<URI, List<Statement>>();
+        // the distinct statements with each predicate, with the number of
+        // entities whose description has them
+        private Map<URI, Map<Statement, Integer>> byPredicate = new LinkedHashMap<URI, Map<Statement, Integer>>();
+        // bumped on each update, only the contexts of the current one can
+        // use the indexes
+        private int generation = 0;
+    }
+
+    private Indexes indexes;
+    private int generation;
+
+    private EntityContext(URI referent, List<URI> confusors, Indexes indexes) {
+        this.referent = referent;
+        this.confusors = Collections.unmodifiableList(new ArrayList<URI>(confusors));
+        this.indexes = indexes;
+        this.generation = indexes.generation;
+    }
+
+    public static EntityContext build(URI referent, List<URI> confusors, RepositoryConnection repo)
+            throws RepositoryException {
+        return build(referent, confusors, new SesameKnowledgeBase(repo));
+    }
+
+    /**
+     * Fetch the descriptions for the referent and the confusors, through the
+     * cache if not null.
+     */
+    public static EntityContext build(URI referent, List<URI> confusors, RepositoryConnection repo,
+            EntityDescriptionCache cache) throws RepositoryException {
+        return build(referent, confusors, new SesameKnowledgeBase(repo, cache));
+    }
+
+    /**
+     * Fetch the descriptions keeping only the statements whose predicate is
+     * accepted by the filter (null accepting all), through the cache if not
+     * null.
+     */
+    public static EntityContext build(URI referent, List<URI> confusors, RepositoryConnection repo,
+            EntityDescriptionCache cache, PredicateFilter filter) throws RepositoryException {
+        return build(referent, confusors, new SesameKnowledgeBase(repo, cache), filter);
+    }
+
+    public static EntityContext build(URI referent, List<URI> confusors, KnowledgeBase kb)
+            throws RepositoryException {
+        return build(referent, confusors, kb, null);
+    }
+
+    public static EntityContext build(URI referent, List<URI> confusors, KnowledgeBase kb, PredicateFilter filter)
+            throws RepositoryException {
+        EntityContext result = new EntityContext(referent, confusors, new Indexes());
+        List<URI> entities = new ArrayList<URI>(confusors.size() + 1);
+        entities.add(referent);
+        entities.addAll(confusors);
+        kb.prefetch(entities, filter);
+        result.fetch(referent, kb, filter);
+        for (URI confusor : confusors)
+            result.fetch(confusor, kb, filter);
+        return result;
+    }
+
+    /**
+     * A context for the same referent with the removed confusors dropped (all
+     * their occurrences) and the added ones appended. Only the added
+     * confusors are fetched and only the statements of the changed ones are
+     * indexed or dropped: the indexes are handed over to the new context and
+     * this one, as well as its views, can no longer be used. If fetching
+     * fails, this context is left as it was.
+     */
+    public EntityContext update(List<URI> added, List<URI> removed, KnowledgeBase kb, PredicateFilter filter)
+            throws RepositoryException {
+        current();
+        Set<URI> dropped = new HashSet<URI>(removed);
+        dropped.remove(referent);
+        List<URI> kept = new ArrayList<URI>(confusors.size() + added.size());
+        for (URI confusor : confusors)
+            if (!dropped.contains(confusor))
+                kept.add(confusor);
+        // confusors both removed and added stay
+        dropped.removeAll(added);
+
+        List<URI> fetched = new ArrayList<URI>(added.size());
+        for (URI confusor : added)
+            if (!indexes.outgoing.containsKey(confusor) && !fetched.contains(confusor))
+                fetched.add(confusor);
+        kb.prefetch(fetched, filter);
+        List<List<Statement>> out = new ArrayList<List<Statement>>(fetched.size());
+        List<List<Statement>> in = new ArrayList<List<Statement>>(fetched.size());
+        for (URI confusor : fetched) {
+            out.add(kb.outgoing(confusor, filter));
+            in.add(kb.incoming(confusor, filter));
+        }
+
+        kept.addAll(added);
+        indexes.generation++;
+        EntityContext result = new EntityContext(referent, kept, indexes);
+
+        for (URI confusor : dropped)
+            result.drop(confusor);
+        for (int i = 0; i < fetched.size(); i++)
+            result.put(fetched.get(i), out.get(i), in.get(i));
+        return result;
+    }
+
+    /**
+     * This context with the confusors, all of them already in it, in another
+     * order. Shares the indexes of this context, so it can no longer be used
+     * once this one (or another view of it) is updated.
+     */
+    EntityContext withConfusors(List<URI> confusors) {
+        for (URI confusor : confusors)
+            outgoing(confusor);
+        return new EntityContext(referent, confusors, indexes);
+    }
+
+    private void fetch(URI entity, KnowledgeBase kb, PredicateFilter filter) throws RepositoryException {
+        if (indexes.outgoing.containsKey(entity))
+            return;
+        put(entity, kb.outgoing(entity, filter), kb.incoming(entity, filter));
+    }
+
+    private void put(URI entity, List<Statement> out, List<Statement> in) {
+        indexes.outgoing.put(entity, out);
+        indexes.incoming.put(entity, in);
+        index(out, 1);
+        index(in, 1);
+    }
+
+    private void drop(URI entity) {
+        List<Statement> out = indexes.outgoing.remove(entity);
+        if (out == null)
+            return;
+        index(out, -1);
+        index(indexes.incoming.remove(entity), -1);
+    }
+
+    private void index(List<Statement> stmts, int delta) {
+        Map<URI, Map<Statement, Integer>> byPredicate = indexes.byPredicate;
+        for (Statement stmt : stmts) {
+            Map<Statement, Integer> m = byPredicate.get(stmt.getPredicate());
+            if (m == null) {
+                m = new LinkedHashMap<Statement, Integer>();
+                byPredicate.put(stmt.getPredicate(), m);
+            }
+            Integer count = m.get(stmt);
+            int updated = (count == null ? 0 : count) + delta;
+            if (updated > 0)
+                m.put(stmt, updated);
+            else {
+                m.remove(stmt);
+                if (m.isEmpty())
+                    byPredicate.remove(stmt.getPredicate());
+            }
+        }
+    }
+
+    private void current() {
+        if (generation != indexes.generation)
+            throw new IllegalStateException("Context already updated");
+    }
+
+    public URI getReferent() {
+        return referent;
+    }
+
+    public List<URI> getConfusors() {
+        return confusors;
+    }
+
+    /**
+     * Statements with the entity (referent or confusor) as subject.
+     */
+    public List<Statement> outgoing(URI entity) {
+        current();
+        return lookup(indexes.outgoing, entity);
+    }
+
+    /**
+     * Statements with the entity (referent or confusor) as object.
+     */
+    public List<Statement> incoming(URI entity) {
+        current();
+        return lookup(indexes.incoming, entity);
+    }
+
+    /**
+     * Outgoing followed by incoming statements for the entity.
+     */
+    public List<Statement> description(URI entity) {
+        List<Statement> result = new ArrayList<Statement>(outgoing(entity));
+        result.addAll(incoming(entity));
+        return result;
+    }
+
+    /**
+     * Whether the entity is the referent or one of the confusors, whose
+     * statements are in the snapshot.
+     */
+    public boolean hasEntity(URI entity) {
+        current();
+        return indexes.outgoing.containsKey(entity);
+    }
+
+    private List<Statement> lookup(Map<URI, List<Statement>> index, URI entity) {
+        List<Statement> result = index.get(entity);
+        if (result == null)
+            throw new IllegalArgumentException("Not in context: " + entity);
+        return result;
+    }
+
+    /**
+     * The rdf:type values of the entity, in knowledge base order.
+     */
+    public List<Value> types(URI entity) {
+        List<Value> result = new ArrayList<Value>();
+        for (Statement stmt : outgoing(entity))
+            if (stmt.getPredicate().equals(RDF.TYPE))
+                result.add(stmt.getObject());
+        return result;
+    }
+
+    /**
+     * All the predicates appearing in the context.
+     */
+    public Set<URI> predicates() {
+        current();
+        return Collections.unmodifiableSet(indexes.byPredicate.keySet());
+    }
+
+    /**
+     * All the distinct statements in the context with the given predicate.
+     */
+    public List<Statement> statementsWith(URI predicate) {
+        current();
+        Map<Statement, Integer> result = indexes.byPredicate.get(predicate);
+        if (result == null)
+            return Collections.emptyList();
+        return new ArrayList<Statement>(result.keySet());
+    }
+
+    /**
+     * All the distinct statements in the context with a predicate accepted by
+     * the filter (null accepting all), grouped by predicate.
+     */
+    public List<Statement> statements(PredicateFilter filter) {
+        current();
+        List<Statement> result = new ArrayList<Statement>();
+        for (Map.Entry<URI, Map<Statement, Integer>> entry : indexes.byPredicate.entrySet())
+            if (filter == null || filter.accept(entry.getKey()))
+                result.addAll(entry.getValue().keySet());
+        return result;
+    }
+
+    /**
+     * Whether the snapshot contains the statement. Only statements touching the
+     * referent or a confusor are in the snapshot.
+     */
+    public boolean contains(Resource subject, URI predicate, Value object) {
+        current();
+        Map<Statement, Integer> stmts = indexes.byPredicate.get(predicate);
+        return stmts != null && stmts.containsKey(new StatementImpl(subject, predicate, object));
+    }
+}
@@ -0,0 +1,256 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import info.aduna.iteration.Iterations;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.event.RepositoryConnectionListener;
+
+/**
+ *
+ * Size-bounded LRU cache of the outgoing and incoming statements of entities,
+ * shared among the algorithms (and among requests). The size is measured as an
+ * estimate of the memory taken by the cached statements.
+ *
+ * The cache does not see changes to the repository. Either call invalidate()
+ * when entities change or register invalidationListener() with a
+ * NotifyingRepositoryConnection used to modify the repository. Connections
+ * in the middle of a transaction read past the cache, so their uncommitted
+ * changes are not seen by other connections.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class EntityDescriptionCache {
+
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int STATEMENT_OVERHEAD = 64;
+
+    private static class Key {
+        private Value entity;
+        private boolean incoming;
+
+        public Key(Value entity, boolean incoming) {
+            this.entity = entity;
+            this.incoming = incoming;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return this.incoming == other.incoming && this.entity.equals(other.entity);
+        }
+
+        @Override
+        public int hashCode() {
+            return entity.hashCode() * 2 + (incoming ? 1 : 0);
+        }
+    }
+
+    private static class Entry {
+        private List<Statement> stmts;
+        private long weight;
+
+        public Entry(List<Statement> stmts, long weight) {
+            this.stmts = stmts;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The version of an entity being fetched: invalidating the entity makes it
+     * stale, and a stale fetch is not stored.
+     */
+    private static class Fetch {
+        private int fetchers = 0;
+        private boolean stale = false;
+    }
+
+    private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private Map<Key, Fetch> fetches = new HashMap<Key, Fetch>();
+    private long maxWeight;
+    private long weight = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public EntityDescriptionCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    public EntityDescriptionCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Statements with the entity as subject, inferred ones included.
+     */
+    public List<Statement> outgoing(Resource entity, RepositoryConnection repo) throws RepositoryException {
+        return get(new Key(entity, false), repo);
+    }
+
+    /**
+     * Statements with the entity as object, inferred ones included.
+     */
+    public List<Statement> incoming(Value entity, RepositoryConnection repo) throws RepositoryException {
+        return get(new Key(entity, true), repo);
+    }
+
+    private List<Statement> get(Key key, RepositoryConnection repo) throws RepositoryException {
+        // uncommitted changes are private to the connection, they cannot be
+        // served to or from the cache
+        if (repo.isActive())
+            return fetch(key, repo);
+
+        Fetch fetch;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.stmts;
+            }
+            misses++;
+            fetch = fetches.get(key);
+            if (fetch == null) {
+                fetch = new Fetch();
+                fetches.put(key, fetch);
+            }
+            fetch.fetchers++;
+        }
+
+        // fetch outside the lock, concurrent misses on the same entity might
+        // fetch twice but they do not block other entities
+        List<Statement> stmts = null;
+        try {
+            stmts = fetch(key, repo);
+        } finally {
+            synchronized (this) {
+                fetch.fetchers--;
+                if (fetch.fetchers == 0 && fetches.get(key) == fetch)
+                    fetches.remove(key);
+                // an invalidation while fetching might have been missed by
+                // the repository read, the statements are not kept
+                if (stmts != null && !fetch.stale)
+                    store(key, stmts);
+            }
+        }
+        return stmts;
+    }
+
+    private static List<Statement> fetch(Key key, RepositoryConnection repo) throws RepositoryException {
+        return Collections.unmodifiableList(Iterations.asList(key.incoming ? repo.getStatements(null, null,
+                key.entity, true) : repo.getStatements((Resource) key.entity, null, null, true)));
+    }
+
+    private void store(Key key, List<Statement> stmts) {
+        long entryWeight = ENTRY_OVERHEAD;
+        for (Statement stmt : stmts)
+            entryWeight += weight(stmt);
+        Entry previous = entries.put(key, new Entry(stmts, entryWeight));
+        if (previous != null)
+            weight -= previous.weight;
+        weight += entryWeight;
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            weight -= eldest.getValue().weight;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static long weight(Statement stmt) {
+        return STATEMENT_OVERHEAD
+                + 2L
+                * (stmt.getSubject().stringValue().length() + stmt.getPredicate().stringValue().length() + stmt
+                        .getObject().stringValue().length());
+    }
+
+    /**
+     * Drop the outgoing and incoming statements cached for the entity.
+     */
+    public synchronized void invalidate(Value entity) {
+        for (boolean incoming : new boolean[] { false, true }) {
+            Key key = new Key(entity, incoming);
+            Entry entry = entries.remove(key);
+            if (entry != null)
+                weight -= entry.weight;
+            Fetch fetch = fetches.remove(key);
+            if (fetch != null)
+                fetch.stale = true;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        weight = 0;
+        for (Fetch fetch : fetches.values())
+            fetch.stale = true;
+        fetches.clear();
+    }
+
+    /**
+     * A listener for NotifyingRepositoryConnection that invalidates the
+     * entities touched by each change (or the whole cache, for changes with
+     * wildcards), and once more when the change is committed.
+     */
+    public RepositoryConnectionListener invalidationListener() {
+        return new InvalidationListener() {
+            @Override
+            protected void invalidate(Value entity) {
+                EntityDescriptionCache.this.invalidate(entity);
+            }
+
+            @Override
+            protected void invalidateAll() {
+                EntityDescriptionCache.this.invalidateAll();
+            }
+        };
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String toString() {
+        return "EntityDescriptionCache[size=" + size() + ", weight=" + getWeight() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
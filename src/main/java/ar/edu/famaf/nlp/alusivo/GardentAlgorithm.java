@@ -5,13 +5,9 @@
 
 package ar.edu.famaf.nlp.alusivo;
 
-import info.aduna.iteration.Iterations;
-
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -26,10 +22,6 @@ import org.chocosolver.solver.variables.Variable;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.model.vocabulary.RDF;
-import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.RepositoryException;
-import org.openrdf.repository.RepositoryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,204 +45,139 @@ import org.slf4j.LoggerFactory;
 // organization={Association for Computational Linguistics}
 // }
 
-public class GardentAlgorithm implements ReferringExpressionAlgorithm {
+public class GardentAlgorithm extends AbstractReferringExpressionAlgorithm {
 
     static final Logger logger = LoggerFactory.getLogger(GardentAlgorithm.class);
 
-    private static class Pair {
-        private URI predicate;
-        private Value value;
-
-        public Pair(Statement stmt) {
-            this.predicate = stmt.getPredicate();
-            this.value = stmt.getObject();
-        }
-
-        public Pair(URI property, Value value) {
-            this.predicate = property;
-            this.value = value;
-        }
-
-        public String getPredicateString() {
-            return predicate.getLocalName();
-        }
 
-        public String getValueString() {
-            return value.stringValue();
-        }
+    public GardentAlgorithm(Map<String, List<String>> priorities, Map<String, List<String>> ignored) {
+        super(new PriorityTable(priorities, ignored, TermDictionary.getDefault()));
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof Pair))
-                return false;
-            Pair other = (Pair) o;
-            return this.predicate.equals(other.predicate) && this.value.equals(other.value);
+    public ReferringExpression resolve(EntityContext context) throws ReferringExpressionException {
+        URI referent = context.getReferent();
+        List<URI> confusors = context.getConfusors();
+        List<Value> types = context.types(referent);
+        if (types.isEmpty())
+            throw new ReferringExpressionException("Unknwon type for referent '" + referent + "'");
+        final PriorityTable.Ranks ranks = priorities.forTypes(types);
+        if (ranks == null) {
+            StringBuilder typeNames = new StringBuilder();
+            for (Value typeValue : types)
+                typeNames.append(' ').append(typeValue.stringValue());
+            throw new ReferringExpressionException("No priorities for referent with types [" + typeNames + " ]");
         }
+        String type = ranks.getType();
+        logger.debug("Using priorities " + ranks.getPriorities() + " (type '" + type + "') for referent '" + referent);
 
-        @Override
-        public int hashCode() {
-            return this.predicate.hashCode() * 13 & this.value.hashCode();
-        }
+        List<Statement> referentStmts = withoutIgnored(context.description(referent), ranks);
 
-        public String toString() {
-            return "Pair[" + this.getPredicateString() + "->" + this.getValueString() + "]";
-        }
+        final TermDictionary dictionary = this.dictionary;
 
-        public URI getPredicate() {
-            return predicate;
-        }
+        // pairs of predicate and value, as dictionary keys
+        LongIndex allPairs = new LongIndex();
 
-        public Value getValue() {
-            return value;
+        // calculate allP+
+        LongIndex allPplus = new LongIndex();
+        for (Statement stmt : referentStmts) {
+            long pair = pair(stmt);
+            allPplus.add(pair);
+            allPairs.add(pair);
         }
 
-    }
-
-    private Map<String, List<String>> priorities;
-    private Map<String, List<String>> ignored;
+        for (URI confusor : confusors)
+            if (context.description(confusor).isEmpty())
+                throw new ReferringExpressionException("No information available for confusor " + confusor);
 
-    public GardentAlgorithm(Map<String, List<String>> priorities, Map<String, List<String>> ignored) {
-        this.priorities = new HashMap<String, List<String>>();
-        for (Map.Entry<String, List<String>> e : priorities.entrySet()) {
-            this.priorities.put(e.getKey(), new ArrayList<String>(e.getValue()));
+        // confusors with exactly the pairs of the referent are ruled out by no
+        // positive nor negative pair, fail right away
+        List<URI> indistinguishable = new ArrayList<URI>();
+        for (URI confusor : confusors) {
+            LongIndex pairs = new LongIndex();
+            for (Statement stmt : withoutIgnored(context.description(confusor), ranks))
+                pairs.add(pair(stmt));
+            boolean same = pairs.size() == allPplus.size();
+            for (int i = 0; same && i < pairs.size(); i++)
+                same = allPplus.contains(pairs.key(i));
+            if (same)
+                indistinguishable.add(confusor);
         }
-        this.ignored = new HashMap<String, List<String>>();
-        if (ignored != null)
-            for (Map.Entry<String, List<String>> e : ignored.entrySet()) {
-                this.ignored.put(e.getKey(), new ArrayList<String>(e.getValue()));
-            }
-    }
+        if (!indistinguishable.isEmpty())
+            throw new IndistinguishableException(referent, indistinguishable);
 
-    public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo)
-            throws ReferringExpressionException, RepositoryException {
-        RepositoryResult<Statement> types = repo.getStatements(referent, RDF.TYPE, null, true);
-        if (!types.hasNext())
-            throw new ReferringExpressionException("Unknwon type for referent '" + referent + "'");
-        List<String> priorities = null;
-        Set<String> ignored = new HashSet<String>();
-        StringBuilder typeNames = new StringBuilder();
-        String type = null;
-        while (types.hasNext()) {
-            Statement typeStmt = types.next();
-            type = typeStmt.getObject().stringValue();
-            typeNames.append(' ').append(type);
-            priorities = this.priorities.get(type);
-            if (priorities != null) {
-                if (this.ignored.containsKey(type))
-                    ignored.addAll(this.ignored.get(type));
-                break;
-            }
-        }
-
-        if (priorities == null)
-            throw new ReferringExpressionException("No priorities for referent with types [" + typeNames + " ]");
-        logger.debug("Using priorities " + priorities + " (type '" + type + "') for referent '" + referent);
-
-        List<Statement> referentStmts = new ArrayList<Statement>();
-        Iterations.addAll(repo.getStatements(referent, null, null, true), referentStmts);
-        Iterations.addAll(repo.getStatements(null, null, referent, true), referentStmts);
-	TypePriorities.cleanIgnored(referentStmts, ignored);
-
-        final Map<String, Integer> mappedOrder = new HashMap<String, Integer>();
-        for (int i = 0; i < priorities.size(); i++)
-            mappedOrder.put(priorities.get(i), i);
-
-        Set<Pair> allPairs = new HashSet<Pair>();
-
-        // calculate allP+
-        Set<Pair> allPplus = new HashSet<Pair>();
-        for (Statement stmt : referentStmts)
-            allPplus.add(new Pair(stmt));
-        allPairs.addAll(allPplus);
+        // confusors with the same pairs give the same constraint, keep one of
+        // each
+        List<URI> representatives = ConfusorClasses.byDescription(context, ranks, dictionary).getRepresentatives();
+        if (representatives.size() < confusors.size())
+            logger.debug(confusors.size() + " confusors in " + representatives.size() + " classes");
 
         // calculate allP-
         @SuppressWarnings("unchecked")
-        List<Statement> confusorsTrue[] = new List[confusors.size()];
-        for (int i = 0; i < confusors.size(); i++) {
-            confusorsTrue[i] = new ArrayList<Statement>();
-            URI confusor = confusors.get(i);
-            boolean empty = true;
-            RepositoryResult<Statement> confusorStmts1 = repo.getStatements(confusor, null, null, true);
-            if (confusorStmts1.hasNext())
-                empty = false;
-            Iterations.addAll(confusorStmts1, confusorsTrue[i]);
-            RepositoryResult<Statement> confusorStmts2 = repo.getStatements(null, null, confusor, true);
-            if (confusorStmts2.hasNext())
-                empty = false;
-            Iterations.addAll(confusorStmts2, confusorsTrue[i]);
-            if (empty)
-                throw new ReferringExpressionException("No information available for confusor " + confusor);
-	    TypePriorities.cleanIgnored(confusorsTrue[i], ignored);
-        }
+        List<Statement> confusorsTrue[] = new List[representatives.size()];
+        for (int i = 0; i < representatives.size(); i++)
+            confusorsTrue[i] = withoutIgnored(context.description(representatives.get(i)), ranks);
 
         // check we know about all predicates for this type
         Set<String> unknownPredicates = new HashSet<String>();
         for (List<Statement> l : confusorsTrue)
             for (Statement stmt : l)
-                unknownPredicates.add(stmt.getPredicate().getLocalName());
-        unknownPredicates.removeAll(priorities);
-        unknownPredicates.removeAll(ignored);
+                if (ranks.isUnknown(stmt.getPredicate().getLocalName()))
+                    unknownPredicates.add(stmt.getPredicate().getLocalName());
         if (!unknownPredicates.isEmpty())
             logger.warn("For type '" + type + "' missing properties: " + unknownPredicates + ", referent " + referent);
 
-        Map<URI, Set<Value>> domains = new HashMap<URI, Set<Value>>();
-        for (List<Statement> l : confusorsTrue)
-            for (Statement stmt : l) {
-                if (!domains.containsKey(stmt.getPredicate()))
-                    domains.put(stmt.getPredicate(), new HashSet<Value>());
-                domains.get(stmt.getPredicate()).add(stmt.getObject());
-            }
-        Set<Pair> allPminus = new HashSet<Pair>();
-        for (Map.Entry<URI, Set<Value>> e : domains.entrySet())
-            for (Value val : e.getValue()) {
-                Pair p = new Pair(e.getKey(), val);
-                allPairs.add(p);
-                if (!allPplus.contains(p))
-                    allPminus.add(p);
+        LongIndex[] allPiPlus = new LongIndex[confusorsTrue.length];
+        LongIndex allPminus = new LongIndex();
+        for (int i = 0; i < confusorsTrue.length; i++) {
+            allPiPlus[i] = new LongIndex(confusorsTrue[i].size());
+            for (Statement stmt : confusorsTrue[i]) {
+                long pair = pair(stmt);
+                allPiPlus[i].add(pair);
+                allPairs.add(pair);
+                if (!allPplus.contains(pair))
+                    allPminus.add(pair);
             }
+        }
 
         // map all pairs into integers
-        List<Pair> numberedPairs = new ArrayList<Pair>(allPairs);
-        Collections.sort(numberedPairs, new Comparator<Pair>() {
-
-            public int compare(Pair p1, Pair p2) {
-                String prop1 = p1.getPredicateString();
-                String prop2 = p2.getPredicateString();
-                Integer m1 = mappedOrder.get(prop1);
-                Integer m2 = mappedOrder.get(prop2);
-                if (m1 != null && m2 != null)
-                    return m1.compareTo(m2);
-                if (m1 != null)
-                    return -1;
-                if (m2 != null)
-                    return 1;
-                if (prop1 != prop2) // using unique strings
+        List<Long> numberedPairs = new ArrayList<Long>(allPairs.size());
+        for (int i = 0; i < allPairs.size(); i++)
+            numberedPairs.add(allPairs.key(i));
+        Collections.sort(numberedPairs, new Comparator<Long>() {
+
+            public int compare(Long p1, Long p2) {
+                int m1 = ranks.rank(TermDictionary.first(p1));
+                int m2 = ranks.rank(TermDictionary.first(p2));
+                if (m1 != m2)
+                    return m1 < m2 ? -1 : 1;
+                String prop1 = dictionary.localName(TermDictionary.first(p1));
+                String prop2 = dictionary.localName(TermDictionary.first(p2));
+                if (m1 == PriorityTable.UNRANKED && prop1 != prop2) // using unique strings
                     return prop1.compareTo(prop2);
-                return p1.getValueString().compareTo(p2.getValueString());
+                // same predicate (or local name), so that the numbering does not
+                // depend on the order of the statements
+                Value v1 = dictionary.term(TermDictionary.second(p1));
+                Value v2 = dictionary.term(TermDictionary.second(p2));
+                int result = v1.stringValue().compareTo(v2.stringValue());
+                return result != 0 ? result : v1.toString().compareTo(v2.toString());
             }
 
         });
-        Map<Pair, Integer> pairToInt = new HashMap<Pair, Integer>();
-        for (int i = 0; i < numberedPairs.size(); i++)
-            pairToInt.put(numberedPairs.get(i), i);
+        long[] numbered = new long[numberedPairs.size()];
+        LongIndex pairToInt = new LongIndex(numbered.length);
+        for (int i = 0; i < numbered.length; i++)
+            pairToInt.add(numbered[i] = numberedPairs.get(i));
 
         // define the constraints
-        int[] allPplusArr = new int[allPplus.size()];
-        List<Pair> allPplusL = new ArrayList<Pair>(allPplus);
-        for (int i = 0; i < allPplus.size(); i++)
-            allPplusArr[i] = pairToInt.get(allPplusL.get(i));
-
-        Arrays.sort(allPplusArr);
-
-        int[] allPminusArr = new int[allPminus.size()];
-        List<Pair> allPminusL = new ArrayList<Pair>(allPminus);
-        for (int i = 0; i < allPminus.size(); i++)
-            allPminusArr[i] = pairToInt.get(allPminusL.get(i));
-        Arrays.sort(allPminusArr);
+        int[] allPplusArr = numbers(allPplus, pairToInt).toArray();
+        int[] allPminusArr = numbers(allPminus, pairToInt).toArray();
+        EntityBitmap allNumbers = new EntityBitmap();
+        for (int j = 0; j < numbered.length; j++)
+            allNumbers.add(j);
 
         Solver solver = new Solver();
-        SetVar pPlus = VF.set("Pplus", 0, numberedPairs.size(), solver);
-        SetVar pMinus = VF.set("Pminus", 0, numberedPairs.size(), solver);
+        SetVar pPlus = VF.set("Pplus", 0, numbered.length, solver);
+        SetVar pMinus = VF.set("Pminus", 0, numbered.length, solver);
         SetVar allPplusVar = VF.set("allPplus", allPplusArr, allPplusArr, solver); // constant
         SetVar allPminusVar = VF.set("allPminus", allPminusArr, allPminusArr, solver); // constant
 
@@ -260,44 +187,27 @@ public class GardentAlgorithm implements ReferringExpressionAlgorithm {
 
         for (int i = 0; i < confusorsTrue.length; i++) {
             // Pi+
-            Set<Pair> allPiPlus = new HashSet<Pair>();
-
-            for (Statement stmt : confusorsTrue[i])
-                allPiPlus.add(new Pair(stmt));
-            List<Pair> allPiPlusL = new ArrayList<Pair>(allPiPlus);
-            int[] allPiPlusI = new int[allPiPlusL.size()];
-            for (int j = 0; j < allPiPlusI.length; j++) {
-                Integer ii = pairToInt.get(allPiPlusL.get(j));
-                if (ii == null)
-                    System.out.println("Not found: " + allPiPlusL.get(j));
-                allPiPlusI[j] = ii;
-            }
-            Arrays.sort(allPiPlusI);
+            EntityBitmap piPlus = numbers(allPiPlus[i], pairToInt);
+            int[] allPiPlusI = piPlus.toArray();
 
             // P/Pi+
-            Set<Pair> allPiPlusCompl = new HashSet<Pair>(allPairs);
-            allPiPlusCompl.removeAll(allPiPlus);
-            List<Pair> allPiPlusComplL = new ArrayList<Pair>(allPiPlusCompl);
-            int[] allPiPlusComplI = new int[allPiPlusComplL.size()];
-            for (int j = 0; j < allPiPlusComplI.length; j++)
-                allPiPlusComplI[j] = pairToInt.get(allPiPlusComplL.get(j));
-            Arrays.sort(allPiPlusComplI);
-
-            SetVar pPlusSansPiPlus = VF.set("pPlusSansP" + i + "Plus", 0, numberedPairs.size(), solver);
+            int[] allPiPlusComplI = allNumbers.andNot(piPlus).toArray();
+
+            SetVar pPlusSansPiPlus = VF.set("pPlusSansP" + i + "Plus", 0, numbered.length, solver);
             SetVar allPiPlusComplIVar = VF.set("allP" + i + "PlusComplI", allPiPlusComplI, allPiPlusComplI, solver);
             solver.post(SCF.intersection(new SetVar[] { pPlus, allPiPlusComplIVar }, pPlusSansPiPlus));
 
-            SetVar pMinusInterPiPlus = VF.set("pMinusInterP" + i + "Plus", 0, numberedPairs.size(), solver);
+            SetVar pMinusInterPiPlus = VF.set("pMinusInterP" + i + "Plus", 0, numbered.length, solver);
             SetVar allPiPlusIVar = VF.set("allP" + i + "PlusI", allPiPlusI, allPiPlusI, solver);
             solver.post(SCF.intersection(new SetVar[] { pMinus, allPiPlusIVar }, pMinusInterPiPlus));
 
-            SetVar bothCases = VF.set("bothCases_" + i, 0, numberedPairs.size(), solver);
+            SetVar bothCases = VF.set("bothCases_" + i, 0, numbered.length, solver);
             solver.post(SCF.union(new SetVar[] { pPlusSansPiPlus, pMinusInterPiPlus }, bothCases));
 
             // now, for the actual constraint
             solver.post(SCF.cardinality(bothCases, one));
         }
-        SetVar pPlus_pMinus = VF.set("pPlus_pMinus", 0, numberedPairs.size(), solver);
+        SetVar pPlus_pMinus = VF.set("pPlus_pMinus", 0, numbered.length, solver);
         solver.post(SCF.union(new SetVar[] { pPlus, pMinus }, pPlus_pMinus));
         int targetCard = 1;
         while (targetCard < 10) {
@@ -314,16 +224,17 @@ public class GardentAlgorithm implements ReferringExpressionAlgorithm {
                 ReferringExpression result = new ReferringExpression(referent);
 
                 for (int i : setVar(cardSolver, pPlus).getValues()) {
-                    logger.debug("\t" + numberedPairs.get(i));
-                    Pair p = numberedPairs.get(i);
-                    result.addPositive(null, p.getPredicate(), p.getValue());
+                    long p = numbered[i];
+                    logger.debug("\t" + toString(p));
+                    result.addPositive(null, (URI) dictionary.term(TermDictionary.first(p)),
+                            dictionary.term(TermDictionary.second(p)));
                 }
                 logger.debug("P-: ");
                 for (int i : setVar(cardSolver, pMinus).getValues()) {
-                    logger.debug("\t" + numberedPairs.get(i));
-
-                    Pair p = numberedPairs.get(i);
-                    result.addNegative(null, p.getPredicate(), p.getValue());
+                    long p = numbered[i];
+                    logger.debug("\t" + toString(p));
+                    result.addNegative(null, (URI) dictionary.term(TermDictionary.first(p)),
+                            dictionary.term(TermDictionary.second(p)));
                 }
 
                 return result;
@@ -334,6 +245,39 @@ public class GardentAlgorithm implements ReferringExpressionAlgorithm {
         throw new ReferringExpressionException("No constraints found");
     }
 
+    /**
+     * The statements whose predicates are not ignored for the type.
+     */
+    private List<Statement> withoutIgnored(List<Statement> stmts, PriorityTable.Ranks ranks) {
+        List<Statement> result = new ArrayList<Statement>(stmts.size());
+        for (Statement stmt : stmts)
+            if (!ranks.isIgnored(dictionary.predicate(stmt.getPredicate())))
+                result.add(stmt);
+        return result;
+    }
+
+    /**
+     * The predicate and object of the statement, as a dictionary key.
+     */
+    private long pair(Statement stmt) {
+        return TermDictionary.key(dictionary.predicate(stmt.getPredicate()), dictionary.id(stmt.getObject()));
+    }
+
+    private String toString(long pair) {
+        return "Pair[" + dictionary.localName(TermDictionary.first(pair)) + "->"
+                + dictionary.term(TermDictionary.second(pair)).stringValue() + "]";
+    }
+
+    /**
+     * The numbers for the pairs.
+     */
+    private static EntityBitmap numbers(LongIndex pairs, LongIndex pairToInt) {
+        EntityBitmap result = new EntityBitmap();
+        for (int i = 0; i < pairs.size(); i++)
+            result.add(pairToInt.indexOf(pairs.key(i)));
+        return result;
+    }
+
     private SetVar setVar(Solver solver, SetVar v) {
         String name = v.getName();
         for (Variable var : solver.getVars()) {
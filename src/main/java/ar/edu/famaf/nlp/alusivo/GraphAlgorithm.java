@@ -6,6 +6,7 @@
 package ar.edu.famaf.nlp.alusivo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -21,10 +22,7 @@ import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.model.vocabulary.RDF;
-import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.RepositoryException;
-import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,14 +47,12 @@ import org.slf4j.LoggerFactory;
 // publisher={MIT Press}
 // }
 
-public class GraphAlgorithm implements ReferringExpressionAlgorithm {
+public class GraphAlgorithm extends AbstractReferringExpressionAlgorithm {
 
     static final Logger logger = LoggerFactory.getLogger(GraphAlgorithm.class);
 
     private static long MAX_TIME = 60 * 1000L; // 1 min
 
-    private Map<String, List<String>> priorities;
-    private Map<String, List<String>> ignored;
     private long maxTime = 60 * 1000L; // 1 min
 
     public GraphAlgorithm(Map<String, List<String>> priorities, Map<String, List<String>> ignored) {
@@ -64,21 +60,7 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
     }
 
     public GraphAlgorithm(Map<String, List<String>> priorities, Map<String, List<String>> ignored, long maxTime) {
-        this.priorities = null;
-        this.ignored = null;
-
-        if(priorities != null) {
-            this.priorities = new HashMap<String, List<String>>();
-            for (Map.Entry<String, List<String>> e : priorities.entrySet()) {
-                this.priorities.put(e.getKey(), new ArrayList<String>(e.getValue()));
-            }
-        }
-        if (ignored != null){
-            this.ignored = new HashMap<String, List<String>>();
-            for (Map.Entry<String, List<String>> e : ignored.entrySet()) {
-                this.ignored.put(e.getKey(), new ArrayList<String>(e.getValue()));
-            }
-        }
+        super(priorities == null ? null : new PriorityTable(priorities, ignored, TermDictionary.getDefault()));
         this.maxTime = maxTime;
     }
 
@@ -87,18 +69,26 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
         private URI uri;
         private Value value;
 
+        // dictionary ids, valueId is -1 for relations
+        private int uriId;
+        private int valueId;
+
         private boolean isRelation;
 
-        public Edge(URI uri) {
+        public Edge(URI uri, int uriId) {
             this.isRelation = true;
             this.uri = uri;
             this.value = null;
+            this.uriId = uriId;
+            this.valueId = -1;
         }
 
-        public Edge(URI uri, Value value) {
+        public Edge(URI uri, int uriId, Value value, int valueId) {
             this.isRelation = false;
             this.uri = uri;
             this.value = value;
+            this.uriId = uriId;
+            this.valueId = valueId;
         }
 
         public boolean isRelation() {
@@ -109,16 +99,17 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
             return uri;
         }
 
+        public int getURIId() {
+            return uriId;
+        }
+
         public Value getValue() {
             return value;
         }
 
         @Override
         public int hashCode() {
-            if (isRelation)
-                return uri.hashCode();
-            else
-                return uri.hashCode() * value.hashCode();
+            return uriId * 31 + valueId;
         }
 
         @Override
@@ -126,13 +117,7 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
             if (!(obj instanceof Edge))
                 return false;
             Edge other = (Edge) obj;
-            if (this.isRelation != other.isRelation)
-                return false;
-            if (!this.uri.equals(other.uri))
-                return false;
-            if (this.isRelation)
-                return true;
-            return this.value.equals(other.value);
+            return this.uriId == other.uriId && this.valueId == other.valueId;
         }
 
         @Override
@@ -142,52 +127,47 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
         }
     }
 
-    public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo)
-            throws ReferringExpressionException, RepositoryException {
+    public ReferringExpression resolve(EntityContext context) throws ReferringExpressionException {
+        URI referent = context.getReferent();
+        List<URI> confusors = context.getConfusors();
 
-        Map<String, Integer> mappedOrder = new HashMap<String, Integer>();
-        Set<String> ignored = new HashSet<String>();
+        // null without priorities, all edges unranked and none ignored
+        PriorityTable.Ranks ranks = null;
         if(this.priorities != null){
-            List<String> priorities = null;
-            RepositoryResult<Statement> types = repo.getStatements(referent, RDF.TYPE, null, true);
+            List<Value> types = context.types(referent);
 
-            if (!types.hasNext())
+            if (types.isEmpty())
                 throw new ReferringExpressionException("Unknwon type for referent '" + referent + "'");
-        
-            
-            StringBuilder typeNames = new StringBuilder();
-            String type = null;
-            while (types.hasNext()) {
-                Statement typeStmt = types.next();
-                type = typeStmt.getObject().stringValue();
-                typeNames.append(' ').append(type);
-                priorities = this.priorities.get(type);
-                if (priorities != null) {
-                    if (this.ignored != null && this.ignored.containsKey(type))
-                        ignored.addAll(this.ignored.get(type));
-                    break;
-                }
-            }
 
-            if (priorities == null)
+            ranks = this.priorities.forTypes(types);
+            if (ranks == null) {
+                StringBuilder typeNames = new StringBuilder();
+                for (Value typeValue : types)
+                    typeNames.append(' ').append(typeValue.stringValue());
                 throw new ReferringExpressionException("No priorities for referent with types [" + typeNames + " ]");
-
-            mappedOrder = new HashMap<String, Integer>();
-            for (int i = 0; i < priorities.size(); i++)
-                mappedOrder.put(priorities.get(i), i);
+            }
         }
 
         URI[] uris = new URI[confusors.size() + 1];
         confusors.toArray(uris);
         uris[uris.length - 1] = referent;
-        DirectedPseudograph<Resource, Edge> graph = buildGraph(repo, uris, ignored);
+        List<Statement> scene = scene(context, uris, ranks);
+
+        // fail right away, rather than searching until the time-out, when
+        // some confusor cannot be told apart
+        List<URI> indistinguishable = Bisimulation.structural(scene, Arrays.asList(uris), dictionary)
+                .indistinguishable(referent, confusors);
+        if (!indistinguishable.isEmpty())
+            throw new IndistinguishableException(referent, indistinguishable);
+
+        DirectedPseudograph<Resource, Edge> graph = buildGraph(scene);
         DirectedPseudograph<Resource, Edge> bestGraph = null;
         DirectedPseudograph<Resource, Edge> candidate = new DirectedPseudograph<Resource, Edge>(Edge.class);
         candidate.addVertex(referent);
 
         DirectedPseudograph<Resource, Edge> finalGraph =
             findGraph(referent, graph, bestGraph, Double.NaN, candidate,
-                      System.currentTimeMillis(), mappedOrder).getLeft();
+                      System.currentTimeMillis(), ranks).getLeft();
 
         if (finalGraph == null)
             throw new ReferringExpressionException("No graph found");
@@ -201,53 +181,53 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
         return result;
     }
 
-    private DirectedPseudograph<Resource, Edge> buildGraph(RepositoryConnection repo, URI[] uris, Set<String>ignored)
-            throws RepositoryException {
-        DirectedPseudograph<Resource, Edge> result = new DirectedPseudograph<Resource, Edge>(Edge.class);
-
+    /**
+     * The statements about the referent and the confusors, without the
+     * ignored ones, each once.
+     */
+    private List<Statement> scene(EntityContext context, URI[] uris, PriorityTable.Ranks ranks) {
         Set<Statement> consumed = new HashSet<Statement>();
-
-        for (URI uri : uris) {
-            buildGraphAddAll(result, repo.getStatements(uri, null, null, true), consumed, ignored);
-            buildGraphAddAll(result, repo.getStatements(null, null, uri, true), consumed, ignored);
-        }
-
+        List<Statement> result = new ArrayList<Statement>();
+        for (URI uri : uris)
+            for (Statement stmt : context.description(uri)) {
+                if (ranks != null && ranks.isIgnored(dictionary.predicate(stmt.getPredicate())))
+                    continue;
+                if (consumed.add(stmt))
+                    result.add(stmt);
+            }
         return result;
     }
 
-    private void buildGraphAddAll(DirectedPseudograph<Resource, Edge> graph, RepositoryResult<Statement> stmts,
-            Set<Statement> consumed, Set<String>ignored) throws RepositoryException {
+    private DirectedPseudograph<Resource, Edge> buildGraph(List<Statement> scene) {
+        DirectedPseudograph<Resource, Edge> result = new DirectedPseudograph<Resource, Edge>(Edge.class);
 
-        while (stmts.hasNext()) {
-            Statement stmt = stmts.next();
-            if (consumed.contains(stmt))
-                continue;
-            if(ignored.contains(stmt.getPredicate().getLocalName()))
-                continue;
-            consumed.add(stmt);
+        for (Statement stmt : scene) {
             Resource source = stmt.getSubject();
-            if (!graph.containsVertex(source))
-                graph.addVertex(source);
+            if (!result.containsVertex(source))
+                result.addVertex(source);
             Value value = stmt.getObject();
             Resource target = source;
             Edge edge = null;
+            int predicate = dictionary.predicate(stmt.getPredicate());
             if (value instanceof Resource) {
                 target = (Resource) value;
-                edge = new Edge(stmt.getPredicate());
+                edge = new Edge(stmt.getPredicate(), predicate);
             } else {
-                edge = new Edge(stmt.getPredicate(), value);
+                edge = new Edge(stmt.getPredicate(), predicate, value, dictionary.id(value));
             }
-            if (!graph.containsVertex(target))
-                graph.addVertex(target);
-            graph.addEdge(source, target, edge);
+            if (!result.containsVertex(target))
+                result.addVertex(target);
+            result.addEdge(source, target, edge);
         }
+
+        return result;
     }
 
     private Pair<DirectedPseudograph<Resource, Edge>, Double>
         findGraph(URI referent,
                   DirectedPseudograph<Resource, Edge> fullGraph, DirectedPseudograph<Resource, Edge> bestGraph,
                   double bestGraphCost, DirectedPseudograph<Resource, Edge> candidate, long startTime,
-                  final Map<String, Integer>mappedOrder)
+                  final PriorityTable.Ranks ranks)
             throws ReferringExpressionException {
         double candidateCost = cost(candidate);
         if (bestGraph != null && bestGraphCost <= candidateCost)
@@ -265,24 +245,26 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
             return Pair.of(candidate, candidateCost);
 
         Collection<Edge>neighbors = neighbors(candidate, fullGraph);
-        if(mappedOrder != null){
-            List<Edge>toSort = new ArrayList<Edge>(neighbors);
-
-            Collections.sort(toSort, new Comparator<Edge>() {
-                    public int compare(Edge e1, Edge e2) {
-                        Integer m1 = mappedOrder.get(e1.getURI().getLocalName());
-                        Integer m2 = mappedOrder.get(e2.getURI().getLocalName());
-                        if (m1 != null && m2 != null)
-                            return m1.compareTo(m2);
-                        if (m1 != null)
-                            return -1;
-                        if (m2 != null)
-                            return 1;
-                        return e1.getURI().toString().compareTo(e2.getURI().toString());
-                    }
-                });
-            neighbors = toSort;
-        }
+        List<Edge>toSort = new ArrayList<Edge>(neighbors);
+
+        Collections.sort(toSort, new Comparator<Edge>() {
+                public int compare(Edge e1, Edge e2) {
+                    int m1 = ranks == null ? PriorityTable.UNRANKED : ranks.rank(e1.getURIId());
+                    int m2 = ranks == null ? PriorityTable.UNRANKED : ranks.rank(e2.getURIId());
+                    if (m1 != m2)
+                        return m1 < m2 ? -1 : 1;
+                    // a total order, so the search does not depend on the
+                    // dictionary ids the edges hash on
+                    int c = e1.getURI().stringValue().compareTo(e2.getURI().stringValue());
+                    if (c != 0)
+                        return c;
+                    if (e1.getValue() == null || e2.getValue() == null)
+                        return e1.getValue() == null ? (e2.getValue() == null ? 0 : -1) : 1;
+                    return NTriplesUtil.toNTriplesString(e1.getValue()).compareTo(
+                            NTriplesUtil.toNTriplesString(e2.getValue()));
+                }
+            });
+        neighbors = toSort;
         for (Edge e : neighbors) {
             if (System.currentTimeMillis() - startTime > maxTime)
                 throw new ReferringExpressionException("Time-out");
@@ -299,7 +281,7 @@ public class GraphAlgorithm implements ReferringExpressionAlgorithm {
             newCandidate.addEdge(fullGraph.getEdgeSource(e), fullGraph.getEdgeTarget(e), e);
             Pair<DirectedPseudograph<Resource, Edge>, Double> p =
                 findGraph(referent, fullGraph, bestGraph,
-                          bestGraphCost, newCandidate, startTime, mappedOrder);
+                          bestGraphCost, newCandidate, startTime, ranks);
             if (bestGraph == null || p.getRight() <= bestGraphCost) {
                 bestGraph = p.getLeft();
                 bestGraphCost = p.getRight();
@@ -0,0 +1,262 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.repository.RepositoryException;
+
+import ar.edu.famaf.nlp.alusivo.ReferringExpression.Predicate;
+
+/**
+ *
+ * A referring expression kept up to date while the confusors change a few at
+ * a time, as in a dialogue where entities enter and leave the context from
+ * turn to turn. Each update only checks the expression against the added
+ * confusors, extends it (in the spirit of Dale and Reiter, by priority) with
+ * referent statements ruling out the ones it does not, and drops the
+ * predicates no longer needed once confusors leave. The work per update
+ * depends on the size of the change, not on the size of the context.
+ *
+ * Predicates are checked as Resolver does over a snapshot (see
+ * Predicate.holds()), so any expression can be kept up to date, whichever
+ * algorithm produced it. Ground predicates (not mentioning the referent) are
+ * never dropped.
+ *
+ * For each confusor, the predicates recorded as ruling it out are kept. A
+ * predicate is only recorded for confusors not ruled out yet when it is
+ * checked, so the record might miss some, but whatever it says is true and a
+ * predicate is dropped only when every confusor it was recorded for is ruled
+ * out by another one. Not thread-safe.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class IncrementalResolution {
+
+    private EntityContext context;
+    private PriorityTable.Ranks ranks;
+
+    private List<Predicate> predicates = new ArrayList<Predicate>();
+    private Map<Predicate, Set<URI>> rulesOut = new IdentityHashMap<Predicate, Set<URI>>();
+    // confusors recorded as ruled out by that predicate only
+    private Map<Predicate, Integer> essential = new IdentityHashMap<Predicate, Integer>();
+    private Map<URI, Set<Predicate>> ruledOutBy = new HashMap<URI, Set<Predicate>>();
+    private Set<URI> remaining = new LinkedHashSet<URI>();
+
+    private ReferringExpression expression;
+
+    /**
+     * @param expression
+     *            the expression resolved for the context.
+     * @param ranks
+     *            the order in which referent statements are tried when
+     *            extending the expression, only ranked predicates are tried;
+     *            null to try all the outgoing statements, in context order.
+     */
+    public IncrementalResolution(ReferringExpression expression, EntityContext context, PriorityTable.Ranks ranks)
+            throws ReferringExpressionException {
+        this.context = context;
+        this.ranks = ranks;
+        URI referent = context.getReferent();
+        for (Predicate pred : expression.predicates()) {
+            if (!pred.holds(referent, context))
+                throw new ReferringExpressionException("Predicate does not hold for the referent: " + pred);
+            predicates.add(pred);
+            rulesOut.put(pred, new HashSet<URI>());
+            essential.put(pred, 0);
+        }
+        remaining.addAll(context.getConfusors());
+        for (Predicate pred : predicates)
+            check(pred, new ArrayList<URI>(remaining));
+        this.expression = expression;
+    }
+
+    public EntityContext getContext() {
+        return context;
+    }
+
+    /**
+     * The current expression. Unless getRemaining() is not empty it tells the
+     * referent apart from all the confusors in the context.
+     */
+    public ReferringExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * The confusors no predicate in the expression rules out.
+     */
+    public List<URI> getRemaining() {
+        return new ArrayList<URI>(remaining);
+    }
+
+    /**
+     * Fetch the added confusors and update the expression. This consumes the
+     * context the resolution holds, the one given to the constructor the
+     * first time (see EntityContext.update()): anything else still holding
+     * it, or a view of it, can no longer use it afterwards. Build a separate
+     * context for this resolution if the original is still needed.
+     */
+    public ReferringExpression update(List<URI> added, List<URI> removed, KnowledgeBase kb, PredicateFilter filter)
+            throws ReferringExpressionException, RepositoryException {
+        return update(context.update(added, removed, kb, filter), added, removed);
+    }
+
+    /**
+     * Update the expression for the given context, which differs from the
+     * current one by the added and removed confusors.
+     *
+     * @throws ReferringExpressionException
+     *             if no referent statement rules out some of the added
+     *             confusors; getRemaining() then lists them, and the
+     *             expression is still the best one for the new context.
+     */
+    public ReferringExpression update(EntityContext context, List<URI> added, List<URI> removed)
+            throws ReferringExpressionException {
+        if (!context.getReferent().equals(this.context.getReferent()))
+            throw new IllegalArgumentException("Another referent: " + context.getReferent());
+        this.context = context;
+
+        Set<URI> present = new HashSet<URI>(context.getConfusors());
+        for (URI confusor : removed)
+            if (!present.contains(confusor))
+                forget(confusor);
+
+        List<URI> fresh = new ArrayList<URI>();
+        for (URI confusor : added)
+            if (!ruledOutBy.containsKey(confusor) && !remaining.contains(confusor)) {
+                remaining.add(confusor);
+                fresh.add(confusor);
+            }
+        for (Predicate pred : predicates)
+            check(pred, fresh);
+
+        if (!remaining.isEmpty())
+            extend();
+
+        // drop the last added first, keeping the preferred ones
+        for (int i = predicates.size() - 1; i >= 0; i--) {
+            Predicate pred = predicates.get(i);
+            if (!pred.isGround() && essential.get(pred) == 0) {
+                for (URI confusor : new ArrayList<URI>(rulesOut.get(pred)))
+                    unrecord(pred, confusor);
+                predicates.remove(i);
+                rulesOut.remove(pred);
+                essential.remove(pred);
+            }
+        }
+
+        expression = new ReferringExpression(context.getReferent());
+        for (Predicate pred : predicates)
+            expression.add(pred.getSubject(), pred.getPredicate(), pred.getObject(), pred.isNegative());
+
+        if (!remaining.isEmpty())
+            throw new ReferringExpressionException("Confusors left: " + remaining);
+        return expression;
+    }
+
+    /**
+     * Add the referent statements, by priority, ruling out some of the
+     * remaining confusors.
+     */
+    private void extend() {
+        List<Statement> stmts = context.outgoing(context.getReferent());
+        int[] rank = new int[stmts.size()];
+        for (int i = 0; i < rank.length; i++)
+            rank[i] = ranks == null ? 0 : ranks.rank(stmts.get(i).getPredicate().getLocalName());
+        // in the same order as DaleReiterAlgorithm
+        int[] order = DaleReiterAlgorithm.byRank(stmts, rank);
+        int candidates = order.length;
+
+        ReferringExpression holder = new ReferringExpression(context.getReferent());
+        for (int k = 0; k < candidates && !remaining.isEmpty(); k++) {
+            Statement stmt = stmts.get(order[k]);
+            if (contains(stmt))
+                continue;
+            holder.addPositive(stmt);
+            Predicate pred = holder.predicates().get(holder.predicates().size() - 1);
+            rulesOut.put(pred, new HashSet<URI>());
+            essential.put(pred, 0);
+            check(pred, new ArrayList<URI>(remaining));
+            if (rulesOut.get(pred).isEmpty()) {
+                rulesOut.remove(pred);
+                essential.remove(pred);
+            } else
+                predicates.add(pred);
+        }
+    }
+
+    private boolean contains(Statement stmt) {
+        for (Predicate pred : predicates)
+            if (!pred.isNegative() && pred.getSubject() == null && pred.getPredicate().equals(stmt.getPredicate())
+                    && stmt.getObject().equals(pred.getObject()))
+                return true;
+        return false;
+    }
+
+    /**
+     * Record the predicate for the given confusors it rules out.
+     */
+    private void check(Predicate pred, List<URI> confusors) {
+        for (URI confusor : confusors)
+            if (!pred.holds(confusor, context))
+                record(pred, confusor);
+    }
+
+    private void record(Predicate pred, URI confusor) {
+        Set<Predicate> by = ruledOutBy.get(confusor);
+        if (by == null) {
+            by = new HashSet<Predicate>();
+            ruledOutBy.put(confusor, by);
+            remaining.remove(confusor);
+        }
+        if (by.size() == 1)
+            adjust(by.iterator().next(), -1);
+        by.add(pred);
+        if (by.size() == 1)
+            adjust(pred, 1);
+        rulesOut.get(pred).add(confusor);
+    }
+
+    private void unrecord(Predicate pred, URI confusor) {
+        Set<Predicate> by = ruledOutBy.get(confusor);
+        if (by.size() == 1)
+            adjust(pred, -1);
+        by.remove(pred);
+        if (by.size() == 1)
+            adjust(by.iterator().next(), 1);
+        rulesOut.get(pred).remove(confusor);
+        if (by.isEmpty()) {
+            ruledOutBy.remove(confusor);
+            remaining.add(confusor);
+        }
+    }
+
+    private void forget(URI confusor) {
+        remaining.remove(confusor);
+        Set<Predicate> by = ruledOutBy.remove(confusor);
+        if (by == null)
+            return;
+        if (by.size() == 1)
+            adjust(by.iterator().next(), -1);
+        for (Predicate pred : by)
+            rulesOut.get(pred).remove(confusor);
+    }
+
+    private void adjust(Predicate pred, int delta) {
+        essential.put(pred, essential.get(pred) + delta);
+    }
+}
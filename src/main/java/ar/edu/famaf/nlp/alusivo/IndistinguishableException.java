@@ -0,0 +1,48 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openrdf.model.URI;
+
+/**
+ *
+ * The referent cannot be told apart from some confusors with the available
+ * data, whatever the algorithm tries (see Bisimulation).
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class IndistinguishableException extends ReferringExpressionException {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    private URI referent;
+    private List<URI> confusors;
+
+    public IndistinguishableException(URI referent, List<URI> confusors) {
+        super("Confusors indistinguishable from '" + referent + "': " + confusors);
+        this.referent = referent;
+        this.confusors = Collections.unmodifiableList(new ArrayList<URI>(confusors));
+    }
+
+    public URI getReferent() {
+        return referent;
+    }
+
+    /**
+     * The indistinguishable confusors, in confusor order.
+     */
+    public List<URI> getConfusors() {
+        return confusors;
+    }
+}
@@ -0,0 +1,116 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.Update;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.event.base.RepositoryConnectionListenerAdapter;
+
+/**
+ *
+ * Listener for NotifyingRepositoryConnection invalidating the entities touched
+ * by each change (or everything, for changes with wildcards). Changes are
+ * notified before they are made, so whatever was read from the repository
+ * between the notification and the commit is stale too: the entities changed
+ * in a transaction are invalidated once more when it commits.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+abstract class InvalidationListener extends RepositoryConnectionListenerAdapter {
+
+    // entities changed by each connection in its current transaction, null
+    // standing for all of them
+    private Map<RepositoryConnection, Set<Value>> changed = new HashMap<RepositoryConnection, Set<Value>>();
+
+    protected abstract void invalidate(Value entity);
+
+    protected abstract void invalidateAll();
+
+    @Override
+    public void begin(RepositoryConnection conn) {
+        synchronized (changed) {
+            changed.put(conn, new HashSet<Value>());
+        }
+    }
+
+    @Override
+    public void commit(RepositoryConnection conn) {
+        Set<Value> entities;
+        synchronized (changed) {
+            entities = changed.remove(conn);
+        }
+        if (entities == null)
+            return;
+        if (entities.contains(null)) {
+            invalidateAll();
+        } else {
+            for (Value entity : entities)
+                invalidate(entity);
+        }
+    }
+
+    @Override
+    public void rollback(RepositoryConnection conn) {
+        synchronized (changed) {
+            changed.remove(conn);
+        }
+    }
+
+    @Override
+    public void close(RepositoryConnection conn) {
+        rollback(conn);
+    }
+
+    @Override
+    public void add(RepositoryConnection conn, Resource subject, URI predicate, Value object, Resource... contexts) {
+        changed(conn, subject);
+        changed(conn, object);
+    }
+
+    @Override
+    public void remove(RepositoryConnection conn, Resource subject, URI predicate, Value object,
+            Resource... contexts) {
+        if (subject == null || object == null) {
+            changed(conn, null);
+        } else {
+            changed(conn, subject);
+            changed(conn, object);
+        }
+    }
+
+    @Override
+    public void clear(RepositoryConnection conn, Resource... contexts) {
+        changed(conn, null);
+    }
+
+    @Override
+    public void execute(RepositoryConnection conn, QueryLanguage ql, String update, String baseURI,
+            Update operation) {
+        changed(conn, null);
+    }
+
+    private void changed(RepositoryConnection conn, Value entity) {
+        if (entity == null)
+            invalidateAll();
+        else
+            invalidate(entity);
+        synchronized (changed) {
+            Set<Value> entities = changed.get(conn);
+            if (entities != null)
+                entities.add(entity);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+
+/**
+ *
+ * Knowledge base wide inverted index from (predicate, object) to the
+ * subjects having it, and from predicate to the subjects having any value for
+ * it, as EntityBitmaps over TermDictionary ids. Which confusors share a value
+ * with the referent, or are ruled out by it, is then a couple of bitmap
+ * operations against the bitmap of the confusors, however many they are.
+ *
+ * Built once with a full scan; it does not follow later changes to the
+ * repository. Immutable once built.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class InvertedIndex {
+
+    private static final EntityBitmap EMPTY = new EntityBitmap();
+
+    private TermDictionary dictionary;
+
+    private LongIndex predicateValues = new LongIndex();
+    private List<EntityBitmap> withValue = new ArrayList<EntityBitmap>();
+    private LongIndex predicates = new LongIndex();
+    private List<EntityBitmap> withPredicate = new ArrayList<EntityBitmap>();
+
+    private InvertedIndex(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public static InvertedIndex build(Iterable<? extends Statement> stmts, TermDictionary dictionary) {
+        InvertedIndex result = new InvertedIndex(dictionary);
+        for (Statement stmt : stmts)
+            result.add(stmt);
+        return result;
+    }
+
+    /**
+     * Index all the statements in the repository, inferred included.
+     */
+    public static InvertedIndex build(RepositoryConnection conn, TermDictionary dictionary)
+            throws RepositoryException {
+        InvertedIndex result = new InvertedIndex(dictionary);
+        RepositoryResult<Statement> stmts = conn.getStatements(null, null, null, true);
+        try {
+            while (stmts.hasNext())
+                result.add(stmts.next());
+        } finally {
+            stmts.close();
+        }
+        return result;
+    }
+
+    private void add(Statement stmt) {
+        int s = dictionary.id(stmt.getSubject());
+        int p = dictionary.predicate(stmt.getPredicate());
+        int o = dictionary.id(stmt.getObject());
+        bitmap(predicateValues, withValue, TermDictionary.key(p, o)).add(s);
+        bitmap(predicates, withPredicate, p).add(s);
+    }
+
+    private static EntityBitmap bitmap(LongIndex index, List<EntityBitmap> bitmaps, long key) {
+        int i = index.add(key);
+        if (i == bitmaps.size())
+            bitmaps.add(new EntityBitmap());
+        return bitmaps.get(i);
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * The ids of the entities with the given predicate and object ids. Do not
+     * modify it.
+     */
+    public EntityBitmap subjects(int predicate, int object) {
+        int i = predicateValues.indexOf(TermDictionary.key(predicate, object));
+        return i < 0 ? EMPTY : withValue.get(i);
+    }
+
+    /**
+     * The ids of the entities with any value for the predicate id. Do not
+     * modify it.
+     */
+    public EntityBitmap subjects(int predicate) {
+        int i = predicates.indexOf(predicate);
+        return i < 0 ? EMPTY : withPredicate.get(i);
+    }
+
+    public EntityBitmap subjects(URI predicate, Value object) {
+        int p = dictionary.getPredicates().lookup(predicate);
+        int o = dictionary.lookup(object);
+        return p < 0 || o < 0 ? EMPTY : subjects(p, o);
+    }
+
+    public EntityBitmap subjects(URI predicate) {
+        int p = dictionary.getPredicates().lookup(predicate);
+        return p < 0 ? EMPTY : subjects(p);
+    }
+
+    /**
+     * The ids of the given entities, as a bitmap.
+     */
+    public EntityBitmap entities(Collection<? extends Value> entities) {
+        EntityBitmap result = new EntityBitmap();
+        for (Value entity : entities)
+            result.add(dictionary.id(entity));
+        return result;
+    }
+
+    /**
+     * The entities, among the candidates, ruled out by the predicate and
+     * object: they have some value for the predicate but not that one.
+     */
+    public EntityBitmap rulesOut(EntityBitmap candidates, int predicate, int object) {
+        return candidates.and(subjects(predicate)).andNot(subjects(predicate, object));
+    }
+}
@@ -0,0 +1,66 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.List;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.repository.RepositoryException;
+
+/**
+ *
+ * The access patterns the algorithms need from the knowledge base. See
+ * SesameKnowledgeBase for the adapter over a RepositoryConnection.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public interface KnowledgeBase {
+
+    /**
+     * Statements with the entity as subject.
+     */
+    public List<Statement> outgoing(Resource entity) throws RepositoryException;
+
+    /**
+     * Statements with the entity as object.
+     */
+    public List<Statement> incoming(Value entity) throws RepositoryException;
+
+    /**
+     * Statements with the entity as subject and a predicate accepted by the
+     * filter, null accepting all.
+     */
+    public List<Statement> outgoing(Resource entity, PredicateFilter filter) throws RepositoryException;
+
+    /**
+     * Statements with the entity as object and a predicate accepted by the
+     * filter, null accepting all.
+     */
+    public List<Statement> incoming(Value entity, PredicateFilter filter) throws RepositoryException;
+
+    /**
+     * Hint that the outgoing and incoming statements of the entities, with
+     * the filter (null accepting all), are about to be needed, so
+     * implementations can fetch them together. It can do nothing.
+     */
+    public void prefetch(List<? extends Value> entities, PredicateFilter filter) throws RepositoryException;
+
+    /**
+     * Whether there is a statement matching the pattern, null being a
+     * wildcard.
+     */
+    public boolean contains(Resource subject, URI predicate, Value object) throws RepositoryException;
+
+    /**
+     * The rdf:type values for the entity.
+     */
+    public List<Value> types(Resource entity) throws RepositoryException;
+
+}
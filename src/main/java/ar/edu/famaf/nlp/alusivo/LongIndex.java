@@ -0,0 +1,103 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Maps long keys to consecutive ints in insertion order, with open addressing
+ * over primitive arrays. Serves both as a set of longs and to number them.
+ * Not thread-safe.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+class LongIndex {
+
+    private long[] keys; // in insertion order
+    private int[] table; // position in keys plus one, zero for empty
+    private int size = 0;
+
+    public LongIndex() {
+        this(16);
+    }
+
+    public LongIndex(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        this.table = new int[capacity];
+        this.keys = new long[capacity / 2];
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * The index for the key, or -1 if absent.
+     */
+    public int indexOf(long key) {
+        int mask = table.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == 0)
+                return -1;
+            if (keys[slot - 1] == key)
+                return slot - 1;
+        }
+    }
+
+    public boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * The index for the key, adding it at the end if absent.
+     */
+    public int add(long key) {
+        int mask = table.length - 1;
+        int i = hash(key) & mask;
+        for (;; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == 0)
+                break;
+            if (keys[slot - 1] == key)
+                return slot - 1;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            rehash(table.length * 2);
+            return add(key);
+        }
+        keys[size] = key;
+        table[i] = ++size;
+        return size - 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int k = 0; k < size; k++) {
+            int i = hash(keys[k]) & mask;
+            while (table[i] != 0)
+                i = (i + 1) & mask;
+            table[i] = k + 1;
+        }
+    }
+
+    public long key(int index) {
+        return keys[index];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -5,25 +5,33 @@
 
 package ar.edu.famaf.nlp.alusivo;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.openrdf.model.Model;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
-import org.openrdf.repository.sail.SailRepository;
-import org.openrdf.rio.RDFFormat;
-import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
-import org.openrdf.rio.Rio;
-import org.openrdf.rio.UnsupportedRDFormatException;
-import org.openrdf.sail.memory.MemoryStore;
 
 import ch.qos.logback.classic.Level;
 
@@ -32,7 +40,7 @@ import com.beust.jcommander.Parameter;
 
 /**
  * 
- * Simple driver, it reads RDF as N-Triples and outputs the selected statements
+ * Simple driver, it streams RDF as N-Triples and outputs the selected statements
  * to standard output.
  * 
  * @author Pablo Duboue <pablo.duboue@gmail.com>
@@ -45,13 +53,16 @@ public class Main {
         @Parameter(names = { "-log", "-verbose" }, description = "Level of verbosity")
         private boolean verbose = false;
 
-        @Parameter(names = { "-rdf" }, description = "RDF statements in N-Triple format, for all entities", required = true)
+        @Parameter(names = { "-rdf" }, description = "RDF statements in N-Triple format, for all entities")
         private String rdf;
 
-        @Parameter(names = { "-referent" }, description = "URI for the referent", required = true)
+        @Parameter(names = { "-snapshot" }, description = "Folder with a binary snapshot of the RDF, (re)written when needed, for single queries")
+        private String snapshot;
+
+        @Parameter(names = { "-referent" }, description = "URI for the referent, required unless serving or in batch mode")
         private String referent;
 
-        @Parameter(names = { "-confusors" }, description = "URIs for the confusors", variableArity = true, required = true)
+        @Parameter(names = { "-confusors" }, description = "URIs for the confusors, required unless serving or in batch mode", variableArity = true)
         private List<String> confusors = new ArrayList<String>();
 
         @Parameter(names = { "-algorithm" }, description = "Full class name of the algorithm to execute", required = true)
@@ -59,58 +70,306 @@ public class Main {
 
         @Parameter(names = { "-type" }, description = "Type for the referent, if needed")
         private String type = null;
-    }
 
-    public static void main(String[] args) throws RDFParseException, UnsupportedRDFormatException, IOException,
-            RepositoryException, ReferringExpressionException, RDFHandlerException {
+        @Parameter(names = { "-threads" }, description = "Threads used to parse the RDF")
+        private int threads = Runtime.getRuntime().availableProcessors();
 
-        Options options = new Options();
-        new JCommander(options, args);
+        @Parameter(names = { "-store" }, description = "Repository type, 'memory' or 'native'")
+        private String store = Stores.MEMORY;
 
-        FileInputStream in = new FileInputStream(options.rdf);
+        @Parameter(names = { "-dataDir" }, description = "Folder for the repository data, required for native stores")
+        private String dataDir = null;
 
-        Model m = Rio.parse(in, "http://localhost/", RDFFormat.NTRIPLES);
+        @Parameter(names = { "-indexes" }, description = "Triple indexes for native stores, like 'spoc,posc,ospc'")
+        private String indexes = Stores.DEFAULT_INDEXES;
 
-        ReferringExpressionAlgorithm algorithm = null;
-        if (options.algorithm.equals(DaleReiterAlgorithm.class.getName())) {
-            algorithm = new DaleReiterAlgorithm(TypePriorities.dbPediaPriorities, TypePriorities.dbPediaIgnored);
-            if (options.verbose)
+        @Parameter(names = { "-prefetch" }, description = "Connections used to fetch the confusors concurrently, 0 for none")
+        private int prefetch = 0;
+
+        @Parameter(names = { "-server" }, description = "Keep the repository loaded and answer JSON requests on this local port")
+        private Integer server = null;
+
+        @Parameter(names = { "-workers" }, description = "Threads answering requests in server and batch modes")
+        private int workers = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(names = { "-idle" }, description = "Seconds a server client can stay idle before it is dropped")
+        private int idle = Server.DEFAULT_IDLE_TIMEOUT / 1000;
+
+        @Parameter(names = { "-jobs" }, description = "Jobs file (JSON lines or tab separated, '-' for standard input) to run in batch mode")
+        private String jobs = null;
+
+        @Parameter(names = { "-output" }, description = "File for the answers in batch mode, standard output if missing")
+        private String output = null;
+    }
+
+    /**
+     * File in the data folder of a persistent store marking when the RDF was
+     * last loaded into it.
+     */
+    private static final String LOADED_MARK = "alusivo-loaded";
+
+    private static final String[] ALGORITHMS = { DaleReiterAlgorithm.class.getName(),
+            GardentAlgorithm.class.getName(), GraphAlgorithm.class.getName() };
+
+    /**
+     * The algorithm with the given full class name, with the DBpedia
+     * priorities, null if unknown.
+     */
+    static AbstractReferringExpressionAlgorithm algorithm(String name, boolean verbose) {
+        if (name.equals(DaleReiterAlgorithm.class.getName())) {
+            if (verbose)
                 ((ch.qos.logback.classic.Logger) DaleReiterAlgorithm.logger).setLevel(Level.DEBUG);
-        } else if (options.algorithm.equals(GardentAlgorithm.class.getName())) {
-            algorithm = new GardentAlgorithm(TypePriorities.dbPediaPriorities, TypePriorities.dbPediaIgnored);
-            if (options.verbose)
+            return new DaleReiterAlgorithm(TypePriorities.dbPediaPriorities, TypePriorities.dbPediaIgnored);
+        } else if (name.equals(GardentAlgorithm.class.getName())) {
+            if (verbose)
                 ((ch.qos.logback.classic.Logger) GardentAlgorithm.logger).setLevel(Level.DEBUG);
-        } else if (options.algorithm.equals(GraphAlgorithm.class.getName())) {
-            algorithm = new GraphAlgorithm(TypePriorities.dbPediaPriorities, TypePriorities.dbPediaIgnored);
-            if (options.verbose)
+            return new GardentAlgorithm(TypePriorities.dbPediaPriorities, TypePriorities.dbPediaIgnored);
+        } else if (name.equals(GraphAlgorithm.class.getName())) {
+            if (verbose)
                 ((ch.qos.logback.classic.Logger) GraphAlgorithm.logger).setLevel(Level.DEBUG);
-        } else {
+            return new GraphAlgorithm(TypePriorities.dbPediaPriorities, TypePriorities.dbPediaIgnored);
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws RDFParseException, IOException, RepositoryException,
+            ReferringExpressionException {
+
+        Options options = new Options();
+        new JCommander(options, args);
+
+        AbstractReferringExpressionAlgorithm algorithm = algorithm(options.algorithm, options.verbose);
+        if (algorithm == null) {
             System.err.println("Unknown algorithm '" + options.algorithm + "'");
             System.exit(-1);
         }
 
-        Repository rep = new SailRepository(new MemoryStore());
-        rep.initialize();
-        ValueFactory f = rep.getValueFactory();
+        if (options.rdf == null && options.snapshot == null) {
+            System.err.println("Either -rdf or -snapshot is needed");
+            System.exit(-1);
+        }
 
+        if (options.server != null) {
+            if (options.snapshot != null) {
+                // the server answers over the repository, a snapshot would
+                // only be rebuilt on every start and never read
+                System.err.println("-snapshot is for single queries, use -rdf (and -dataDir) with -server");
+                System.exit(-1);
+            }
+            serve(options);
+            return;
+        }
+        if (options.jobs != null) {
+            if (options.snapshot != null) {
+                System.err.println("-snapshot is for single queries, use -rdf (and -dataDir) with -jobs");
+                System.exit(-1);
+            }
+            batch(options);
+            return;
+        }
+        if (options.referent == null || options.confusors.isEmpty()) {
+            System.err.println("Both -referent and -confusors are needed");
+            System.exit(-1);
+        }
+
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI referent = f.createURI(options.referent);
         List<URI> confusors = new ArrayList<URI>(options.confusors.size());
         for (String confusor : options.confusors)
             confusors.add(f.createURI(confusor));
 
+        File snapshot = options.snapshot == null ? null : new File(options.snapshot);
+        long start = System.currentTimeMillis();
+        ReferringExpression r;
+        boolean fresh = snapshot != null && MappedKnowledgeBase.exists(snapshot)
+                && (options.rdf == null || MappedKnowledgeBase.lastModified(snapshot) >= new File(options.rdf)
+                        .lastModified());
+        if (snapshot != null && !fresh) {
+            // answer from the snapshot just written, so the statements come in
+            // the same order as in the runs that find it already there
+            repository(options, snapshot, start).shutDown();
+            fresh = true;
+        }
+        if (fresh) {
+            KnowledgeBase kb = new MappedKnowledgeBase(snapshot);
+            if (options.verbose)
+                System.err.println("Snapshot mapped in " + (System.currentTimeMillis() - start) + "ms");
+            if (options.type != null)
+                kb = new OverlayKnowledgeBase(kb, Collections.<Statement> singletonList(new StatementImpl(referent,
+                        RDF.TYPE, f.createURI(options.type))));
+            // skip decoding the statements with predicates ignored for the type
+            PredicateFilter filter = new PriorityTable(TypePriorities.dbPediaPriorities,
+                    TypePriorities.dbPediaIgnored, TermDictionary.getDefault()).forEntity(referent, kb);
+            r = algorithm.resolve(EntityContext.build(referent, confusors, kb, filter));
+        } else {
+            Repository rep = repository(options, snapshot, start);
+            RepositoryConnection conn = rep.getConnection();
+            try {
+                // the type is only for this run, do not leave it in a persistent store
+                boolean typeAdded = false;
+                if (options.type != null && !conn.hasStatement(referent, RDF.TYPE, f.createURI(options.type), false)) {
+                    conn.add(referent, RDF.TYPE, f.createURI(options.type));
+                    typeAdded = true;
+                }
+                try {
+                    Prefetcher prefetcher = options.prefetch > 0 ? new Prefetcher(options.prefetch) : null;
+                    algorithm.setPrefetcher(prefetcher);
+                    try {
+                        r = algorithm.resolve(referent, confusors, conn);
+                    } finally {
+                        if (prefetcher != null)
+                            prefetcher.shutdown();
+                    }
+                } finally {
+                    if (typeAdded)
+                        conn.remove(referent, RDF.TYPE, f.createURI(options.type));
+                }
+            } finally {
+                conn.close();
+                rep.shutDown();
+            }
+        }
+        System.out.println(r);
+    }
+
+    /**
+     * The repository for the options, loading the RDF when empty, and (re)writing
+     * the snapshot if asked for. A persistent store is reloaded when the RDF
+     * is newer than its last load.
+     */
+    private static Repository repository(Options options, File snapshot, long start) throws RDFParseException,
+            IOException, RepositoryException {
+        Repository rep = Stores.create(options.store, options.dataDir == null ? null : new File(options.dataDir),
+                options.indexes);
+        // touched after each complete load of a persistent store
+        File loadedMark = options.dataDir == null ? null : new File(options.dataDir, LOADED_MARK);
+        boolean ready = false;
         RepositoryConnection conn = rep.getConnection();
         try {
-            conn.add(m);
+            if (!conn.isEmpty() && options.rdf != null && loadedMark != null
+                    && new File(options.rdf).lastModified() > loadedMark.lastModified()) {
+                System.err.println("'" + options.rdf + "' is newer than the store in '" + options.dataDir
+                        + "', reloading it");
+                conn.clear();
+            }
+            // otherwise a persistent store is only loaded once
+            if (conn.isEmpty()) {
+                if (options.rdf == null)
+                    throw new FileNotFoundException("No snapshot at '" + snapshot + "' and no -rdf to build it from");
+                NTriplesLoader loader = new NTriplesLoader(conn);
+                loader.setThreads(options.threads);
+                FileInputStream in = new FileInputStream(options.rdf);
+                boolean loaded = false;
+                try {
+                    loader.load(in);
+                    loaded = true;
+                } finally {
+                    in.close();
+                    // the batches committed so far would pass for a full load
+                    // next time
+                    if (!loaded)
+                        conn.clear();
+                }
+                if (loadedMark != null)
+                    new FileOutputStream(loadedMark).close();
+                if (options.verbose)
+                    System.err.println("RDF loaded in " + (System.currentTimeMillis() - start) + "ms");
+            } else if (options.verbose)
+                System.err.println("Using the " + conn.size() + " statements already in the store");
 
-            URI referent = f.createURI(options.referent);
+            if (snapshot != null)
+                TripleIndexBuilder.build(conn, snapshot);
+            ready = true;
+        } finally {
+            conn.close();
+            if (!ready)
+                rep.shutDown();
+        }
+        return rep;
+    }
 
-            if (options.type != null)
-                conn.add(referent, RDF.TYPE, f.createURI(options.type));
+    /**
+     * The three algorithms sharing warm caches (and the prefetcher, if not
+     * null) for the server and batch modes.
+     */
+    private static RequestHandler handler(Options options, Prefetcher prefetcher) {
+        EntityDescriptionCache descriptions = new EntityDescriptionCache();
+        Map<String, ReferringExpressionAlgorithm> algorithms = new LinkedHashMap<String, ReferringExpressionAlgorithm>();
+        for (String name : ALGORITHMS) {
+            AbstractReferringExpressionAlgorithm algorithm = algorithm(name, options.verbose);
+            algorithm.setCache(descriptions);
+            algorithm.setPrefetcher(prefetcher);
+            // the default dictionary would grow with every term ever seen
+            algorithms.put(name, algorithm.withDictionaryPerRequest());
+        }
+        if (options.verbose)
+            ((ch.qos.logback.classic.Logger) RequestHandler.logger).setLevel(Level.DEBUG);
+        RequestHandler handler = new RequestHandler(algorithms, options.algorithm, new PriorityTable(
+                TypePriorities.dbPediaPriorities, TypePriorities.dbPediaIgnored, new TermDictionary()),
+                new ReferringExpressionCache());
+        handler.setCache(descriptions);
+        handler.setPrefetcher(prefetcher);
+        return handler;
+    }
 
-            ReferringExpression r = algorithm.resolve(referent, confusors, conn);
-            System.out.println(r);
+    /**
+     * Batch mode: run all the jobs, answers to standard output unless
+     * -output is given.
+     */
+    private static void batch(Options options) throws RDFParseException, IOException, RepositoryException {
+        long start = System.currentTimeMillis();
+        Repository rep = repository(options, null, start);
+        Prefetcher prefetcher = options.prefetch > 0 ? new Prefetcher(options.prefetch) : null;
+        Charset utf8 = Charset.forName("UTF-8");
+        BufferedReader in = new BufferedReader(new InputStreamReader(options.jobs.equals("-") ? System.in
+                : new FileInputStream(options.jobs), utf8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(options.output == null ? System.out
+                : new FileOutputStream(options.output), utf8));
+        try {
+            long jobs = new Batch(handler(options, prefetcher), rep, options.workers).run(in, out);
+            if (options.verbose)
+                System.err.println(jobs + " jobs in " + (System.currentTimeMillis() - start) + "ms");
         } finally {
-            conn.close();
+            in.close();
+            out.close();
+            if (prefetcher != null)
+                prefetcher.shutdown();
+            rep.shutDown();
         }
+    }
+
+    /**
+     * Server mode: load the repository once and answer requests until
+     * killed.
+     */
+    private static void serve(Options options) throws RDFParseException, IOException, RepositoryException {
+        long start = System.currentTimeMillis();
+        final Repository rep = repository(options, null, start);
 
+        final Prefetcher prefetcher = options.prefetch > 0 ? new Prefetcher(options.prefetch) : null;
+        RequestHandler handler = handler(options, prefetcher);
+
+        final Server server = new Server(handler, rep, options.workers);
+        server.setIdleTimeout(options.idle * 1000);
+        server.start(options.server);
+        System.err.println("Serving on port " + server.getPort() + ", ready in "
+                + (System.currentTimeMillis() - start) + "ms");
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    server.stop();
+                    if (prefetcher != null)
+                        prefetcher.shutdown();
+                    rep.shutDown();
+                } catch (Exception e) {
+                    // exiting anyway
+                }
+            }
+        });
+        try {
+            server.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
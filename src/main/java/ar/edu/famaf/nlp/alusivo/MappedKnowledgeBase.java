@@ -0,0 +1,351 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+/**
+ *
+ * Read-only knowledge base served from an on-disk index written by
+ * TripleIndexBuilder. The files are memory-mapped, so opening is almost
+ * instantaneous, the data lives in the OS page cache and can be shared among
+ * processes.
+ *
+ * The index consists of a term dictionary (terms in N-Triples syntax, sorted,
+ * so that the id of a term is found by binary search) and the dictionary
+ * encoded triples sorted in SPO and OSP order.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class MappedKnowledgeBase implements KnowledgeBase {
+
+    static final String TERMS = "terms.dat";
+    static final String TERM_OFFSETS = "terms.idx";
+    static final String SPO = "spo.dat";
+    static final String OSP = "osp.dat";
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A file mapped in segments, as a single MappedByteBuffer is limited to
+     * 2Gb.
+     */
+    static class Segments {
+        private static final int SEGMENT_BITS = 30;
+        private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+        private MappedByteBuffer[] segments;
+        private long length;
+
+        public Segments(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                this.length = channel.size();
+                int count = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+                this.segments = new MappedByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    long start = i * SEGMENT_SIZE;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(SEGMENT_SIZE, length - start));
+                }
+            } finally {
+                raf.close(); // the mapping stays valid
+            }
+        }
+
+        public long length() {
+            return length;
+        }
+
+        // aligned reads never cross a segment boundary
+
+        public int getInt(long pos) {
+            return segments[(int) (pos >>> SEGMENT_BITS)].getInt((int) (pos & (SEGMENT_SIZE - 1)));
+        }
+
+        public long getLong(long pos) {
+            return segments[(int) (pos >>> SEGMENT_BITS)].getLong((int) (pos & (SEGMENT_SIZE - 1)));
+        }
+
+        public byte[] get(long pos, int len) {
+            byte[] result = new byte[len];
+            for (int i = 0; i < len; i++)
+                result[i] = segments[(int) ((pos + i) >>> SEGMENT_BITS)].get((int) ((pos + i) & (SEGMENT_SIZE - 1)));
+            return result;
+        }
+    }
+
+    /**
+     * The sorted term dictionary, in N-Triples syntax.
+     */
+    static class Terms {
+        private Segments terms;
+        private Segments offsets;
+        private int count;
+
+        public Terms(File dir) throws IOException {
+            this.terms = new Segments(new File(dir, TERMS));
+            this.offsets = new Segments(new File(dir, TERM_OFFSETS));
+            this.count = (int) (offsets.length() / 8) - 1;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public String get(int id) {
+            long start = offsets.getLong(8L * id);
+            long end = offsets.getLong(8L * id + 8);
+            return new String(terms.get(start, (int) (end - start)), UTF8);
+        }
+
+        /**
+         * The id of the term by binary search, or -1 if unknown.
+         */
+        public int id(String term) {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = get(mid).compareTo(term);
+                if (c < 0)
+                    lo = mid + 1;
+                else if (c > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+    }
+
+    private Terms terms;
+    private Segments spo;
+    private Segments osp;
+    private long size;
+    private int typeId;
+
+    private ValueFactory f = ValueFactoryImpl.getInstance();
+
+    public MappedKnowledgeBase(File dir) throws IOException {
+        this.terms = new Terms(dir);
+        this.spo = new Segments(new File(dir, SPO));
+        this.osp = new Segments(new File(dir, OSP));
+        this.size = spo.length() / 12;
+        this.typeId = id(RDF.TYPE);
+        if (typeId < 0)
+            typeId = -2;
+    }
+
+    /**
+     * Whether the folder contains an index.
+     */
+    public static boolean exists(File dir) {
+        for (String name : new String[] { TERMS, TERM_OFFSETS, SPO, OSP })
+            if (!new File(dir, name).isFile())
+                return false;
+        return true;
+    }
+
+    /**
+     * When the index was written.
+     */
+    public static long lastModified(File dir) {
+        return new File(dir, OSP).lastModified();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int termCount() {
+        return terms.count();
+    }
+
+    public Value term(int id) {
+        return NTriplesUtil.parseValue(terms.get(id), f);
+    }
+
+    /**
+     * The id for the term, by binary search over the sorted dictionary, or -1
+     * if unknown.
+     */
+    public int id(Value term) {
+        return terms.id(NTriplesUtil.toNTriplesString(term));
+    }
+
+    public List<Statement> outgoing(Resource entity) {
+        return outgoing(entity, null);
+    }
+
+    public List<Statement> incoming(Value entity) {
+        return incoming(entity, null);
+    }
+
+    /**
+     * The predicate is checked before decoding the other terms, so rejected
+     * statements are never decoded.
+     */
+    public List<Statement> outgoing(Resource entity, PredicateFilter filter) {
+        List<Statement> result = new ArrayList<Statement>();
+        int s = id(entity);
+        if (s < 0)
+            return result;
+        Acceptor acceptor = new Acceptor(filter);
+        for (long i = lowerBound(spo, s, 0, 1), to = upperBound(spo, s, 0, 1); i < to; i++) {
+            int p = spo.getInt(12 * i + 4);
+            if (acceptor.accept(p))
+                result.add(statement(s, p, spo.getInt(12 * i + 8)));
+        }
+        return result;
+    }
+
+    public List<Statement> incoming(Value entity, PredicateFilter filter) {
+        List<Statement> result = new ArrayList<Statement>();
+        int o = id(entity);
+        if (o < 0)
+            return result;
+        Acceptor acceptor = new Acceptor(filter);
+        for (long i = lowerBound(osp, o, 0, 1), to = upperBound(osp, o, 0, 1); i < to; i++) {
+            int p = osp.getInt(12 * i + 8);
+            if (acceptor.accept(p))
+                result.add(statement(osp.getInt(12 * i + 4), p, o));
+        }
+        return result;
+    }
+
+    /**
+     * Applies the filter by predicate id, decoding each predicate once.
+     */
+    private class Acceptor {
+        private PredicateFilter filter;
+        private Map<Integer, Boolean> seen = new HashMap<Integer, Boolean>();
+
+        Acceptor(PredicateFilter filter) {
+            this.filter = filter;
+        }
+
+        boolean accept(int p) {
+            if (filter == null)
+                return true;
+            Boolean result = seen.get(p);
+            if (result == null) {
+                result = filter.accept((URI) term(p));
+                seen.put(p, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Nothing to prefetch, each lookup is local.
+     */
+    public void prefetch(List<? extends Value> entities, PredicateFilter filter) {
+    }
+
+    /**
+     * Patterns with only the predicate bound are answered by a linear scan.
+     */
+    public boolean contains(Resource subject, URI predicate, Value object) {
+        int s = subject == null ? -1 : id(subject);
+        int p = predicate == null ? -1 : id(predicate);
+        int o = object == null ? -1 : id(object);
+        if ((subject != null && s < 0) || (predicate != null && p < 0) || (object != null && o < 0))
+            return false;
+
+        if (s >= 0) {
+            if (o >= 0) {
+                if (p < 0)
+                    return lowerBound(osp, o, s, 2) < upperBound(osp, o, s, 2);
+                for (long i = lowerBound(spo, s, p, 2), to = upperBound(spo, s, p, 2); i < to; i++)
+                    if (spo.getInt(12 * i + 8) == o)
+                        return true;
+                return false;
+            }
+            return p >= 0 ? lowerBound(spo, s, p, 2) < upperBound(spo, s, p, 2) : lowerBound(spo, s, 0, 1) < upperBound(
+                    spo, s, 0, 1);
+        }
+        if (o >= 0) {
+            for (long i = lowerBound(osp, o, 0, 1), to = upperBound(osp, o, 0, 1); i < to; i++)
+                if (p < 0 || osp.getInt(12 * i + 8) == p)
+                    return true;
+            return false;
+        }
+        if (p >= 0) {
+            for (long i = 0; i < size; i++)
+                if (spo.getInt(12 * i + 4) == p)
+                    return true;
+            return false;
+        }
+        return size > 0;
+    }
+
+    public List<Value> types(Resource entity) {
+        List<Value> result = new ArrayList<Value>();
+        int s = id(entity);
+        if (s < 0)
+            return result;
+        for (long i = lowerBound(spo, s, typeId, 2), to = upperBound(spo, s, typeId, 2); i < to; i++)
+            result.add(term(spo.getInt(12 * i + 8)));
+        return result;
+    }
+
+    private Statement statement(int s, int p, int o) {
+        return new StatementImpl((Resource) term(s), (URI) term(p), term(o));
+    }
+
+    private int compare(Segments index, long i, int k1, int k2, int len) {
+        int a = index.getInt(12 * i);
+        if (a != k1 || len == 1)
+            return a < k1 ? -1 : (a == k1 ? 0 : 1);
+        int b = index.getInt(12 * i + 4);
+        return b < k2 ? -1 : (b == k2 ? 0 : 1);
+    }
+
+    private long lowerBound(Segments index, int k1, int k2, int len) {
+        long lo = 0, hi = size;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (compare(index, mid, k1, k2, len) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private long upperBound(Segments index, int k1, int k2, int len) {
+        long lo = 0, hi = size;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (compare(index, mid, k1, k2, len) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,350 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+/**
+ *
+ * Read-only, in-memory knowledge base. Terms are dictionary-encoded into ints
+ * and the triples are kept in three sorted int arrays (SPO, OSP and POS
+ * orders), so any lookup is a binary search over primitive arrays.
+ *
+ * Statements are returned in index order (that is, sorted by term ids) rather
+ * than in insertion order. Build it with a Builder.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class MemoryKnowledgeBase implements KnowledgeBase {
+
+    /**
+     * Wildcard id for the primitive lookups.
+     */
+    public static final int ANY = -1;
+
+    private Value[] terms;
+    private Map<Value, Integer> ids;
+
+    // interleaved triples, three ints per triple
+    private int[] spo;
+    private int[] osp;
+    private int[] pos;
+    private int size;
+
+    private int typeId;
+
+    public static class Builder {
+
+        private List<Value> terms = new ArrayList<Value>();
+        private Map<Value, Integer> ids = new HashMap<Value, Integer>();
+        private int[] triples = new int[3 * 1024];
+        private int size = 0;
+
+        public Builder add(Resource subject, URI predicate, Value object) {
+            if (3 * size + 3 > triples.length)
+                triples = Arrays.copyOf(triples, triples.length * 2);
+            triples[3 * size] = intern(subject);
+            triples[3 * size + 1] = intern(predicate);
+            triples[3 * size + 2] = intern(object);
+            size++;
+            return this;
+        }
+
+        public Builder add(Statement stmt) {
+            return add(stmt.getSubject(), stmt.getPredicate(), stmt.getObject());
+        }
+
+        public Builder addAll(Iterable<? extends Statement> stmts) {
+            for (Statement stmt : stmts)
+                add(stmt);
+            return this;
+        }
+
+        private int intern(Value term) {
+            Integer id = ids.get(term);
+            if (id == null) {
+                id = terms.size();
+                terms.add(term);
+                ids.put(term, id);
+            }
+            return id;
+        }
+
+        public MemoryKnowledgeBase build() {
+            return new MemoryKnowledgeBase(terms.toArray(new Value[terms.size()]), ids, triples, size);
+        }
+    }
+
+    MemoryKnowledgeBase(Value[] terms, Map<Value, Integer> ids, int[] triples, int size) {
+        this.terms = terms;
+        this.ids = ids;
+
+        this.spo = Arrays.copyOf(triples, 3 * size);
+        sort(spo, 0, size);
+        this.size = dedup(spo, size);
+        this.spo = Arrays.copyOf(spo, 3 * this.size);
+
+        this.osp = permute(spo, this.size, 2, 0, 1);
+        sort(osp, 0, this.size);
+        this.pos = permute(spo, this.size, 1, 2, 0);
+        sort(pos, 0, this.size);
+
+        Integer type = ids.get(RDF.TYPE);
+        this.typeId = type == null ? ANY - 1 : type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The id for the term, or ANY if the term is unknown.
+     */
+    public int id(Value term) {
+        Integer result = ids.get(term);
+        return result == null ? ANY : result;
+    }
+
+    public Value term(int id) {
+        return terms[id];
+    }
+
+    public List<Statement> outgoing(Resource entity) {
+        return outgoing(entity, null);
+    }
+
+    public List<Statement> incoming(Value entity) {
+        return incoming(entity, null);
+    }
+
+    public List<Statement> outgoing(Resource entity, PredicateFilter filter) {
+        int s = id(entity);
+        if (s == ANY)
+            return new ArrayList<Statement>();
+        int from = lowerBound(spo, size, s, 0, 0, 1);
+        int to = upperBound(spo, size, s, 0, 0, 1);
+        List<Statement> result = new ArrayList<Statement>(to - from);
+        for (int i = from; i < to; i++)
+            if (filter == null || filter.accept((URI) terms[spo[3 * i + 1]]))
+                result.add(statement(spo[3 * i], spo[3 * i + 1], spo[3 * i + 2]));
+        return result;
+    }
+
+    public List<Statement> incoming(Value entity, PredicateFilter filter) {
+        int o = id(entity);
+        if (o == ANY)
+            return new ArrayList<Statement>();
+        int from = lowerBound(osp, size, o, 0, 0, 1);
+        int to = upperBound(osp, size, o, 0, 0, 1);
+        List<Statement> result = new ArrayList<Statement>(to - from);
+        for (int i = from; i < to; i++)
+            if (filter == null || filter.accept((URI) terms[osp[3 * i + 2]]))
+                result.add(statement(osp[3 * i + 1], osp[3 * i + 2], osp[3 * i]));
+        return result;
+    }
+
+    /**
+     * Nothing to prefetch, each lookup is local.
+     */
+    public void prefetch(List<? extends Value> entities, PredicateFilter filter) {
+    }
+
+    public boolean contains(Resource subject, URI predicate, Value object) {
+        int s = subject == null ? ANY : id(subject);
+        int p = predicate == null ? ANY : id(predicate);
+        int o = object == null ? ANY : id(object);
+        if ((subject != null && s == ANY) || (predicate != null && p == ANY) || (object != null && o == ANY))
+            return false;
+        return contains(s, p, o);
+    }
+
+    /**
+     * Primitive lookup, with ANY as wildcard.
+     */
+    public boolean contains(int s, int p, int o) {
+        if (s != ANY) {
+            if (p != ANY)
+                return o != ANY ? exists(spo, s, p, o, 3) : exists(spo, s, p, 0, 2);
+            if (o != ANY)
+                return exists(osp, o, s, 0, 2);
+            return exists(spo, s, 0, 0, 1);
+        }
+        if (o != ANY)
+            return p != ANY ? exists(pos, p, o, 0, 2) : exists(osp, o, 0, 0, 1);
+        if (p != ANY)
+            return exists(pos, p, 0, 0, 1);
+        return size > 0;
+    }
+
+    /**
+     * Number of statements with the given subject id.
+     */
+    public int outgoingCount(int s) {
+        return upperBound(spo, size, s, 0, 0, 1) - lowerBound(spo, size, s, 0, 0, 1);
+    }
+
+    /**
+     * Number of statements with the given object id.
+     */
+    public int incomingCount(int o) {
+        return upperBound(osp, size, o, 0, 0, 1) - lowerBound(osp, size, o, 0, 0, 1);
+    }
+
+    public List<Value> types(Resource entity) {
+        List<Value> result = new ArrayList<Value>();
+        int s = id(entity);
+        if (s == ANY)
+            return result;
+        int from = lowerBound(spo, size, s, typeId, 0, 2);
+        int to = upperBound(spo, size, s, typeId, 0, 2);
+        for (int i = from; i < to; i++)
+            result.add(terms[spo[3 * i + 2]]);
+        return result;
+    }
+
+    private Statement statement(int s, int p, int o) {
+        return new StatementImpl((Resource) terms[s], (URI) terms[p], terms[o]);
+    }
+
+    private boolean exists(int[] index, int k1, int k2, int k3, int len) {
+        int i = lowerBound(index, size, k1, k2, k3, len);
+        return i < size && compare(index, i, k1, k2, k3, len) == 0;
+    }
+
+    // sorted triples helpers, also used by the on-disk index builder
+
+    /**
+     * Compare the triple at position i against the key, on its first len
+     * components.
+     */
+    static int compare(int[] a, int i, int k1, int k2, int k3, int len) {
+        int c = compare(a[3 * i], k1);
+        if (c != 0 || len == 1)
+            return c;
+        c = compare(a[3 * i + 1], k2);
+        if (c != 0 || len == 2)
+            return c;
+        return compare(a[3 * i + 2], k3);
+    }
+
+    private static int compare(int x, int y) {
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+
+    /**
+     * First triple not smaller than the key prefix.
+     */
+    static int lowerBound(int[] a, int n, int k1, int k2, int k3, int len) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(a, mid, k1, k2, k3, len) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * First triple greater than the key prefix.
+     */
+    static int upperBound(int[] a, int n, int k1, int k2, int k3, int len) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(a, mid, k1, k2, k3, len) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Sort the triples in positions [lo, hi).
+     */
+    static void sort(int[] a, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            int p1 = a[3 * mid], p2 = a[3 * mid + 1], p3 = a[3 * mid + 2];
+            int i = lo, j = hi - 1;
+            while (i <= j) {
+                while (compare(a, i, p1, p2, p3, 3) < 0)
+                    i++;
+                while (compare(a, j, p1, p2, p3, 3) > 0)
+                    j--;
+                if (i <= j) {
+                    swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse on the smaller side, loop on the larger
+            if (j - lo < hi - i) {
+                sort(a, lo, j + 1);
+                lo = i;
+            } else {
+                sort(a, i, hi);
+                hi = j + 1;
+            }
+        }
+        for (int i = lo + 1; i < hi; i++)
+            for (int j = i; j > lo && compare(a, j, a[3 * j - 3], a[3 * j - 2], a[3 * j - 1], 3) < 0; j--)
+                swap(a, j, j - 1);
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        for (int k = 0; k < 3; k++) {
+            int t = a[3 * i + k];
+            a[3 * i + k] = a[3 * j + k];
+            a[3 * j + k] = t;
+        }
+    }
+
+    /**
+     * Remove repeated triples from a sorted array, returns the new size.
+     */
+    static int dedup(int[] a, int n) {
+        if (n == 0)
+            return 0;
+        int result = 1;
+        for (int i = 1; i < n; i++)
+            if (compare(a, i, a[3 * result - 3], a[3 * result - 2], a[3 * result - 1], 3) != 0) {
+                a[3 * result] = a[3 * i];
+                a[3 * result + 1] = a[3 * i + 1];
+                a[3 * result + 2] = a[3 * i + 2];
+                result++;
+            }
+        return result;
+    }
+
+    /**
+     * Reorder the components of each triple, the new triple has in position k
+     * the old component order[k].
+     */
+    static int[] permute(int[] a, int n, int first, int second, int third) {
+        int[] result = new int[3 * n];
+        for (int i = 0; i < n; i++) {
+            result[3 * i] = a[3 * i + first];
+            result[3 * i + 1] = a[3 * i + second];
+            result[3 * i + 2] = a[3 * i + third];
+        }
+        return result;
+    }
+}
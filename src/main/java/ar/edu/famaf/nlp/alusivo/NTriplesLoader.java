@@ -0,0 +1,236 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.helpers.BasicParserSettings;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.rio.ntriples.NTriplesParser;
+
+/**
+ *
+ * Streaming N-Triples loader. The input is split into chunks at line
+ * boundaries, the chunks are parsed on several threads and their statements
+ * added to the repository, in input order, in batched transactions. At most a
+ * few chunks are held in memory at any time.
+ *
+ * Called inside a transaction, all the statements go into it and committing
+ * or rolling back is left to the caller, so the load can be all or nothing.
+ * Otherwise the loader commits every batchSize statements and, on failure,
+ * rolls back the batch in progress; the batches already committed stay.
+ *
+ * The most recently seen URIs are interned in a bounded LRU cache shared by
+ * all the parsers, so the predicates, types and other frequent terms are not
+ * allocated again for each statement, while the heap used by the loader does
+ * not grow with the vocabulary. Blank node labels are preserved, so the same
+ * label in two chunks is the same node, as N-Triples requires.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class NTriplesLoader {
+
+    public static final int DEFAULT_CHUNK_LINES = 50000;
+    public static final int DEFAULT_BATCH_SIZE = 500000;
+    public static final int DEFAULT_INTERN_SIZE = 10000;
+
+    private RepositoryConnection repo;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkLines = DEFAULT_CHUNK_LINES;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int internSize = DEFAULT_INTERN_SIZE;
+    private String baseURI = "http://localhost/";
+
+    public NTriplesLoader(RepositoryConnection repo) {
+        this.repo = repo;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getChunkLines() {
+        return chunkLines;
+    }
+
+    public void setChunkLines(int chunkLines) {
+        this.chunkLines = chunkLines;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Number of statements per transaction.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getInternSize() {
+        return internSize;
+    }
+
+    /**
+     * Number of URIs kept interned, the least recently seen are dropped.
+     */
+    public void setInternSize(int internSize) {
+        this.internSize = internSize;
+    }
+
+    public void setBaseURI(String baseURI) {
+        this.baseURI = baseURI;
+    }
+
+    private static class InterningValueFactory extends ValueFactoryImpl {
+        private Map<String, URI> uris;
+
+        InterningValueFactory(final int size) {
+            // in access order, least recently used first
+            uris = new LinkedHashMap<String, URI>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, URI> eldest) {
+                    return size() > size;
+                }
+            };
+        }
+
+        @Override
+        public URI createURI(String uri) {
+            synchronized (uris) {
+                URI result = uris.get(uri);
+                if (result == null) {
+                    result = super.createURI(uri);
+                    uris.put(uri, result);
+                }
+                return result;
+            }
+        }
+    }
+
+    private class Chunk implements Callable<List<Statement>> {
+        private String text;
+        private long firstLine;
+        private InterningValueFactory f;
+
+        public Chunk(String text, long firstLine, InterningValueFactory f) {
+            this.text = text;
+            this.firstLine = firstLine;
+            this.f = f;
+        }
+
+        public List<Statement> call() throws IOException, RDFParseException, RDFHandlerException {
+            NTriplesParser parser = new NTriplesParser(f);
+            parser.getParserConfig().set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+            List<Statement> result = new ArrayList<Statement>();
+            parser.setRDFHandler(new StatementCollector(result));
+            try {
+                parser.parse(new StringReader(text), baseURI);
+            } catch (RDFParseException e) {
+                long line = e.getLineNumber() < 0 ? firstLine : firstLine + e.getLineNumber() - 1;
+                throw new RDFParseException("Line " + line + ": " + e.getMessage(), (int) line, e.getColumnNumber());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Load the N-Triples in the stream, returns the number of statements read.
+     */
+    public long load(InputStream in) throws IOException, RDFParseException, RepositoryException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+        InterningValueFactory f = new InterningValueFactory(internSize);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<List<Statement>>> pending = new ArrayDeque<Future<List<Statement>>>();
+        long[] counts = new long[2]; // added, in current transaction
+        boolean batched = !repo.isActive();
+        try {
+            long lineNo = 0;
+            boolean eof = false;
+            while (!eof) {
+                StringBuilder text = new StringBuilder();
+                long firstLine = lineNo + 1;
+                for (int i = 0; i < chunkLines; i++) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        eof = true;
+                        break;
+                    }
+                    lineNo++;
+                    text.append(line).append('\n');
+                }
+                if (text.length() > 0)
+                    pending.add(executor.submit(new Chunk(text.toString(), firstLine, f)));
+                while (pending.size() > 2 * threads || (eof && !pending.isEmpty()))
+                    add(pending.removeFirst(), counts, batched);
+            }
+            if (batched && repo.isActive())
+                repo.commit();
+        } finally {
+            executor.shutdownNow();
+            if (batched && repo.isActive())
+                repo.rollback();
+        }
+        return counts[0];
+    }
+
+    private void add(Future<List<Statement>> chunk, long[] counts, boolean batched) throws IOException,
+            RDFParseException, RepositoryException {
+        List<Statement> stmts;
+        try {
+            stmts = chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RDFParseException)
+                throw (RDFParseException) e.getCause();
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RepositoryException(e.getCause());
+        }
+        for (Statement stmt : stmts) {
+            if (batched && !repo.isActive())
+                repo.begin();
+            repo.add(stmt);
+            counts[0]++;
+            if (batched && ++counts[1] == batchSize) {
+                repo.commit();
+                counts[1] = 0;
+            }
+        }
+    }
+}
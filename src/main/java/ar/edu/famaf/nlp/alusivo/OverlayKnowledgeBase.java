@@ -0,0 +1,83 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.RepositoryException;
+
+/**
+ *
+ * A knowledge base plus a few extra statements, for adding facts (like the
+ * type of the referent) on top of a read-only knowledge base.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class OverlayKnowledgeBase implements KnowledgeBase {
+
+    private KnowledgeBase base;
+    private List<Statement> extra = new ArrayList<Statement>();
+
+    public OverlayKnowledgeBase(KnowledgeBase base, Collection<Statement> extra) throws RepositoryException {
+        this.base = base;
+        for (Statement stmt : extra)
+            if (!base.contains(stmt.getSubject(), stmt.getPredicate(), stmt.getObject()) && !this.extra.contains(stmt))
+                this.extra.add(stmt);
+    }
+
+    public List<Statement> outgoing(Resource entity) throws RepositoryException {
+        return outgoing(entity, null);
+    }
+
+    public List<Statement> incoming(Value entity) throws RepositoryException {
+        return incoming(entity, null);
+    }
+
+    public List<Statement> outgoing(Resource entity, PredicateFilter filter) throws RepositoryException {
+        List<Statement> result = new ArrayList<Statement>(base.outgoing(entity, filter));
+        for (Statement stmt : extra)
+            if (stmt.getSubject().equals(entity) && (filter == null || filter.accept(stmt.getPredicate())))
+                result.add(stmt);
+        return result;
+    }
+
+    public List<Statement> incoming(Value entity, PredicateFilter filter) throws RepositoryException {
+        List<Statement> result = new ArrayList<Statement>(base.incoming(entity, filter));
+        for (Statement stmt : extra)
+            if (stmt.getObject().equals(entity) && (filter == null || filter.accept(stmt.getPredicate())))
+                result.add(stmt);
+        return result;
+    }
+
+    public void prefetch(List<? extends Value> entities, PredicateFilter filter) throws RepositoryException {
+        base.prefetch(entities, filter);
+    }
+
+    public boolean contains(Resource subject, URI predicate, Value object) throws RepositoryException {
+        for (Statement stmt : extra)
+            if ((subject == null || subject.equals(stmt.getSubject()))
+                    && (predicate == null || predicate.equals(stmt.getPredicate()))
+                    && (object == null || object.equals(stmt.getObject())))
+                return true;
+        return base.contains(subject, predicate, object);
+    }
+
+    public List<Value> types(Resource entity) throws RepositoryException {
+        List<Value> result = new ArrayList<Value>(base.types(entity));
+        for (Statement stmt : extra)
+            if (stmt.getSubject().equals(entity) && stmt.getPredicate().equals(RDF.TYPE))
+                result.add(stmt.getObject());
+        return result;
+    }
+}
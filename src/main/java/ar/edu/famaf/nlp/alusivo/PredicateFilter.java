@@ -0,0 +1,23 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import org.openrdf.model.URI;
+
+/**
+ *
+ * Selects the statements a KnowledgeBase returns by their predicate, so
+ * statements nobody will look at (like the ignored predicates for a type) are
+ * dropped while reading them.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public interface PredicateFilter {
+
+    public boolean accept(URI predicate);
+
+}
@@ -0,0 +1,123 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+
+import ar.edu.famaf.nlp.alusivo.ReferringExpression.Predicate;
+
+/**
+ *
+ * Cardinality statistics per (predicate, object) or (subject, predicate)
+ * pattern, used by the Resolver to evaluate the most selective predicates
+ * first. Unknown patterns are sampled from the repository; exact counts are
+ * recorded as predicates get evaluated. Thread-safe, can be shared across
+ * calls to the Resolver over the same repository.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class PredicateStatistics {
+
+    public static final int DEFAULT_SAMPLE_LIMIT = 10000;
+
+    private static class Pattern {
+        private URI subject;
+        private URI predicate;
+        private Value object;
+
+        public Pattern(Predicate pred) {
+            this.subject = pred.getSubject();
+            this.predicate = pred.getPredicate();
+            this.object = pred.getObject();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pattern))
+                return false;
+            Pattern other = (Pattern) o;
+            return (subject == null ? other.subject == null : subject.equals(other.subject))
+                    && predicate.equals(other.predicate)
+                    && (object == null ? other.object == null : object.equals(other.object));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = predicate.hashCode();
+            result = 31 * result + (subject == null ? 0 : subject.hashCode());
+            result = 31 * result + (object == null ? 0 : object.hashCode());
+            return result;
+        }
+    }
+
+    private ConcurrentMap<Pattern, Long> cardinalities = new ConcurrentHashMap<Pattern, Long>();
+    private int sampleLimit;
+
+    public PredicateStatistics() {
+        this(DEFAULT_SAMPLE_LIMIT);
+    }
+
+    public PredicateStatistics(int sampleLimit) {
+        this.sampleLimit = sampleLimit;
+    }
+
+    /**
+     * Estimated number of values satisfying the (positive form of the)
+     * predicate. If nothing is known about the predicate, up to sampleLimit
+     * statements are counted from the repository.
+     */
+    public long estimate(Predicate pred, RepositoryConnection repo) throws RepositoryException {
+        if (pred.isGround())
+            return 0L;
+        Pattern pattern = new Pattern(pred);
+        Long known = cardinalities.get(pattern);
+        if (known != null)
+            return known;
+
+        long count = 0;
+        RepositoryResult<Statement> stmts = repo.getStatements(pred.getSubject(), pred.getPredicate(),
+                pred.getObject(), true);
+        try {
+            while (count < sampleLimit && stmts.hasNext()) {
+                stmts.next();
+                count++;
+            }
+        } finally {
+            stmts.close();
+        }
+        cardinalities.putIfAbsent(pattern, count);
+        return count;
+    }
+
+    /**
+     * Record the exact cardinality of a predicate, as observed by a full
+     * evaluation.
+     */
+    public void record(Predicate pred, long cardinality) {
+        if (!pred.isGround())
+            cardinalities.put(new Pattern(pred), cardinality);
+    }
+
+    public int size() {
+        return cardinalities.size();
+    }
+
+    /**
+     * Forget all statistics, for example after the repository changed.
+     */
+    public void clear() {
+        cardinalities.clear();
+    }
+}
@@ -0,0 +1,241 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+
+/**
+ *
+ * Fetches the neighbourhoods of the referent and the confusors concurrently,
+ * through a bounded number of extra connections to the same Repository, for
+ * disk-backed stores where fetching one entity after the other is mostly I/O
+ * wait. Each entity is still fetched with the same lookups as
+ * SesameKnowledgeBase, so the statements (and their order) are the same as
+ * fetching sequentially.
+ *
+ * The extra connections are pooled across prefetches. One prefetcher can
+ * serve many requests, also concurrently; shut it down when done, before the
+ * repositories it read from.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class Prefetcher {
+
+    private int connections;
+    private ExecutorService executor;
+
+    // idle connections by repository, at most connections each
+    private Map<Repository, Deque<RepositoryConnection>> idle = new HashMap<Repository, Deque<RepositoryConnection>>();
+    private boolean shutdown = false;
+
+    /**
+     * @param connections
+     *            the most connections used by each prefetch, also the number
+     *            of threads.
+     */
+    public Prefetcher(int connections) {
+        this.connections = connections;
+        this.executor = Executors.newFixedThreadPool(connections, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "alusivo-prefetch");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * A knowledge base over the connection whose prefetch() runs
+     * concurrently. Remote SPARQL endpoints get batched queries instead (see
+     * SparqlKnowledgeBase).
+     */
+    public KnowledgeBase knowledgeBase(RepositoryConnection repo, EntityDescriptionCache cache) {
+        if (SparqlKnowledgeBase.isRemote(repo))
+            return new SparqlKnowledgeBase(repo);
+        return new PrefetchedKnowledgeBase(repo, cache);
+    }
+
+    /**
+     * Stop the threads and close the pooled connections.
+     */
+    public void shutdown() throws RepositoryException {
+        executor.shutdown();
+        List<RepositoryConnection> toClose = new ArrayList<RepositoryConnection>();
+        synchronized (this) {
+            shutdown = true;
+            for (Deque<RepositoryConnection> conns : idle.values())
+                toClose.addAll(conns);
+            idle.clear();
+        }
+        for (RepositoryConnection conn : toClose)
+            conn.close();
+    }
+
+    private RepositoryConnection borrow(Repository repository) throws RepositoryException {
+        synchronized (this) {
+            Deque<RepositoryConnection> conns = idle.get(repository);
+            if (conns != null && !conns.isEmpty())
+                return conns.pop();
+        }
+        return repository.getConnection();
+    }
+
+    /**
+     * Back to the pool, unless it is full or the connection cannot be reused.
+     */
+    private void giveBack(RepositoryConnection conn) throws RepositoryException {
+        if (conn.isOpen() && !conn.isActive())
+            synchronized (this) {
+                Deque<RepositoryConnection> conns = idle.get(conn.getRepository());
+                if (conns == null) {
+                    conns = new ArrayDeque<RepositoryConnection>();
+                    idle.put(conn.getRepository(), conns);
+                }
+                if (!shutdown && conns.size() < connections) {
+                    conns.push(conn);
+                    return;
+                }
+            }
+        conn.close();
+    }
+
+    private class PrefetchedKnowledgeBase extends SesameKnowledgeBase {
+
+        private EntityDescriptionCache cache;
+        private Map<Value, List<Statement>> outgoing = new HashMap<Value, List<Statement>>();
+        private Map<Value, List<Statement>> incoming = new HashMap<Value, List<Statement>>();
+        // the filter the statements in the maps were fetched with
+        private Map<Value, PredicateFilter> filters = new HashMap<Value, PredicateFilter>();
+
+        PrefetchedKnowledgeBase(RepositoryConnection repo, EntityDescriptionCache cache) {
+            super(repo, cache);
+            this.cache = cache;
+        }
+
+        /**
+         * Each task borrows a pooled connection and fetches every
+         * connections-th entity, dropping the statements the filter does not
+         * accept as it goes. Skipped when the connection has uncommitted
+         * changes, as the other connections would not see them.
+         */
+        @Override
+        public void prefetch(List<? extends Value> entities, final PredicateFilter filter)
+                throws RepositoryException {
+            if (getConnection().isActive())
+                return;
+            Set<Value> unique = new LinkedHashSet<Value>();
+            for (Value entity : entities)
+                if (!incoming.containsKey(entity) || filters.get(entity) != filter)
+                    unique.add(entity);
+            if (unique.size() < 2)
+                return;
+            final List<Value> pending = new ArrayList<Value>(unique);
+
+            final Repository repository = getConnection().getRepository();
+            final int tasks = Math.min(connections, pending.size());
+            @SuppressWarnings("unchecked")
+            final List<Statement>[][] fetched = new List[pending.size()][2];
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks);
+            for (int t = 0; t < tasks; t++) {
+                final int task = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws RepositoryException {
+                        RepositoryConnection conn = borrow(repository);
+                        boolean done = false;
+                        try {
+                            SesameKnowledgeBase kb = new SesameKnowledgeBase(conn, cache);
+                            for (int i = task; i < pending.size(); i += tasks) {
+                                Value entity = pending.get(i);
+                                if (entity instanceof Resource)
+                                    fetched[i][0] = kb.outgoing((Resource) entity, filter);
+                                fetched[i][1] = kb.incoming(entity, filter);
+                            }
+                            done = true;
+                        } finally {
+                            if (done)
+                                giveBack(conn);
+                            else
+                                conn.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            try {
+                for (Future<Void> future : futures)
+                    future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RepositoryException)
+                    throw (RepositoryException) e.getCause();
+                throw new RepositoryException(e.getCause());
+            } finally {
+                for (Future<Void> future : futures)
+                    future.cancel(true);
+            }
+            // in entity order, independent of which task finished first
+            for (int i = 0; i < pending.size(); i++) {
+                if (fetched[i][0] != null)
+                    outgoing.put(pending.get(i), fetched[i][0]);
+                incoming.put(pending.get(i), fetched[i][1]);
+                filters.put(pending.get(i), filter);
+            }
+        }
+
+        @Override
+        public List<Statement> outgoing(Resource entity) throws RepositoryException {
+            return outgoing(entity, null);
+        }
+
+        @Override
+        public List<Statement> incoming(Value entity) throws RepositoryException {
+            return incoming(entity, null);
+        }
+
+        @Override
+        public List<Statement> outgoing(Resource entity, PredicateFilter filter) throws RepositoryException {
+            List<Statement> result = outgoing.get(entity);
+            if (result != null && filters.get(entity) == filter)
+                return result;
+            return filter == null ? super.outgoing(entity) : super.outgoing(entity, filter);
+        }
+
+        @Override
+        public List<Statement> incoming(Value entity, PredicateFilter filter) throws RepositoryException {
+            List<Statement> result = incoming.get(entity);
+            if (result != null && filters.get(entity) == filter)
+                return result;
+            return filter == null ? super.incoming(entity) : super.incoming(entity, filter);
+        }
+    }
+}
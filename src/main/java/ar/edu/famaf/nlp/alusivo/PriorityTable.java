@@ -0,0 +1,184 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.repository.RepositoryException;
+
+/**
+ *
+ * Compiled form of the priorities and ignored predicates maps (type URI to
+ * predicate local names, see TypePriorities). Built once when the algorithm
+ * is constructed, it holds an immutable Ranks table per type, answering the
+ * rank and ignored status of a predicate by its id (see
+ * TermDictionary.predicate()).
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class PriorityTable {
+
+    /**
+     * Rank of the predicates not in the priorities, after all the others.
+     */
+    public static final int UNRANKED = Integer.MAX_VALUE;
+
+    /**
+     * Rank and ignored status of the predicates for one type. As a filter, it
+     * accepts the predicates not ignored.
+     */
+    public static class Ranks implements PredicateFilter {
+        private static final int IGNORED = 1;
+        private static final int KNOWN = 2;
+
+        private String type;
+        private List<String> priorities;
+        private Map<String, Integer> byName = new HashMap<String, Integer>();
+        private Set<String> ignored;
+        private TermDictionary dictionary;
+
+        // by predicate id, (rank << 2) | KNOWN | IGNORED, zero if not computed
+        // yet; a lost update when growing only means computing it again
+        private volatile long[] byId = new long[0];
+
+        private Ranks(String type, List<String> priorities, Set<String> ignored, TermDictionary dictionary) {
+            this.type = type;
+            this.priorities = Collections.unmodifiableList(new ArrayList<String>(priorities));
+            for (int i = priorities.size() - 1; i >= 0; i--)
+                byName.put(priorities.get(i), i);
+            this.ignored = Collections.unmodifiableSet(new HashSet<String>(ignored));
+            this.dictionary = dictionary;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public List<String> getPriorities() {
+            return priorities;
+        }
+
+        public Set<String> getIgnored() {
+            return ignored;
+        }
+
+        /**
+         * The position of the local name in the priorities, UNRANKED if not
+         * there.
+         */
+        public int rank(String localName) {
+            Integer result = byName.get(localName);
+            return result == null ? UNRANKED : result;
+        }
+
+        public boolean isIgnored(String localName) {
+            return ignored.contains(localName);
+        }
+
+        /**
+         * Whether the local name is neither ranked nor ignored.
+         */
+        public boolean isUnknown(String localName) {
+            return !byName.containsKey(localName) && !ignored.contains(localName);
+        }
+
+        public int rank(int predicate) {
+            return (int) (entry(predicate) >> 2);
+        }
+
+        public boolean isIgnored(int predicate) {
+            return (entry(predicate) & IGNORED) != 0;
+        }
+
+        public boolean accept(URI predicate) {
+            return ignored.isEmpty() || !isIgnored(dictionary.predicate(predicate));
+        }
+
+        private long entry(int predicate) {
+            long[] table = byId;
+            if (predicate < table.length && table[predicate] != 0)
+                return table[predicate];
+            String localName = dictionary.localName(predicate);
+            long result = ((long) rank(localName) << 2) | KNOWN | (isIgnored(localName) ? IGNORED : 0);
+            if (predicate >= table.length) {
+                synchronized (this) {
+                    table = byId;
+                    if (predicate >= table.length)
+                        byId = table = Arrays.copyOf(table, Math.max(predicate + 1, table.length * 2));
+                }
+            }
+            table[predicate] = result;
+            return result;
+        }
+    }
+
+    private Map<String, Ranks> byType;
+    private TermDictionary dictionary;
+
+    public PriorityTable(Map<String, List<String>> priorities, Map<String, List<String>> ignored,
+            TermDictionary dictionary) {
+        this(new HashMap<String, Ranks>(), dictionary);
+        if (priorities != null)
+            for (Map.Entry<String, List<String>> e : priorities.entrySet()) {
+                Set<String> ignoredForType = new HashSet<String>();
+                if (ignored != null && ignored.containsKey(e.getKey()))
+                    ignoredForType.addAll(ignored.get(e.getKey()));
+                byType.put(e.getKey(), new Ranks(e.getKey(), e.getValue(), ignoredForType, dictionary));
+            }
+    }
+
+    private PriorityTable(Map<String, Ranks> byType, TermDictionary dictionary) {
+        this.byType = byType;
+        this.dictionary = dictionary;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * The same priorities, over another dictionary.
+     */
+    public PriorityTable withDictionary(TermDictionary dictionary) {
+        Map<String, Ranks> result = new HashMap<String, Ranks>();
+        for (Ranks ranks : byType.values())
+            result.put(ranks.type, new Ranks(ranks.type, ranks.priorities, ranks.ignored, dictionary));
+        return new PriorityTable(result, dictionary);
+    }
+
+    /**
+     * The ranks for the entity by its types in the knowledge base, null if
+     * none has priorities. As a filter, for fetching only the statements that
+     * will be used.
+     */
+    public Ranks forEntity(Resource entity, KnowledgeBase kb) throws RepositoryException {
+        return forTypes(kb.types(entity));
+    }
+
+    /**
+     * The ranks for the first of the types with priorities, null if none
+     * has them.
+     */
+    public Ranks forTypes(List<Value> types) {
+        for (Value type : types) {
+            Ranks result = byType.get(type.stringValue());
+            if (result != null)
+                return result;
+        }
+        return null;
+    }
+}
@@ -8,14 +8,19 @@ package ar.edu.famaf.nlp.alusivo;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.openrdf.model.BNode;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 
 /**
  * 
@@ -44,7 +49,9 @@ public class ReferringExpression implements Serializable {
         this.referent = referent;
     }
 
-    public class Predicate {
+    public class Predicate implements Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         // might be null to reference the referent
 
@@ -107,11 +114,82 @@ public class ReferringExpression implements Serializable {
             URI predicate = this.predicate;
             Value object = this.object == null ? candidate : this.object;
 
-            boolean empty = !repo.getStatements(subject, predicate, object, true).hasNext();
+            RepositoryResult<Statement> stmts = repo.getStatements(subject, predicate, object, true);
+            boolean empty;
+            try {
+                empty = !stmts.hasNext();
+            } finally {
+                stmts.close();
+            }
+            if (this.negative)
+                return empty;
+            return !empty;
+        }
+
+        /**
+         * Check the predicate against a snapshot instead of the repository.
+         * The candidate must be in the context, otherwise nothing is known
+         * about it and negative predicates would hold for it.
+         */
+        public boolean holds(URI candidate, EntityContext context) {
+            if (!isGround() && !context.hasEntity(candidate))
+                throw new IllegalArgumentException("Not in context: " + candidate);
+            URI subject = this.subject == null ? candidate : this.subject;
+            Value object = this.object == null ? candidate : this.object;
+
+            boolean empty = !context.contains(subject, predicate, object);
             if (this.negative)
                 return empty;
             return !empty;
         }
+
+        /**
+         * The predicate as a SPARQL triple pattern, with the referent position
+         * replaced by the given variable. A blank node would be a variable in
+         * the pattern, so it is rejected with an IllegalArgumentException.
+         */
+        public String toSparqlPattern(String var) {
+            if (object instanceof BNode)
+                throw new IllegalArgumentException("Blank node " + object + " cannot be named in a SPARQL query");
+            return (subject == null ? var : NTriplesUtil.toNTriplesString(subject)) + " "
+                    + NTriplesUtil.toNTriplesString(predicate) + " "
+                    + (object == null ? var : NTriplesUtil.toNTriplesString(object)) + " .";
+        }
+
+        /**
+         * Whether neither the subject nor the object refer to the referent, so
+         * the predicate holds or fails for all candidates alike.
+         */
+        public boolean isGround() {
+            return subject != null && object != null;
+        }
+
+        /**
+         * Evaluate the predicate once with the referent position left unbound.
+         * Returns the values for which the statement is present, irrespective of
+         * the predicate being negative. Not to be called on ground predicates.
+         */
+        public Set<Value> bindings(RepositoryConnection repo) throws RepositoryException {
+            assert !isGround();
+            Set<Value> result = new HashSet<Value>();
+            RepositoryResult<Statement> stmts = repo.getStatements(subject, predicate, object, true);
+            try {
+                while (stmts.hasNext()) {
+                    Statement stmt = stmts.next();
+                    if (subject == null && object == null) {
+                        // referent related to itself
+                        if (stmt.getSubject().equals(stmt.getObject()))
+                            result.add(stmt.getSubject());
+                    } else if (subject == null)
+                        result.add(stmt.getSubject());
+                    else
+                        result.add(stmt.getObject());
+                }
+            } finally {
+                stmts.close();
+            }
+            return result;
+        }
     }
 
     private List<Predicate> predicates;
@@ -136,6 +214,19 @@ public class ReferringExpression implements Serializable {
         this.predicates.add(new Predicate(subject, predicate, object, true));
     }
 
+    /**
+     * Add an already built predicate, where a null subject or object refer to
+     * the referent. Used by the codecs, where the referent is not known.
+     */
+    void add(URI subject, URI predicate, Value object, boolean negative) {
+        Predicate pred = new Predicate();
+        pred.subject = subject;
+        pred.predicate = predicate;
+        pred.object = object;
+        pred.negative = negative;
+        this.predicates.add(pred);
+    }
+
     public boolean hasNegatives() {
         for (Predicate pred : predicates)
             if (pred.isNegative())
@@ -143,6 +234,30 @@ public class ReferringExpression implements Serializable {
         return false;
     }
 
+    /**
+     * Compile the expression into a SPARQL SELECT query over the given
+     * variable (without the leading '?'), returning the candidates that satisfy
+     * it. Positive predicates become triple patterns, negative ones FILTER NOT
+     * EXISTS and the candidates go into a VALUES block.
+     */
+    public String toSparql(String var, List<URI> candidates) {
+        String v = "?" + var;
+        StringBuilder result = new StringBuilder();
+        result.append("SELECT ").append(v).append(" WHERE {\n");
+        result.append("  VALUES ").append(v).append(" {");
+        for (URI candidate : candidates)
+            result.append(' ').append(NTriplesUtil.toNTriplesString(candidate));
+        result.append(" }\n");
+        for (Predicate pred : predicates)
+            if (!pred.isNegative())
+                result.append("  ").append(pred.toSparqlPattern(v)).append('\n');
+        for (Predicate pred : predicates)
+            if (pred.isNegative())
+                result.append("  FILTER NOT EXISTS { ").append(pred.toSparqlPattern(v)).append(" }\n");
+        result.append("}");
+        return result.toString();
+    }
+
     public String toString() {
         StringBuilder result = new StringBuilder();
         for (Predicate pred : predicates)
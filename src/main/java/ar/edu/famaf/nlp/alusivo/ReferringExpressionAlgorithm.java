@@ -23,4 +23,10 @@ public interface ReferringExpressionAlgorithm {
     public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo)
             throws ReferringExpressionException, RepositoryException;
 
+    /**
+     * Same as above, working only from the given snapshot, without accessing
+     * the repository.
+     */
+    public ReferringExpression resolve(EntityContext context) throws ReferringExpressionException;
+
 }
@@ -0,0 +1,308 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.event.RepositoryConnectionListener;
+
+/**
+ *
+ * Size-bounded LRU cache of resolved referring expressions, keyed by the
+ * algorithm configuration, the referent and the set of confusors. Each result
+ * depends on the statements about the referent and the confusors (the ones
+ * EntityContext fetches), and is dropped when any of them changes; the rest of
+ * the cache stays. Results are resolved with the confusors in the order of the
+ * key, so which of the requests for a set comes first does not change the
+ * answer.
+ *
+ * As with EntityDescriptionCache, changes are seen either through
+ * invalidate() or by registering invalidationListener() with a
+ * NotifyingRepositoryConnection used to modify the repository. Thread-safe.
+ * The cached expressions are shared, do not modify them.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ReferringExpressionCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final Comparator<URI> BY_STRING = new Comparator<URI>() {
+        public int compare(URI u1, URI u2) {
+            return u1.stringValue().compareTo(u2.stringValue());
+        }
+    };
+
+    private static class Key {
+        private String configuration;
+        private URI referent;
+        private List<URI> confusors;
+
+        public Key(String configuration, URI referent, List<URI> confusors) {
+            this.configuration = configuration;
+            this.referent = referent;
+            List<URI> sorted = new ArrayList<URI>(new HashSet<URI>(confusors));
+            Collections.sort(sorted, BY_STRING);
+            this.confusors = sorted;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return this.configuration.equals(other.configuration) && this.referent.equals(other.referent)
+                    && this.confusors.equals(other.confusors);
+        }
+
+        @Override
+        public int hashCode() {
+            return (configuration.hashCode() * 31 + referent.hashCode()) * 31 + confusors.hashCode();
+        }
+
+        /**
+         * The entities whose statements the result depends on.
+         */
+        public List<URI> dependencies() {
+            List<URI> result = new ArrayList<URI>(confusors);
+            result.add(referent);
+            return result;
+        }
+    }
+
+    /**
+     * A result being resolved, stale when one of the entities it depends on
+     * changed meanwhile.
+     */
+    private static class Fetch {
+        private Key key;
+        private boolean stale = false;
+
+        Fetch(Key key) {
+            this.key = key;
+        }
+    }
+
+    private LinkedHashMap<Key, ReferringExpression> entries = new LinkedHashMap<Key, ReferringExpression>(16,
+            0.75f, true);
+    private Map<Value, Set<Key>> dependents = new HashMap<Value, Set<Key>>();
+    private int maxSize;
+
+    // the fetches in flight by the entities they depend on
+    private Map<Value, Set<Fetch>> fetches = new HashMap<Value, Set<Fetch>>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public ReferringExpressionCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public ReferringExpressionCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * An algorithm answering from the cache, and resolving through the given
+     * one on a miss. The configuration tells apart algorithms (or the same
+     * algorithm with different priorities) sharing the cache.
+     */
+    public ReferringExpressionAlgorithm wrap(final ReferringExpressionAlgorithm algorithm,
+            final String configuration) {
+        return new ReferringExpressionAlgorithm() {
+            public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo)
+                    throws ReferringExpressionException, RepositoryException {
+                Key key = new Key(configuration, referent, confusors);
+                Fetch[] fetch = new Fetch[1];
+                ReferringExpression result = lookup(key, fetch);
+                if (result != null)
+                    return result;
+                try {
+                    result = algorithm.resolve(referent, key.confusors, repo);
+                } finally {
+                    finish(fetch[0], result);
+                }
+                return result;
+            }
+
+            public ReferringExpression resolve(EntityContext context) throws ReferringExpressionException {
+                Key key = new Key(configuration, context.getReferent(), context.getConfusors());
+                Fetch[] fetch = new Fetch[1];
+                ReferringExpression result = lookup(key, fetch);
+                if (result != null)
+                    return result;
+                try {
+                    result = algorithm.resolve(context.withConfusors(key.confusors));
+                } finally {
+                    finish(fetch[0], result);
+                }
+                return result;
+            }
+        };
+    }
+
+    public synchronized ReferringExpression get(String configuration, URI referent, List<URI> confusors) {
+        return entries.get(new Key(configuration, referent, confusors));
+    }
+
+    /**
+     * The cached result, or null with the fetch to hand to finish() in
+     * fetch[0].
+     */
+    private synchronized ReferringExpression lookup(Key key, Fetch[] fetch) {
+        ReferringExpression result = entries.get(key);
+        if (result != null) {
+            hits++;
+            return result;
+        }
+        misses++;
+        fetch[0] = new Fetch(key);
+        for (URI entity : key.dependencies()) {
+            Set<Fetch> pending = fetches.get(entity);
+            if (pending == null) {
+                pending = new HashSet<Fetch>();
+                fetches.put(entity, pending);
+            }
+            pending.add(fetch[0]);
+        }
+        return null;
+    }
+
+    /**
+     * Resolving happens outside the lock, a result (null if resolving failed)
+     * computed while its entities changed might be stale and is not kept.
+     */
+    private synchronized void finish(Fetch fetch, ReferringExpression result) {
+        for (URI entity : fetch.key.dependencies()) {
+            Set<Fetch> pending = fetches.get(entity);
+            if (pending != null) {
+                pending.remove(fetch);
+                if (pending.isEmpty())
+                    fetches.remove(entity);
+            }
+        }
+        if (result != null && !fetch.stale)
+            store(fetch.key, result);
+    }
+
+    private void store(Key key, ReferringExpression result) {
+        if (entries.put(key, result) == null)
+            for (URI entity : key.dependencies()) {
+                Set<Key> keys = dependents.get(entity);
+                if (keys == null) {
+                    keys = new HashSet<Key>();
+                    dependents.put(entity, keys);
+                }
+                keys.add(key);
+            }
+        Iterator<Map.Entry<Key, ReferringExpression>> it = entries.entrySet().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            Key eldest = it.next().getKey();
+            it.remove();
+            forget(eldest);
+            evictions++;
+        }
+    }
+
+    private void forget(Key key) {
+        for (URI entity : key.dependencies()) {
+            Set<Key> keys = dependents.get(entity);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty())
+                    dependents.remove(entity);
+            }
+        }
+    }
+
+    /**
+     * Drop the results depending on the statements about the entity.
+     */
+    public synchronized void invalidate(Value entity) {
+        Set<Fetch> pending = fetches.get(entity);
+        if (pending != null)
+            for (Fetch fetch : pending)
+                fetch.stale = true;
+        Set<Key> keys = dependents.get(entity);
+        if (keys == null)
+            return;
+        for (Key key : new ArrayList<Key>(keys)) {
+            entries.remove(key);
+            forget(key);
+            invalidations++;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (Set<Fetch> pending : fetches.values())
+            for (Fetch fetch : pending)
+                fetch.stale = true;
+        invalidations += entries.size();
+        entries.clear();
+        dependents.clear();
+    }
+
+    /**
+     * A listener for NotifyingRepositoryConnection that drops the results
+     * depending on the subject or the object of each change (or the whole
+     * cache, for changes with wildcards), and once more when the change is
+     * committed.
+     */
+    public RepositoryConnectionListener invalidationListener() {
+        return new InvalidationListener() {
+            @Override
+            protected void invalidate(Value entity) {
+                ReferringExpressionCache.this.invalidate(entity);
+            }
+
+            @Override
+            protected void invalidateAll() {
+                ReferringExpressionCache.this.invalidateAll();
+            }
+        };
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String toString() {
+        return "ReferringExpressionCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + "]";
+    }
+}
@@ -0,0 +1,285 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+
+import ar.edu.famaf.nlp.alusivo.ReferringExpression.Predicate;
+
+/**
+ *
+ * Compact binary encoding for streams of referring expressions.
+ *
+ * All terms (URIs, blank nodes and literals) go into a dictionary shared by the
+ * whole stream: a term is written in full the first time it appears and as a
+ * varint id afterwards. Each predicate takes a flags byte (negation and whether
+ * subject and object refer to the referent) plus up to three ids.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ReferringExpressionCodec {
+
+    private static final int MAGIC = 0x414c5245; // "ALRE"
+    private static final int VERSION = 1;
+
+    private static final int FLAG_NEGATIVE = 1;
+    private static final int FLAG_SUBJECT = 2;
+    private static final int FLAG_OBJECT = 4;
+
+    private static final int KIND_URI = 0;
+    private static final int KIND_BNODE = 1;
+    private static final int KIND_LITERAL = 2;
+    private static final int KIND_LANG_LITERAL = 3;
+    private static final int KIND_TYPED_LITERAL = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ReferringExpressionCodec() {
+        // this class is not intended to be instantiated
+    }
+
+    public static byte[] encode(ReferringExpression refExp) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new Writer(bytes);
+        writer.write(refExp);
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    public static ReferringExpression decode(byte[] bytes, ValueFactory f) throws IOException {
+        Reader reader = new Reader(new ByteArrayInputStream(bytes), f);
+        try {
+            return reader.read();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes expressions one after the other, sharing the term dictionary.
+     */
+    public static class Writer implements Closeable, Flushable {
+
+        private OutputStream out;
+        private Map<Value, Integer> dictionary = new HashMap<Value, Integer>();
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new BufferedOutputStream(out);
+            writeVarint(MAGIC);
+            writeVarint(VERSION);
+        }
+
+        public void write(ReferringExpression refExp) throws IOException {
+            List<Predicate> predicates = refExp.predicates();
+            writeVarint(predicates.size());
+            for (Predicate pred : predicates) {
+                int flags = (pred.isNegative() ? FLAG_NEGATIVE : 0) | (pred.getSubject() != null ? FLAG_SUBJECT : 0)
+                        | (pred.getObject() != null ? FLAG_OBJECT : 0);
+                out.write(flags);
+                if (pred.getSubject() != null)
+                    writeTerm(pred.getSubject());
+                writeTerm(pred.getPredicate());
+                if (pred.getObject() != null)
+                    writeTerm(pred.getObject());
+            }
+        }
+
+        private void writeTerm(Value term) throws IOException {
+            Integer id = dictionary.get(term);
+            if (id != null) {
+                writeVarint(id);
+                return;
+            }
+            // a new term, the next id followed by its definition
+            id = dictionary.size();
+            writeVarint(id);
+            dictionary.put(term, id);
+            if (term instanceof URI) {
+                out.write(KIND_URI);
+                writeString(term.stringValue());
+            } else if (term instanceof BNode) {
+                out.write(KIND_BNODE);
+                writeString(((BNode) term).getID());
+            } else {
+                Literal literal = (Literal) term;
+                if (literal.getLanguage() != null) {
+                    out.write(KIND_LANG_LITERAL);
+                    writeString(literal.getLabel());
+                    writeString(literal.getLanguage());
+                } else if (literal.getDatatype() != null) {
+                    out.write(KIND_TYPED_LITERAL);
+                    writeString(literal.getLabel());
+                    writeTerm(literal.getDatatype());
+                } else {
+                    out.write(KIND_LITERAL);
+                    writeString(literal.getLabel());
+                }
+            }
+        }
+
+        private void writeString(String str) throws IOException {
+            byte[] bytes = str.getBytes(UTF8);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads back expressions written by a Writer. Decoded expressions have no
+     * referent.
+     */
+    public static class Reader implements Closeable {
+
+        private InputStream in;
+        private ValueFactory f;
+        private List<Value> dictionary = new ArrayList<Value>();
+
+        public Reader(InputStream in, ValueFactory f) throws IOException {
+            this.in = new BufferedInputStream(in);
+            this.f = f;
+            if (readVarint() != MAGIC)
+                throw new IOException("Not a referring expressions stream");
+            int version = readVarint();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version);
+        }
+
+        /**
+         * Returns the next expression, or null at the end of the stream.
+         */
+        public ReferringExpression read() throws IOException {
+            int first = in.read();
+            if (first < 0)
+                return null;
+            int size = readVarint(first);
+            ReferringExpression result = new ReferringExpression();
+            for (int i = 0; i < size; i++) {
+                int flags = readByte();
+                URI subject = (flags & FLAG_SUBJECT) != 0 ? (URI) readTerm() : null;
+                URI predicate = (URI) readTerm();
+                Value object = (flags & FLAG_OBJECT) != 0 ? readTerm() : null;
+                result.add(subject, predicate, object, (flags & FLAG_NEGATIVE) != 0);
+            }
+            return result;
+        }
+
+        private Value readTerm() throws IOException {
+            int id = readVarint();
+            if (id < dictionary.size())
+                return dictionary.get(id);
+            if (id != dictionary.size())
+                throw new IOException("Unexpected term id " + id);
+            dictionary.add(null); // reserve the id, typed literals read their datatype
+            Value term;
+            switch (readByte()) {
+            case KIND_URI:
+                term = f.createURI(readString());
+                break;
+            case KIND_BNODE:
+                term = f.createBNode(readString());
+                break;
+            case KIND_LITERAL:
+                term = f.createLiteral(readString());
+                break;
+            case KIND_LANG_LITERAL:
+                String label = readString();
+                term = f.createLiteral(label, readString());
+                break;
+            case KIND_TYPED_LITERAL:
+                label = readString();
+                term = f.createLiteral(label, (URI) readTerm());
+                break;
+            default:
+                throw new IOException("Unknown term kind");
+            }
+            dictionary.set(id, term);
+            return term;
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[readVarint()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0)
+                    throw new EOFException();
+                read += n;
+            }
+            return new String(bytes, UTF8);
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+            return b;
+        }
+
+        private int readVarint() throws IOException {
+            return readVarint(readByte());
+        }
+
+        /**
+         * Varints are non-negative ints, at most five bytes with only three
+         * bits used in the last one; anything else is a corrupt stream.
+         */
+        private int readVarint(int b) throws IOException {
+            int result = b & 0x7F;
+            int shift = 7;
+            while ((b & 0x80) != 0) {
+                if (shift > 28)
+                    throw new IOException("Varint longer than five bytes");
+                b = readByte();
+                if (shift == 28 && (b & 0x78) != 0)
+                    throw new IOException("Varint out of range");
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            return result;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ar.edu.famaf.nlp.alusivo.ReferringExpression.Predicate;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ *
+ * Answers requests written as one JSON object per line, for the server and
+ * batch modes of Main. A request is either
+ *
+ * <pre>
+ * {"id": 1, "referent": uri, "confusors": [uri, ...], "type": uri, "algorithm": name}
+ * {"id": 2, "op": "verify", "expression": [predicate, ...], "candidates": [uri, ...]}
+ * {"id": 3, "op": "stats"}
+ * </pre>
+ *
+ * where id, type and algorithm (a full or simple class name) are optional and
+ * a predicate is {"subject": uri, "predicate": uri, "object": term,
+ * "negative": true} with the object in N-Triples syntax, and the subject or
+ * the object left out when they refer to the referent. The answer echoes the
+ * id, plus either "expression" (resolve), "resolved" (verify, the candidates
+ * satisfying the expression) or "error", and the time taken in "millis".
+ *
+ * Thread-safe, as long as each thread brings its own connection. The
+ * algorithms, the description cache and the result cache stay warm across
+ * requests.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class RequestHandler {
+
+    static final Logger logger = LoggerFactory.getLogger(RequestHandler.class);
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private Map<String, ReferringExpressionAlgorithm> algorithms = new LinkedHashMap<String, ReferringExpressionAlgorithm>();
+    private Map<String, ReferringExpressionAlgorithm> cached = new LinkedHashMap<String, ReferringExpressionAlgorithm>();
+    private String defaultAlgorithm;
+    private PriorityTable priorities;
+    private ReferringExpressionCache results;
+    private EntityDescriptionCache descriptions = null;
+    private Prefetcher prefetcher = null;
+    private ValueFactory f = ValueFactoryImpl.getInstance();
+
+    private AtomicLong requests = new AtomicLong();
+    private AtomicLong errors = new AtomicLong();
+    private AtomicLong millis = new AtomicLong();
+
+    /**
+     * @param algorithms
+     *            by full class name, already configured (descriptions cache,
+     *            prefetcher).
+     * @param priorities
+     *            to skip ignored predicates when fetching for requests with a
+     *            type, null to fetch all.
+     * @param results
+     *            shared by all requests without a type, null for none.
+     */
+    public RequestHandler(Map<String, ReferringExpressionAlgorithm> algorithms, String defaultAlgorithm,
+            PriorityTable priorities, ReferringExpressionCache results) {
+        this.algorithms.putAll(algorithms);
+        this.defaultAlgorithm = defaultAlgorithm;
+        this.priorities = priorities;
+        this.results = results;
+        for (Map.Entry<String, ReferringExpressionAlgorithm> entry : algorithms.entrySet())
+            cached.put(entry.getKey(), results == null ? entry.getValue() : results.wrap(entry.getValue(),
+                    entry.getKey()));
+    }
+
+    public EntityDescriptionCache getCache() {
+        return descriptions;
+    }
+
+    /**
+     * Read the descriptions for requests with a type through the cache the
+     * algorithms share, null to read them from the repository each time.
+     */
+    public void setCache(EntityDescriptionCache descriptions) {
+        this.descriptions = descriptions;
+    }
+
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Fetch the confusors of requests with a type through the prefetcher the
+     * algorithms share, null to fetch them one after the other.
+     */
+    public void setPrefetcher(Prefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    private static class Request {
+        private Object id;
+        private String op = "resolve";
+        private String referent;
+        private List<String> confusors = new ArrayList<String>();
+        private String type;
+        private String algorithm;
+        private List<Map<String, Object>> expression = new ArrayList<Map<String, Object>>();
+        private List<String> candidates = new ArrayList<String>();
+    }
+
+    /**
+     * The answer to the request, as a single line of JSON (without the line
+     * break). Never throws: errors, malformed requests included, are answered
+     * with "error".
+     */
+    public String handle(String line, RepositoryConnection conn) {
+        long start = System.nanoTime();
+        StringWriter out = new StringWriter();
+        try {
+            JsonGenerator json = JSON.createGenerator(out);
+            json.writeStartObject();
+            try {
+                Request request = parse(line);
+                writeId(json, request.id);
+                if (request.op.equals("resolve")) {
+                    ReferringExpression expression = resolve(request, conn);
+                    json.writeFieldName("expression");
+                    write(json, expression);
+                } else if (request.op.equals("verify")) {
+                    List<URI> resolved = verify(request, conn);
+                    json.writeArrayFieldStart("resolved");
+                    for (URI candidate : resolved)
+                        json.writeString(candidate.stringValue());
+                    json.writeEndArray();
+                } else if (request.op.equals("stats")) {
+                    json.writeNumberField("requests", requests.get());
+                    json.writeNumberField("errors", errors.get());
+                    json.writeNumberField("totalMillis", millis.get());
+                    if (results != null)
+                        json.writeStringField("results", results.toString());
+                } else
+                    throw new IllegalArgumentException("Unknown op '" + request.op + "'");
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                json.writeStringField("error", e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            requests.incrementAndGet();
+            millis.addAndGet(elapsed);
+            json.writeNumberField("millis", elapsed);
+            json.writeEndObject();
+            json.close();
+            if (logger.isDebugEnabled())
+                logger.debug(elapsed + "ms " + line);
+        } catch (IOException e) {
+            // writing to a string
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private void writeId(JsonGenerator json, Object id) throws IOException {
+        if (id instanceof Number)
+            json.writeNumberField("id", ((Number) id).longValue());
+        else if (id != null)
+            json.writeStringField("id", id.toString());
+    }
+
+    private ReferringExpression resolve(Request request, RepositoryConnection conn)
+            throws ReferringExpressionException, RepositoryException {
+        if (request.referent == null)
+            throw new IllegalArgumentException("No referent");
+        String name = request.algorithm == null ? defaultAlgorithm : request.algorithm;
+        String key = algorithmKey(name);
+        URI referent = f.createURI(request.referent);
+        List<URI> confusors = uris(request.confusors);
+
+        if (request.type == null)
+            return cached.get(key).resolve(referent, confusors, conn);
+
+        // the type goes on top of the repository, which is shared
+        KnowledgeBase kb = new OverlayKnowledgeBase(knowledgeBase(conn), Collections.<Statement> singletonList(
+                new StatementImpl(referent, RDF.TYPE, f.createURI(request.type))));
+        PredicateFilter filter = priorities == null ? null : priorities.forEntity(referent, kb);
+        return algorithms.get(key).resolve(EntityContext.build(referent, confusors, kb, filter));
+    }
+
+    /**
+     * Where the descriptions for a request with a type are read from, as the
+     * algorithms do.
+     */
+    private KnowledgeBase knowledgeBase(RepositoryConnection conn) {
+        if (prefetcher != null)
+            return prefetcher.knowledgeBase(conn, descriptions);
+        return SparqlKnowledgeBase.forConnection(conn, descriptions);
+    }
+
+    private String algorithmKey(String name) {
+        if (algorithms.containsKey(name))
+            return name;
+        for (String key : algorithms.keySet())
+            if (key.endsWith("." + name))
+                return key;
+        throw new IllegalArgumentException("Unknown algorithm '" + name + "'");
+    }
+
+    private List<URI> verify(Request request, RepositoryConnection conn) throws RepositoryException {
+        ReferringExpression expression = new ReferringExpression();
+        for (Map<String, Object> pred : request.expression) {
+            if (pred.get("predicate") == null)
+                throw new IllegalArgumentException("Predicate without 'predicate'");
+            expression.add(pred.get("subject") == null ? null : f.createURI((String) pred.get("subject")),
+                    f.createURI((String) pred.get("predicate")), pred.get("object") == null ? null : NTriplesUtil
+                            .parseValue((String) pred.get("object"), f), Boolean.TRUE.equals(pred.get("negative")));
+        }
+        return Resolver.resolve(expression, uris(request.candidates), conn);
+    }
+
+    private List<URI> uris(List<String> strings) {
+        List<URI> result = new ArrayList<URI>(strings.size());
+        for (String s : strings)
+            result.add(f.createURI(s));
+        return result;
+    }
+
+    /**
+     * The predicates of the expression as a JSON array, see above.
+     */
+    public static void write(JsonGenerator json, ReferringExpression expression) throws IOException {
+        json.writeStartArray();
+        for (Predicate pred : expression.predicates()) {
+            json.writeStartObject();
+            if (pred.getSubject() != null)
+                json.writeStringField("subject", pred.getSubject().stringValue());
+            json.writeStringField("predicate", pred.getPredicate().stringValue());
+            if (pred.getObject() != null)
+                json.writeStringField("object", NTriplesUtil.toNTriplesString(pred.getObject()));
+            if (pred.isNegative())
+                json.writeBooleanField("negative", true);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    private static Request parse(String line) throws IOException {
+        Request result = new Request();
+        JsonParser json = JSON.createParser(line);
+        try {
+            if (json.nextToken() != JsonToken.START_OBJECT)
+                throw new IllegalArgumentException("Not a JSON object");
+            while (json.nextToken() == JsonToken.FIELD_NAME) {
+                String field = json.getCurrentName();
+                JsonToken token = json.nextToken();
+                if (field.equals("id"))
+                    result.id = token == JsonToken.VALUE_NUMBER_INT ? (Object) json.getLongValue() : json.getText();
+                else if (field.equals("op"))
+                    result.op = json.getText();
+                else if (field.equals("referent"))
+                    result.referent = json.getText();
+                else if (field.equals("type"))
+                    result.type = token == JsonToken.VALUE_NULL ? null : json.getText();
+                else if (field.equals("algorithm"))
+                    result.algorithm = token == JsonToken.VALUE_NULL ? null : json.getText();
+                else if (field.equals("confusors"))
+                    strings(json, result.confusors);
+                else if (field.equals("candidates"))
+                    strings(json, result.candidates);
+                else if (field.equals("expression"))
+                    predicates(json, result.expression);
+                else
+                    json.skipChildren();
+            }
+        } finally {
+            json.close();
+        }
+        return result;
+    }
+
+    private static void strings(JsonParser json, List<String> result) throws IOException {
+        if (json.getCurrentToken() != JsonToken.START_ARRAY)
+            throw new IllegalArgumentException("Expected an array of strings");
+        while (json.nextToken() != JsonToken.END_ARRAY)
+            result.add(json.getText());
+    }
+
+    private static void predicates(JsonParser json, List<Map<String, Object>> result) throws IOException {
+        if (json.getCurrentToken() != JsonToken.START_ARRAY)
+            throw new IllegalArgumentException("Expected an array of predicates");
+        while (json.nextToken() == JsonToken.START_OBJECT) {
+            Map<String, Object> pred = new LinkedHashMap<String, Object>();
+            while (json.nextToken() == JsonToken.FIELD_NAME) {
+                String field = json.getCurrentName();
+                JsonToken token = json.nextToken();
+                if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE)
+                    pred.put(field, json.getBooleanValue());
+                else if (token == JsonToken.VALUE_NULL)
+                    pred.put(field, null);
+                else
+                    pred.put(field, json.getText());
+            }
+            result.add(pred);
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Sum of the time taken by all the requests so far.
+     */
+    public long getMillis() {
+        return millis.get();
+    }
+}
@@ -6,9 +6,30 @@
 package ar.edu.famaf.nlp.alusivo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 
@@ -25,23 +46,56 @@ import ar.edu.famaf.nlp.alusivo.ReferringExpression.Predicate;
  */
 public class Resolver {
 
+    /**
+     * Maximum number of candidates sent in the VALUES block of a single query,
+     * unless given.
+     */
+    public static final int DEFAULT_SPARQL_BATCH_SIZE = 10000;
+
+    /**
+     * Candidate lists smaller than this are not worth splitting across threads,
+     * unless given.
+     */
+    public static final int DEFAULT_MIN_PARTITION_SIZE = 1000;
+
+    private static final String VAR = "candidate";
+
     private Resolver() {
         // this class is not intended to be instantiated
     }
 
+    /**
+     * Evaluates each predicate once over the whole repository, with the referent
+     * position unbound, and intersects (or, for negative predicates, subtracts)
+     * the result with the surviving candidates. The order of the candidates is
+     * preserved.
+     */
     public static List<URI> resolve(ReferringExpression refExp, List<URI> candidates, RepositoryConnection repo)
             throws RepositoryException {
         List<URI> result = new ArrayList<URI>(candidates);
 
         for (Predicate pred : refExp.predicates()) {
-            int idx = 0;
-            while (idx < result.size()) {
-                if (pred.holds(result.get(idx), repo)) {
-                    idx++;
-                } else {
-                    result.remove(idx);
-                }
-            }
+            result = filter(pred, result, repo);
+            if (result.isEmpty())
+                break;
+        }
+
+        return result;
+    }
+
+    /**
+     * Resolve against a snapshot, without accessing the repository. The
+     * candidates must be in the context (as referent or confusors).
+     */
+    public static List<URI> resolve(ReferringExpression refExp, List<URI> candidates, EntityContext context) {
+        List<URI> result = new ArrayList<URI>(candidates);
+
+        for (Predicate pred : refExp.predicates()) {
+            List<URI> remaining = new ArrayList<URI>(result.size());
+            for (URI candidate : result)
+                if (pred.holds(candidate, context))
+                    remaining.add(candidate);
+            result = remaining;
             if (result.isEmpty())
                 break;
         }
@@ -49,4 +103,289 @@ public class Resolver {
         return result;
     }
 
+    /**
+     * Same as the repository version, but the predicates are evaluated most
+     * selective first, as
+     * estimated by the statistics (which get updated with the observed
+     * cardinalities). Once the surviving candidates are fewer than the
+     * estimated cardinality of a predicate, it is checked candidate by candidate
+     * instead.
+     */
+    public static List<URI> resolve(ReferringExpression refExp, List<URI> candidates, RepositoryConnection repo,
+            PredicateStatistics stats) throws RepositoryException {
+        List<URI> result = new ArrayList<URI>(candidates);
+
+        for (Predicate pred : bySelectivity(refExp.predicates(), repo, stats)) {
+            if (!pred.isGround() && stats.estimate(pred, repo) > result.size())
+                result = filter(pred, null, result, repo);
+            else
+                result = filter(pred, result, repo, stats);
+            if (result.isEmpty())
+                break;
+        }
+
+        return result;
+    }
+
+    /**
+     * Compiles the expression into a SPARQL query and let the repository query
+     * engine do the evaluation, one query per DEFAULT_SPARQL_BATCH_SIZE
+     * candidates. Works the same for local and remote (SPARQLRepository)
+     * repositories.
+     */
+    public static List<URI> resolveSparql(ReferringExpression refExp, List<URI> candidates, RepositoryConnection repo)
+            throws RepositoryException {
+        return resolveSparql(refExp, candidates, repo, DEFAULT_SPARQL_BATCH_SIZE);
+    }
+
+    /**
+     * Same, with at most batchSize candidates per query. Expressions
+     * mentioning blank nodes are rejected with an IllegalArgumentException,
+     * as in a query they would match any node.
+     */
+    public static List<URI> resolveSparql(ReferringExpression refExp, List<URI> candidates, RepositoryConnection repo,
+            int batchSize) throws RepositoryException {
+        Set<Value> matched = new HashSet<Value>();
+        for (int start = 0; start < candidates.size(); start += batchSize) {
+            List<URI> batch = candidates.subList(start, Math.min(candidates.size(), start + batchSize));
+            try {
+                TupleQuery query = repo.prepareTupleQuery(QueryLanguage.SPARQL, refExp.toSparql(VAR, batch));
+                TupleQueryResult rows = query.evaluate();
+                try {
+                    while (rows.hasNext()) {
+                        BindingSet row = rows.next();
+                        matched.add(row.getValue(VAR));
+                    }
+                } finally {
+                    rows.close();
+                }
+            } catch (MalformedQueryException e) {
+                throw new RepositoryException(e);
+            } catch (QueryEvaluationException e) {
+                throw new RepositoryException(e);
+            }
+        }
+
+        List<URI> result = new ArrayList<URI>();
+        for (URI candidate : candidates)
+            if (matched.contains(candidate))
+                result.add(candidate);
+        return result;
+    }
+
+    /**
+     * Resolve many expressions against the same candidates. Predicates shared
+     * among the expressions are evaluated only once, into a bitmap over the
+     * candidate positions, which is then combined per expression (AND for
+     * positive predicates, AND NOT for negative ones).
+     */
+    public static List<List<URI>> resolveAll(List<ReferringExpression> refExps, List<URI> candidates,
+            RepositoryConnection repo) throws RepositoryException {
+        Map<List<Object>, BitSet> evaluated = new HashMap<List<Object>, BitSet>();
+        List<List<URI>> result = new ArrayList<List<URI>>(refExps.size());
+
+        for (ReferringExpression refExp : refExps) {
+            BitSet surviving = new BitSet(candidates.size());
+            surviving.set(0, candidates.size());
+            for (Predicate pred : refExp.predicates()) {
+                List<Object> key = Arrays.<Object> asList(pred.getSubject(), pred.getPredicate(), pred.getObject());
+                BitSet holding = evaluated.get(key);
+                if (holding == null) {
+                    holding = evaluate(pred, candidates, repo);
+                    evaluated.put(key, holding);
+                }
+                if (pred.isNegative())
+                    surviving.andNot(holding);
+                else
+                    surviving.and(holding);
+                if (surviving.isEmpty())
+                    break;
+            }
+
+            List<URI> resolved = new ArrayList<URI>(surviving.cardinality());
+            for (int i = surviving.nextSetBit(0); i >= 0; i = surviving.nextSetBit(i + 1))
+                resolved.add(candidates.get(i));
+            result.add(resolved);
+        }
+
+        return result;
+    }
+
+    /**
+     * Positions of the candidates for which the statement in the predicate is
+     * present, irrespective of it being negative.
+     */
+    private static BitSet evaluate(Predicate pred, List<URI> candidates, RepositoryConnection repo)
+            throws RepositoryException {
+        BitSet result = new BitSet(candidates.size());
+        if (pred.isGround()) {
+            if (pred.holds(null, repo) != pred.isNegative())
+                result.set(0, candidates.size());
+            return result;
+        }
+        Set<Value> bindings = pred.bindings(repo);
+        for (int i = 0; i < candidates.size(); i++)
+            if (bindings.contains(candidates.get(i)))
+                result.set(i);
+        return result;
+    }
+
+    /**
+     * Resolve in parallel using a pool of the given number of threads, created
+     * for this call.
+     */
+    public static List<URI> resolveParallel(ReferringExpression refExp, List<URI> candidates, Repository repository,
+            int threads) throws RepositoryException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return resolveParallel(refExp, candidates, repository, executor, threads, new PredicateStatistics());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Evaluates the predicates in order of selectivity, as the sequential
+     * version, splitting the work on the surviving candidates into contiguous
+     * partitions resolved in the executor. The bindings of a predicate are
+     * fetched once and shared by all the partitions; the partitions only get
+     * their own connection from the repository when their candidates are
+     * checked one by one. The survivors keep the input order.
+     */
+    public static List<URI> resolveParallel(ReferringExpression refExp, List<URI> candidates, Repository repository,
+            ExecutorService executor, int partitions, PredicateStatistics stats) throws RepositoryException {
+        return resolveParallel(refExp, candidates, repository, executor, partitions, stats,
+                DEFAULT_MIN_PARTITION_SIZE);
+    }
+
+    /**
+     * Same, never splitting below minPartitionSize candidates.
+     */
+    public static List<URI> resolveParallel(ReferringExpression refExp, List<URI> candidates, Repository repository,
+            ExecutorService executor, int partitions, PredicateStatistics stats, int minPartitionSize)
+            throws RepositoryException {
+        List<URI> result = new ArrayList<URI>(candidates);
+        RepositoryConnection conn = repository.getConnection();
+        try {
+            for (Predicate pred : bySelectivity(refExp.predicates(), conn, stats)) {
+                int partitionSize = Math.max(minPartitionSize, (result.size() + partitions - 1) / partitions);
+                if (pred.isGround())
+                    result = pred.holds(null, conn) ? result : new ArrayList<URI>();
+                else if (stats.estimate(pred, conn) > result.size())
+                    result = filter(pred, null, result, conn, repository, executor, partitionSize);
+                else {
+                    Set<Value> bindings = pred.bindings(conn);
+                    stats.record(pred, bindings.size());
+                    result = filter(pred, bindings, result, conn, repository, executor, partitionSize);
+                }
+                if (result.isEmpty())
+                    break;
+            }
+        } finally {
+            conn.close();
+        }
+        return result;
+    }
+
+    /**
+     * The candidates satisfying the predicate, by looking them up in the
+     * bindings or, if null, by checking them one by one against the
+     * repository, partitionSize candidates per task.
+     */
+    private static List<URI> filter(final Predicate pred, final Set<Value> bindings, List<URI> candidates,
+            RepositoryConnection conn, final Repository repository, ExecutorService executor, int partitionSize)
+            throws RepositoryException {
+        if (candidates.size() <= partitionSize)
+            return filter(pred, bindings, candidates, conn);
+
+        List<Future<List<URI>>> futures = new ArrayList<Future<List<URI>>>();
+        for (int start = 0; start < candidates.size(); start += partitionSize) {
+            final List<URI> partition = candidates.subList(start, Math.min(candidates.size(), start + partitionSize));
+            futures.add(executor.submit(new Callable<List<URI>>() {
+                public List<URI> call() throws RepositoryException {
+                    if (bindings != null)
+                        return filter(pred, bindings, partition, null);
+                    RepositoryConnection conn = repository.getConnection();
+                    try {
+                        return filter(pred, null, partition, conn);
+                    } finally {
+                        conn.close();
+                    }
+                }
+            }));
+        }
+
+        List<URI> result = new ArrayList<URI>();
+        try {
+            for (Future<List<URI>> future : futures)
+                result.addAll(future.get());
+        } catch (InterruptedException e) {
+            for (Future<List<URI>> future : futures)
+                future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            for (Future<List<URI>> future : futures)
+                future.cancel(true);
+            if (e.getCause() instanceof RepositoryException)
+                throw (RepositoryException) e.getCause();
+            throw new RepositoryException(e.getCause());
+        }
+        return result;
+    }
+
+    private static List<URI> filter(Predicate pred, Set<Value> bindings, List<URI> candidates,
+            RepositoryConnection repo) throws RepositoryException {
+        List<URI> remaining = new ArrayList<URI>(candidates.size());
+        for (URI candidate : candidates)
+            if (bindings == null ? pred.holds(candidate, repo) : bindings.contains(candidate) != pred.isNegative())
+                remaining.add(candidate);
+        return remaining;
+    }
+
+    private static List<URI> filter(Predicate pred, List<URI> candidates, RepositoryConnection repo)
+            throws RepositoryException {
+        return filter(pred, candidates, repo, null);
+    }
+
+    private static List<URI> filter(Predicate pred, List<URI> candidates, RepositoryConnection repo,
+            PredicateStatistics stats) throws RepositoryException {
+        if (pred.isGround())
+            return pred.holds(null, repo) ? candidates : new ArrayList<URI>();
+
+        Set<Value> bindings = pred.bindings(repo);
+        if (stats != null)
+            stats.record(pred, bindings.size());
+        return filter(pred, bindings, candidates, repo);
+    }
+
+    /**
+     * Ground predicates go first, as they are decided with one lookup. Then
+     * positive predicates by increasing cardinality (fewer values, more
+     * candidates eliminated) and finally negative predicates by decreasing
+     * cardinality. Ties keep the order in the expression.
+     */
+    private static List<Predicate> bySelectivity(List<Predicate> predicates, RepositoryConnection repo,
+            PredicateStatistics stats) throws RepositoryException {
+        final Map<Predicate, Long> estimates = new HashMap<Predicate, Long>();
+        for (Predicate pred : predicates)
+            estimates.put(pred, stats.estimate(pred, repo));
+
+        List<Predicate> result = new ArrayList<Predicate>(predicates);
+        Collections.sort(result, new Comparator<Predicate>() {
+            public int compare(Predicate p1, Predicate p2) {
+                int c = Integer.compare(rank(p1), rank(p2));
+                if (c != 0)
+                    return c;
+                c = estimates.get(p1).compareTo(estimates.get(p2));
+                return p1.isNegative() ? -c : c;
+            }
+
+            private int rank(Predicate pred) {
+                return pred.isGround() ? 0 : pred.isNegative() ? 2 : 1;
+            }
+        });
+        return result;
+    }
+
 }
@@ -0,0 +1,180 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Long-running server answering RequestHandler requests over a local socket,
+ * one JSON object per line each way, against a repository loaded once. Each
+ * client connection is served by one of a fixed pool of workers, with its own
+ * RepositoryConnection, and can send any number of requests; clients beyond
+ * the number of workers wait for one to be free. A client sending nothing for
+ * longer than the idle timeout is dropped, so it does not hold its worker.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class Server {
+
+    static final Logger logger = LoggerFactory.getLogger(Server.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_IDLE_TIMEOUT = 30000;
+
+    private RequestHandler handler;
+    private Repository repository;
+    private int workers;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private ServerSocket socket;
+    private ExecutorService executor;
+    private Thread acceptor;
+    private Set<Socket> clients = Collections.synchronizedSet(new HashSet<Socket>());
+
+    public Server(RequestHandler handler, Repository repository, int workers) {
+        this.handler = handler;
+        this.repository = repository;
+        this.workers = workers;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Milliseconds a client can wait between requests before it is dropped, 0
+     * to wait forever.
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Listen on the port of the loopback interface (0 for any free one) and
+     * return right away.
+     */
+    public void start(int port) throws IOException {
+        socket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "alusivo-worker");
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        acceptor = new Thread(new Runnable() {
+            public void run() {
+                while (!socket.isClosed()) {
+                    try {
+                        final Socket client = socket.accept();
+                        clients.add(client);
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                serve(client);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if (!socket.isClosed())
+                            logger.warn("Accepting a connection: " + e);
+                    }
+                }
+            }
+        }, "alusivo-acceptor");
+        acceptor.start();
+        logger.info("Listening on port " + getPort() + " with " + workers + " workers");
+    }
+
+    private void serve(Socket client) {
+        RepositoryConnection conn = null;
+        try {
+            client.setSoTimeout(idleTimeout);
+            conn = repository.getConnection();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF8));
+            Writer out = new OutputStreamWriter(client.getOutputStream(), UTF8);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                out.write(handler.handle(line, conn));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("Dropping idle client " + client.getRemoteSocketAddress());
+        } catch (SocketException e) {
+            // the client went away
+        } catch (IOException e) {
+            logger.warn("Serving " + client.getRemoteSocketAddress() + ": " + e);
+        } catch (RepositoryException e) {
+            logger.warn("Opening a connection: " + e);
+        } finally {
+            try {
+                if (conn != null)
+                    conn.close();
+            } catch (RepositoryException e) {
+                logger.warn("Closing a connection: " + e);
+            }
+            clients.remove(client);
+            try {
+                client.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public RequestHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Wait until the server is stopped.
+     */
+    public void join() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stop listening and drop the clients being served.
+     */
+    public void stop() throws IOException {
+        socket.close();
+        executor.shutdownNow();
+        synchronized (clients) {
+            for (Socket client : clients)
+                client.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import info.aduna.iteration.Iterations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+
+/**
+ *
+ * Knowledge base backed by a Sesame repository connection, optionally reading
+ * entity descriptions through a shared cache. Inferred statements are included.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class SesameKnowledgeBase implements KnowledgeBase {
+
+    private RepositoryConnection repo;
+    private EntityDescriptionCache cache;
+
+    public SesameKnowledgeBase(RepositoryConnection repo) {
+        this(repo, null);
+    }
+
+    public SesameKnowledgeBase(RepositoryConnection repo, EntityDescriptionCache cache) {
+        this.repo = repo;
+        this.cache = cache;
+    }
+
+    public RepositoryConnection getConnection() {
+        return repo;
+    }
+
+    public List<Statement> outgoing(Resource entity) throws RepositoryException {
+        if (cache != null)
+            return cache.outgoing(entity, repo);
+        return Collections.unmodifiableList(Iterations.asList(repo.getStatements(entity, null, null, true)));
+    }
+
+    public List<Statement> incoming(Value entity) throws RepositoryException {
+        if (cache != null)
+            return cache.incoming(entity, repo);
+        return Collections.unmodifiableList(Iterations.asList(repo.getStatements(null, null, entity, true)));
+    }
+
+    public List<Statement> outgoing(Resource entity, PredicateFilter filter) throws RepositoryException {
+        if (filter == null)
+            return outgoing(entity);
+        if (cache != null)
+            return filter(cache.outgoing(entity, repo), filter);
+        return filter(repo.getStatements(entity, null, null, true), filter);
+    }
+
+    public List<Statement> incoming(Value entity, PredicateFilter filter) throws RepositoryException {
+        if (filter == null)
+            return incoming(entity);
+        if (cache != null)
+            return filter(cache.incoming(entity, repo), filter);
+        return filter(repo.getStatements(null, null, entity, true), filter);
+    }
+
+    /**
+     * Keep the accepted statements while iterating, the rest are never
+     * collected.
+     */
+    private static List<Statement> filter(RepositoryResult<Statement> stmts, PredicateFilter filter)
+            throws RepositoryException {
+        List<Statement> result = new ArrayList<Statement>();
+        try {
+            while (stmts.hasNext()) {
+                Statement stmt = stmts.next();
+                if (filter.accept(stmt.getPredicate()))
+                    result.add(stmt);
+            }
+        } finally {
+            stmts.close();
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static List<Statement> filter(List<Statement> stmts, PredicateFilter filter) {
+        List<Statement> result = new ArrayList<Statement>(stmts.size());
+        for (Statement stmt : stmts)
+            if (filter.accept(stmt.getPredicate()))
+                result.add(stmt);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Statements are looked up one entity at a time.
+     */
+    public void prefetch(List<? extends Value> entities, PredicateFilter filter) throws RepositoryException {
+    }
+
+    public boolean contains(Resource subject, URI predicate, Value object) throws RepositoryException {
+        return repo.hasStatement(subject, predicate, object, true);
+    }
+
+    public List<Value> types(Resource entity) throws RepositoryException {
+        List<Value> result = new ArrayList<Value>();
+        RepositoryResult<Statement> types = repo.getStatements(entity, RDF.TYPE, null, true);
+        try {
+            while (types.hasNext())
+                result.add(types.next().getObject());
+        } finally {
+            types.close();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,251 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import info.aduna.iteration.Iterations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sparql.SPARQLRepository;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+/**
+ *
+ * Knowledge base over a SPARQL endpoint (or any connection answering SPARQL)
+ * that fetches the neighbourhoods of many entities at once: prefetch() groups
+ * the entities into VALUES blocks, one query for the outgoing and one for the
+ * incoming statements per batch, and splits the results back per entity.
+ * Entities not prefetched are fetched on first use, one batch of one.
+ *
+ * Public endpoints silently truncate large answers, so each query is read in
+ * pages of pageSize rows (LIMIT and OFFSET over a fixed order) until a short
+ * page comes back. The page size must not exceed the row limit of the
+ * endpoint.
+ *
+ * Keeps what it fetched, so it is meant to live for a single request. Not
+ * thread-safe.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class SparqlKnowledgeBase implements KnowledgeBase {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * The row limit of a default Virtuoso, as behind DBpedia.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 10000;
+
+    private RepositoryConnection repo;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    private Map<Value, List<Statement>> outgoing = new HashMap<Value, List<Statement>>();
+    private Map<Value, List<Statement>> incoming = new HashMap<Value, List<Statement>>();
+    private int queries = 0;
+
+    public SparqlKnowledgeBase(RepositoryConnection repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Whether the connection is to a remote SPARQL endpoint, where each
+     * statement lookup is a round-trip.
+     */
+    public static boolean isRemote(RepositoryConnection repo) {
+        return repo.getRepository() instanceof SPARQLRepository;
+    }
+
+    /**
+     * The knowledge base for the connection: batched SPARQL for remote
+     * endpoints, otherwise statement lookups through the cache (if not null).
+     */
+    public static KnowledgeBase forConnection(RepositoryConnection repo, EntityDescriptionCache cache) {
+        if (isRemote(repo))
+            return new SparqlKnowledgeBase(repo);
+        return new SesameKnowledgeBase(repo, cache);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Entities per VALUES block.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Rows asked for per query, at most the row limit of the endpoint.
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Number of queries sent so far, each page counted.
+     */
+    public int getQueries() {
+        return queries;
+    }
+
+    /**
+     * Fetch the outgoing and incoming statements of all the entities not
+     * fetched yet, batchSize entities per query. Blank nodes cannot be named
+     * in a query and are fetched when used.
+     */
+    public void prefetch(List<? extends Value> entities) throws RepositoryException {
+        prefetch(entities, null);
+    }
+
+    /**
+     * The whole neighbourhoods are fetched (and kept) whatever the filter,
+     * which is applied when reading them.
+     */
+    public void prefetch(List<? extends Value> entities, PredicateFilter filter) throws RepositoryException {
+        Set<Value> pending = new LinkedHashSet<Value>();
+        for (Value entity : entities)
+            if (!(entity instanceof BNode) && !incoming.containsKey(entity))
+                pending.add(entity);
+        List<Value> all = new ArrayList<Value>(pending);
+        for (int from = 0; from < all.size(); from += batchSize) {
+            List<Value> batch = all.subList(from, Math.min(all.size(), from + batchSize));
+            // kept only once both queries succeed, a failed batch is fetched
+            // again on use
+            Map<Value, List<Statement>> batchOutgoing = new HashMap<Value, List<Statement>>();
+            Map<Value, List<Statement>> batchIncoming = new HashMap<Value, List<Statement>>();
+            List<Value> resources = new ArrayList<Value>();
+            for (Value entity : batch) {
+                if (entity instanceof Resource) {
+                    batchOutgoing.put(entity, new ArrayList<Statement>());
+                    resources.add(entity);
+                }
+                batchIncoming.put(entity, new ArrayList<Statement>());
+            }
+            if (!resources.isEmpty())
+                query("s", resources, batchOutgoing);
+            query("o", batch, batchIncoming);
+            outgoing.putAll(batchOutgoing);
+            incoming.putAll(batchIncoming);
+        }
+    }
+
+    private void query(String variable, List<Value> entities, Map<Value, List<Statement>> result)
+            throws RepositoryException {
+        StringBuilder query = new StringBuilder("SELECT ?s ?p ?o WHERE { VALUES ?").append(variable).append(" {");
+        for (Value entity : entities)
+            query.append(' ').append(NTriplesUtil.toNTriplesString(entity));
+        query.append(" } ?s ?p ?o } ORDER BY ?s ?p ?o LIMIT ").append(pageSize).append(" OFFSET ");
+
+        ValueFactory f = repo.getValueFactory();
+        try {
+            for (long offset = 0;; offset += pageSize) {
+                queries++;
+                TupleQuery tupleQuery = repo.prepareTupleQuery(QueryLanguage.SPARQL, query.toString() + offset);
+                tupleQuery.setIncludeInferred(true);
+                TupleQueryResult rows = tupleQuery.evaluate();
+                int count = 0;
+                try {
+                    while (rows.hasNext()) {
+                        BindingSet row = rows.next();
+                        count++;
+                        Statement stmt = f.createStatement((Resource) row.getValue("s"), (URI) row.getValue("p"),
+                                row.getValue("o"));
+                        List<Statement> stmts = result.get(row.getValue(variable));
+                        if (stmts != null) // null for values the endpoint rewrote
+                            stmts.add(stmt);
+                    }
+                } finally {
+                    rows.close();
+                }
+                if (count < pageSize)
+                    break;
+            }
+        } catch (MalformedQueryException e) {
+            throw new RepositoryException(e);
+        } catch (QueryEvaluationException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    public List<Statement> outgoing(Resource entity) throws RepositoryException {
+        if (entity instanceof BNode)
+            return Collections.unmodifiableList(Iterations.asList(repo.getStatements(entity, null, null, true)));
+        if (!outgoing.containsKey(entity))
+            prefetch(Collections.singletonList(entity));
+        return Collections.unmodifiableList(outgoing.get(entity));
+    }
+
+    public List<Statement> incoming(Value entity) throws RepositoryException {
+        if (entity instanceof BNode)
+            return Collections.unmodifiableList(Iterations.asList(repo.getStatements(null, null, entity, true)));
+        if (!incoming.containsKey(entity))
+            prefetch(Collections.singletonList(entity));
+        return Collections.unmodifiableList(incoming.get(entity));
+    }
+
+    public List<Statement> outgoing(Resource entity, PredicateFilter filter) throws RepositoryException {
+        return filter(outgoing(entity), filter);
+    }
+
+    public List<Statement> incoming(Value entity, PredicateFilter filter) throws RepositoryException {
+        return filter(incoming(entity), filter);
+    }
+
+    private static List<Statement> filter(List<Statement> stmts, PredicateFilter filter) {
+        if (filter == null)
+            return stmts;
+        List<Statement> result = new ArrayList<Statement>(stmts.size());
+        for (Statement stmt : stmts)
+            if (filter.accept(stmt.getPredicate()))
+                result.add(stmt);
+        return Collections.unmodifiableList(result);
+    }
+
+    public boolean contains(Resource subject, URI predicate, Value object) throws RepositoryException {
+        return repo.hasStatement(subject, predicate, object, true);
+    }
+
+    /**
+     * From the outgoing statements, so asking for the types of the referent
+     * before building the context costs no extra query.
+     */
+    public List<Value> types(Resource entity) throws RepositoryException {
+        List<Value> result = new ArrayList<Value>();
+        for (Statement stmt : outgoing(entity))
+            if (stmt.getPredicate().equals(RDF.TYPE))
+                result.add(stmt.getObject());
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.File;
+
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.Sail;
+import org.openrdf.sail.memory.MemoryStore;
+import org.openrdf.sail.nativerdf.NativeStore;
+
+/**
+ *
+ * Creates the Sesame repositories the drivers run on: an in-memory store
+ * (optionally persisted to a folder) or a disk-based NativeStore for knowledge
+ * bases larger than the heap.
+ *
+ * The algorithms fetch both the outgoing and the incoming statements of each
+ * entity, so a NativeStore should have an index starting with the object (like
+ * ospc) in addition to the default spoc and posc.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class Stores {
+
+    public static final String MEMORY = "memory";
+    public static final String NATIVE = "native";
+
+    public static final String DEFAULT_INDEXES = "spoc,posc,ospc";
+
+    /**
+     * Create and initialize a repository.
+     *
+     * @param type
+     *            MEMORY or NATIVE.
+     * @param dataDir
+     *            folder for the data, required for NATIVE, if null a memory
+     *            store is not persisted.
+     * @param indexes
+     *            triple indexes for NATIVE, as in "spoc,posc,ospc", null for
+     *            DEFAULT_INDEXES.
+     */
+    public static Repository create(String type, File dataDir, String indexes) throws RepositoryException {
+        Sail sail;
+        if (type.equals(MEMORY)) {
+            sail = dataDir == null ? new MemoryStore() : new MemoryStore(dataDir);
+        } else if (type.equals(NATIVE)) {
+            if (dataDir == null)
+                throw new IllegalArgumentException("A native store needs a data folder");
+            sail = new NativeStore(dataDir, indexes == null ? DEFAULT_INDEXES : indexes);
+        } else
+            throw new IllegalArgumentException("Unknown store type '" + type + "'");
+
+        Repository result = new SailRepository(sail);
+        result.initialize();
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+/**
+ *
+ * Thread-safe dictionary assigning each RDF term a stable int id, starting at
+ * zero, and caching the local name of each URI. The algorithms key their
+ * internal structures on these ids (pairs of ids packed into a long with
+ * key()) instead of hashing Sesame values.
+ *
+ * Predicates get their ids through predicate(). The dictionary only grows. By
+ * default all algorithms share getDefault(); a long running process seeing
+ * unbounded sets of terms gives each request a dictionary of its own for the
+ * other terms instead, taking the predicate ids from the long-lived one, so the
+ * tables keyed on them (see PriorityTable) are built once (see
+ * AbstractReferringExpressionAlgorithm.withDictionaryPerRequest()).
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class TermDictionary {
+
+    private static final TermDictionary DEFAULT = new TermDictionary();
+
+    // the ids of a dictionary for the terms of a request start here, the
+    // ones below are predicate ids from the long-lived dictionary
+    private static final int REQUEST_BASE = 1 << 30;
+
+    // null if this one holds the predicates
+    private TermDictionary predicates = null;
+    private int base = 0;
+
+    private ConcurrentMap<Value, Integer> ids = new ConcurrentHashMap<Value, Integer>();
+
+    // written under the lock before the id is published in ids
+    private volatile Value[] terms = new Value[1024];
+    private volatile String[] localNames = new String[1024];
+    private int size = 0;
+
+    public TermDictionary() {
+    }
+
+    /**
+     * A dictionary for the terms of a request, taking the predicate ids from
+     * the long-lived dictionary (or the one it takes them from).
+     */
+    public TermDictionary(TermDictionary predicates) {
+        this.predicates = predicates.getPredicates();
+        this.base = REQUEST_BASE;
+    }
+
+    public static TermDictionary getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The dictionary the predicate ids come from, this one unless it is for a
+     * request.
+     */
+    public TermDictionary getPredicates() {
+        return predicates == null ? this : predicates;
+    }
+
+    /**
+     * The id for a term used as predicate, assigning a new one if needed.
+     */
+    public int predicate(URI predicate) {
+        return predicates == null ? id(predicate) : predicates.id(predicate);
+    }
+
+    /**
+     * The id for the term, assigning a new one if needed.
+     */
+    public int id(Value term) {
+        Integer result = ids.get(term);
+        if (result != null)
+            return result;
+        synchronized (this) {
+            result = ids.get(term);
+            if (result != null)
+                return result;
+            if (size == terms.length) {
+                terms = Arrays.copyOf(terms, size * 2);
+                localNames = Arrays.copyOf(localNames, size * 2);
+            }
+            terms[size] = term;
+            localNames[size] = term instanceof URI ? ((URI) term).getLocalName() : null;
+            result = base + size++;
+            ids.put(term, result);
+            return result;
+        }
+    }
+
+    /**
+     * The id for the term, or -1 if it has none.
+     */
+    public int lookup(Value term) {
+        Integer result = ids.get(term);
+        return result == null ? -1 : result;
+    }
+
+    public Value term(int id) {
+        return id < base ? predicates.term(id) : terms[id - base];
+    }
+
+    /**
+     * The cached local name of the URI with the given id, null for other terms.
+     */
+    public String localName(int id) {
+        return id < base ? predicates.localName(id) : localNames[id - base];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Pack two ids into a long key.
+     */
+    public static long key(int first, int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+
+    public static int first(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int second(long key) {
+        return (int) key;
+    }
+}
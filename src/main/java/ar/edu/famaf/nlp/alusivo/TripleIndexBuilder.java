@@ -0,0 +1,526 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import org.openrdf.model.Statement;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+/**
+ *
+ * Offline builder for the on-disk index read by MappedKnowledgeBase, for
+ * inputs larger than the heap. The input (an RDF file or a repository) is
+ * streamed twice. The first pass collects the distinct terms in sorted runs
+ * of at most runSize terms, merged into the term dictionary. The second one
+ * encodes the triples against the dictionary, in sorted runs of at most
+ * runSize triples, merged into the SPO order while spilling the OSP runs,
+ * which are merged in turn. The runs are temporary files in the index folder.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class TripleIndexBuilder {
+
+    /**
+     * Terms or triples kept in memory before spilling a run, about 200Mb of
+     * heap for the terms of DBpedia-like data.
+     */
+    public static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+    // recently encoded terms (predicates, types) skip the dictionary search
+    private static final int ID_CACHE_SIZE = 1 << 16;
+
+    private static class Options {
+
+        @Parameter(names = { "-rdf" }, description = "RDF statements in N-Triple format", required = true)
+        private String rdf;
+
+        @Parameter(names = { "-index" }, description = "Folder where to write the index", required = true)
+        private String index;
+
+        @Parameter(names = { "-runSize" }, description = "Terms or triples sorted in memory at a time")
+        private int runSize = DEFAULT_RUN_SIZE;
+    }
+
+    private int runSize;
+
+    public TripleIndexBuilder() {
+        this(DEFAULT_RUN_SIZE);
+    }
+
+    public TripleIndexBuilder(int runSize) {
+        if (runSize < 1 || runSize > Integer.MAX_VALUE / 3)
+            throw new IllegalArgumentException("Run size out of range: " + runSize);
+        this.runSize = runSize;
+    }
+
+    private abstract static class Pass extends RDFHandlerBase {
+        @Override
+        public void handleStatement(Statement stmt) throws RDFHandlerException {
+            try {
+                add(stmt);
+            } catch (IOException e) {
+                throw new RDFHandlerException(e);
+            }
+        }
+
+        public abstract void add(Statement stmt) throws IOException;
+    }
+
+    private class TermCollector extends Pass {
+        private File dir;
+        private TreeSet<String> terms = new TreeSet<String>();
+        private List<File> runs = new ArrayList<File>();
+
+        public TermCollector(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public void add(Statement stmt) throws IOException {
+            terms.add(NTriplesUtil.toNTriplesString(stmt.getSubject()));
+            terms.add(NTriplesUtil.toNTriplesString(stmt.getPredicate()));
+            terms.add(NTriplesUtil.toNTriplesString(stmt.getObject()));
+            if (terms.size() >= runSize)
+                spill();
+        }
+
+        private void spill() throws IOException {
+            File run = File.createTempFile("terms", ".run", dir);
+            runs.add(run);
+            DataOutputStream out = open(run);
+            try {
+                for (String term : terms) {
+                    byte[] bytes = term.getBytes(MappedKnowledgeBase.UTF8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            } finally {
+                out.close();
+            }
+            terms.clear();
+        }
+
+        /**
+         * Merge the runs into the dictionary files, dropping repeated terms.
+         */
+        public void finish() throws IOException {
+            spill();
+            PriorityQueue<TermRun> queue = new PriorityQueue<TermRun>();
+            DataOutputStream data = open(new File(dir, MappedKnowledgeBase.TERMS));
+            DataOutputStream offsets = open(new File(dir, MappedKnowledgeBase.TERM_OFFSETS));
+            try {
+                for (File run : runs) {
+                    TermRun termRun = new TermRun(run);
+                    if (termRun.next())
+                        queue.add(termRun);
+                }
+                long offset = 0;
+                String last = null;
+                while (!queue.isEmpty()) {
+                    TermRun head = queue.poll();
+                    if (!head.term.equals(last)) {
+                        last = head.term;
+                        offsets.writeLong(offset);
+                        data.write(head.bytes);
+                        offset += head.bytes.length;
+                    }
+                    if (head.next())
+                        queue.add(head);
+                }
+                offsets.writeLong(offset);
+            } finally {
+                data.close();
+                offsets.close();
+                for (TermRun run : queue)
+                    run.close();
+                delete(runs);
+            }
+        }
+    }
+
+    private static class TermRun implements Comparable<TermRun> {
+        private DataInputStream in;
+        private byte[] bytes;
+        private String term;
+
+        public TermRun(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        public boolean next() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+            bytes = new byte[length];
+            in.readFully(bytes);
+            term = new String(bytes, MappedKnowledgeBase.UTF8);
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+
+        public int compareTo(TermRun other) {
+            return term.compareTo(other.term);
+        }
+    }
+
+    private class TripleSorter extends Pass {
+        private File dir;
+        private MappedKnowledgeBase.Terms terms;
+        private Map<String, Integer> ids = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > ID_CACHE_SIZE;
+            }
+        };
+        private int[] triples = new int[3 * runSize];
+        private int size = 0;
+        private List<File> runs = new ArrayList<File>();
+
+        public TripleSorter(File dir) throws IOException {
+            this.dir = dir;
+            this.terms = new MappedKnowledgeBase.Terms(dir);
+        }
+
+        @Override
+        public void add(Statement stmt) throws IOException {
+            triples[3 * size] = id(NTriplesUtil.toNTriplesString(stmt.getSubject()));
+            triples[3 * size + 1] = id(NTriplesUtil.toNTriplesString(stmt.getPredicate()));
+            triples[3 * size + 2] = id(NTriplesUtil.toNTriplesString(stmt.getObject()));
+            size++;
+            if (size == runSize)
+                spill(runs);
+        }
+
+        private int id(String term) throws IOException {
+            Integer result = ids.get(term);
+            if (result == null) {
+                result = terms.id(term);
+                if (result < 0)
+                    throw new IOException("Input changed between passes, unknown term " + term);
+                ids.put(term, result);
+            }
+            return result;
+        }
+
+        private void spill(List<File> runs) throws IOException {
+            MemoryKnowledgeBase.sort(triples, 0, size);
+            size = MemoryKnowledgeBase.dedup(triples, size);
+            File run = File.createTempFile("triples", ".run", dir);
+            runs.add(run);
+            write(triples, size, run);
+            size = 0;
+        }
+
+        /**
+         * Merge the SPO runs into the SPO file, spilling the OSP runs along
+         * the way, then merge those.
+         */
+        public void finish() throws IOException {
+            spill(runs);
+            List<File> ospRuns = new ArrayList<File>();
+            try {
+                merge(runs, new File(dir, MappedKnowledgeBase.SPO), ospRuns);
+                if (size > 0)
+                    spill(ospRuns);
+                merge(ospRuns, new File(dir, MappedKnowledgeBase.OSP), null);
+            } finally {
+                delete(runs);
+                delete(ospRuns);
+            }
+        }
+
+        /**
+         * Merge the runs into the file, dropping repeated triples. If
+         * permuted is not null, the triples are also rotated into (o, s, p)
+         * and spilled as runs there.
+         */
+        private void merge(List<File> runs, File file, List<File> permuted) throws IOException {
+            PriorityQueue<TripleRun> queue = new PriorityQueue<TripleRun>();
+            DataOutputStream out = open(file);
+            try {
+                for (File run : runs) {
+                    TripleRun tripleRun = new TripleRun(run);
+                    if (tripleRun.next())
+                        queue.add(tripleRun);
+                }
+                TripleRun last = null;
+                int s = 0, p = 0, o = 0;
+                while (!queue.isEmpty()) {
+                    TripleRun head = queue.poll();
+                    if (last == null || head.s != s || head.p != p || head.o != o) {
+                        last = head;
+                        s = head.s;
+                        p = head.p;
+                        o = head.o;
+                        out.writeInt(s);
+                        out.writeInt(p);
+                        out.writeInt(o);
+                        if (permuted != null) {
+                            triples[3 * size] = o;
+                            triples[3 * size + 1] = s;
+                            triples[3 * size + 2] = p;
+                            size++;
+                            if (size == runSize)
+                                spill(permuted);
+                        }
+                    }
+                    if (head.next())
+                        queue.add(head);
+                }
+            } finally {
+                out.close();
+                for (TripleRun run : queue)
+                    run.close();
+            }
+        }
+    }
+
+    private static class TripleRun implements Comparable<TripleRun> {
+        private DataInputStream in;
+        private int s, p, o;
+
+        public TripleRun(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        public boolean next() throws IOException {
+            try {
+                s = in.readInt();
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+            p = in.readInt();
+            o = in.readInt();
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+
+        public int compareTo(TripleRun other) {
+            if (s != other.s)
+                return s < other.s ? -1 : 1;
+            if (p != other.p)
+                return p < other.p ? -1 : 1;
+            return o < other.o ? -1 : (o == other.o ? 0 : 1);
+        }
+    }
+
+    /**
+     * Build the index for an RDF file.
+     */
+    public static void build(File rdf, RDFFormat format, File dir) throws IOException, RDFParseException,
+            RDFHandlerException {
+        new TripleIndexBuilder().index(rdf, format, dir);
+    }
+
+    /**
+     * Build the index for the given statements, which are traversed twice.
+     */
+    public static void build(Iterable<? extends Statement> stmts, File dir) throws IOException {
+        new TripleIndexBuilder().index(stmts, dir);
+    }
+
+    /**
+     * Build the index for the explicit statements in the repository.
+     */
+    public static void build(RepositoryConnection repo, File dir) throws IOException, RepositoryException {
+        new TripleIndexBuilder().index(repo, dir);
+    }
+
+    public void index(File rdf, RDFFormat format, File dir) throws IOException, RDFParseException,
+            RDFHandlerException {
+        File staging = staging(dir);
+        try {
+            TermCollector collector = new TermCollector(staging);
+            parse(rdf, format, collector);
+            collector.finish();
+            TripleSorter sorter = new TripleSorter(staging);
+            parse(rdf, format, sorter);
+            sorter.finish();
+            install(staging, dir);
+        } finally {
+            remove(staging);
+        }
+    }
+
+    public void index(Iterable<? extends Statement> stmts, File dir) throws IOException {
+        File staging = staging(dir);
+        try {
+            TermCollector collector = new TermCollector(staging);
+            for (Statement stmt : stmts)
+                collector.add(stmt);
+            collector.finish();
+            TripleSorter sorter = new TripleSorter(staging);
+            for (Statement stmt : stmts)
+                sorter.add(stmt);
+            sorter.finish();
+            install(staging, dir);
+        } finally {
+            remove(staging);
+        }
+    }
+
+    public void index(RepositoryConnection repo, File dir) throws IOException, RepositoryException {
+        File staging = staging(dir);
+        try {
+            TermCollector collector = new TermCollector(staging);
+            scan(repo, collector);
+            collector.finish();
+            TripleSorter sorter = new TripleSorter(staging);
+            scan(repo, sorter);
+            sorter.finish();
+            install(staging, dir);
+        } finally {
+            remove(staging);
+        }
+    }
+
+    private static void scan(RepositoryConnection repo, Pass pass) throws IOException, RepositoryException {
+        RepositoryResult<Statement> stmts = repo.getStatements(null, null, null, false);
+        try {
+            while (stmts.hasNext())
+                pass.add(stmts.next());
+        } finally {
+            stmts.close();
+        }
+    }
+
+    private static void parse(File rdf, RDFFormat format, Pass pass) throws IOException, RDFParseException,
+            RDFHandlerException {
+        RDFParser parser = Rio.createParser(format);
+        parser.setRDFHandler(pass);
+        InputStream in = new FileInputStream(rdf);
+        try {
+            parser.parse(in, "http://localhost/");
+        } catch (RDFHandlerException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * An empty folder next to the index folder to write the new index into,
+     * so a half-written index never shows up where the old one was.
+     */
+    private static File staging(File dir) throws IOException {
+        File parent = dir.getAbsoluteFile().getParentFile();
+        mkdirs(parent);
+        File staging = File.createTempFile(dir.getName(), ".tmp", parent);
+        if (!staging.delete() || !staging.mkdir())
+            throw new IOException("Cannot create " + staging);
+        return staging;
+    }
+
+    /**
+     * Move the finished index in the staging folder into place, replacing
+     * any previous one.
+     */
+    private static void install(File staging, File dir) throws IOException {
+        File old = null;
+        if (dir.exists()) {
+            old = File.createTempFile(dir.getName(), ".old", staging.getParentFile());
+            if (!old.delete() || !dir.renameTo(old))
+                throw new IOException("Cannot move " + dir + " out of the way");
+        }
+        if (!staging.renameTo(dir)) {
+            if (old != null)
+                old.renameTo(dir);
+            throw new IOException("Cannot move " + staging + " to " + dir);
+        }
+        if (old != null)
+            remove(old);
+    }
+
+    private static void remove(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files)
+            file.delete();
+        dir.delete();
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+    }
+
+    private static void delete(List<File> files) {
+        for (File file : files)
+            file.delete();
+        files.clear();
+    }
+
+    private static void write(int[] triples, int size, File file) throws IOException {
+        DataOutputStream out = open(file);
+        try {
+            for (int i = 0; i < 3 * size; i++)
+                out.writeInt(triples[i]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static DataOutputStream open(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    public static void main(String[] args) throws IOException, RDFParseException, RDFHandlerException {
+        Options options = new Options();
+        new JCommander(options, args);
+
+        long start = System.currentTimeMillis();
+        new TripleIndexBuilder(options.runSize).index(new File(options.rdf), RDFFormat.NTRIPLES, new File(
+                options.index));
+        MappedKnowledgeBase kb = new MappedKnowledgeBase(new File(options.index));
+        System.out.println("Indexed " + kb.size() + " statements over " + kb.termCount() + " terms in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+}
@@ -3,7 +3,6 @@ package ar.edu.famaf.nlp.alusivo;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 
@@ -157,14 +156,20 @@ public class TypePriorities {
         dbPediaIgnored.put("http://dbpedia.org/ontology/Organisation", Arrays.asList(dbPediaOrganizationIgnored));
     }
 
+    /**
+     * @deprecated the algorithms compile the ignored predicates into a
+     *             PriorityTable and skip them by predicate id.
+     */
+    @Deprecated
     public static void cleanIgnored(List<Statement>stmts, Set<String>ignored) {
-	List<Integer>toDelete = new ArrayList<Integer>(stmts.size());
-	for(int i = 0; i < stmts.size(); i++) {
-	    if(ignored.contains(stmts.get(i).getPredicate().getLocalName()))
-		toDelete.add(i);
-	}
-	for(int i=toDelete.size() - 1; i >= 0; i--)
-	    stmts.remove(toDelete.get(i));
+        // compact in place, in one pass
+        int kept = 0;
+        for (int i = 0; i < stmts.size(); i++) {
+            Statement stmt = stmts.get(i);
+            if (!ignored.contains(stmt.getPredicate().getLocalName()))
+                stmts.set(kept++, stmt);
+        }
+        stmts.subList(kept, stmts.size()).clear();
     }
 
     private TypePriorities() {
@@ -0,0 +1,197 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Test case for the batch mode, answers in the order of the jobs.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class BatchTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(BatchTest.class);
+    }
+
+    public void testJobs() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI distance = f.createURI("http://alusivo/distance");
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            URI[] balls = new URI[] { f.createURI("http://alusivo/redmiddle"), f.createURI("http://alusivo/ballfar"),
+                    f.createURI("http://alusivo/redballclose") };
+            String[][] values = { { "red", "middle" }, { "black", "far" }, { "red", "close" } };
+            for (int i = 0; i < balls.length; i++) {
+                conn.add(balls[i], color, f.createLiteral(values[i][0]));
+                conn.add(balls[i], distance, f.createLiteral(values[i][1]));
+            }
+            // the first one gets its type from the job
+            conn.add(balls[1], RDF.TYPE, balltype);
+            conn.add(balls[2], RDF.TYPE, balltype);
+        } finally {
+            conn.close();
+        }
+
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "distance" }));
+        Map<String, ReferringExpressionAlgorithm> algorithms = new LinkedHashMap<String, ReferringExpressionAlgorithm>();
+        algorithms.put(DaleReiterAlgorithm.class.getName(), new DaleReiterAlgorithm(priorities, null));
+        RequestHandler handler = new RequestHandler(algorithms, DaleReiterAlgorithm.class.getName(),
+                new PriorityTable(priorities, null, TermDictionary.getDefault()), new ReferringExpressionCache());
+
+        StringBuilder jobs = new StringBuilder();
+        jobs.append("# two balls are red\n");
+        jobs.append("http://alusivo/redmiddle\thttp://alusivo/ballfar http://alusivo/redballclose\t"
+                + "http://alusivo/ball\tDaleReiterAlgorithm\n");
+        jobs.append("\n");
+        jobs.append("{\"id\": \"j\", \"referent\": \"http://alusivo/ballfar\","
+                + " \"confusors\": [\"http://alusivo/redmiddle\"]}\n");
+        jobs.append("http://alusivo/redmiddle\thttp://alusivo/ballfar\t\tUnknown\n");
+        for (int i = 0; i < 10; i++)
+            jobs.append("http://alusivo/redballclose\thttp://alusivo/redmiddle\n");
+
+        Batch batch = new Batch(handler, rep, 3);
+        batch.setWindow(2);
+        StringWriter out = new StringWriter();
+        try {
+            assertEquals(13, batch.run(new BufferedReader(new StringReader(jobs.toString())), out));
+        } finally {
+            rep.shutDown();
+        }
+
+        String[] answers = out.toString().split("\n");
+        assertEquals(13, answers.length);
+        assertTrue(answers[0], answers[0].startsWith("{\"id\":2,\"expression\":[{\"predicate\":\"" + color
+                + "\",\"object\":\"\\\"red\\\"\"},{\"predicate\":\"" + distance
+                + "\",\"object\":\"\\\"middle\\\"\"}],\"millis\":"));
+        assertTrue(answers[1], answers[1].startsWith("{\"id\":\"j\",\"expression\":"));
+        assertTrue(answers[2], answers[2].startsWith("{\"id\":5,\"error\":\"Unknown algorithm 'Unknown'\""));
+        for (int i = 0; i < 10; i++)
+            assertTrue(answers[3 + i], answers[3 + i].startsWith("{\"id\":" + (6 + i) + ",\"expression\":"));
+        assertEquals(1, handler.getErrors());
+    }
+
+    public void testWorkers() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI balltype = f.createURI("http://alusivo/ball");
+        String[] predicates = { "color", "distance", "size", "near" };
+        List<URI> balls = new ArrayList<URI>();
+        for (int i = 0; i < 12; i++)
+            balls.add(f.createURI("http://alusivo/ball" + i));
+        Random random = new Random(1);
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (URI ball : balls) {
+                conn.add(ball, RDF.TYPE, balltype);
+                for (String predicate : predicates)
+                    if (random.nextInt(3) > 0)
+                        conn.add(ball, f.createURI("http://alusivo/" + predicate), predicate.equals("near") ? balls
+                                .get(random.nextInt(balls.size())) : f.createLiteral("v" + random.nextInt(3)));
+            }
+        } finally {
+            conn.close();
+        }
+
+        // the same confusors in several orders, answers can depend on it
+        List<String> jobs = new ArrayList<String>();
+        for (String algorithm : new String[] { "GardentAlgorithm", "GraphAlgorithm" })
+            for (URI referent : balls)
+                for (int k = 0; k < 8; k++) {
+                    List<URI> confusors = new ArrayList<URI>(balls);
+                    confusors.remove(referent);
+                    Collections.shuffle(confusors, random);
+                    StringBuilder job = new StringBuilder();
+                    job.append("{\"id\": " + jobs.size() + ", \"referent\": \"" + referent + "\", \"confusors\": [");
+                    for (int i = 0; i < confusors.size(); i++)
+                        job.append(i == 0 ? "\"" : ", \"").append(confusors.get(i)).append('"');
+                    job.append("], \"algorithm\": \"" + algorithm + "\"}");
+                    jobs.add(job.toString());
+                }
+
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        List<String> ranked = new ArrayList<String>(Arrays.asList(predicates));
+        ranked.add(0, "type");
+        priorities.put(balltype.toString(), ranked);
+        try {
+            Map<String, String> one = answers(jobs, rep, priorities, 1);
+            assertEquals(jobs.size(), one.size());
+            assertEquals(one, answers(jobs, rep, priorities, 4));
+            // whichever job for a set of confusors comes first
+            List<String> reversed = new ArrayList<String>(jobs);
+            Collections.reverse(reversed);
+            assertEquals(one, answers(reversed, rep, priorities, 1));
+        } finally {
+            rep.shutDown();
+        }
+    }
+
+    /**
+     * The answers by id, without the time taken, with the algorithms set up
+     * as in Main.
+     */
+    private Map<String, String> answers(List<String> jobs, Repository rep, Map<String, List<String>> priorities,
+            int workers) throws Exception {
+        Map<String, ReferringExpressionAlgorithm> algorithms = new LinkedHashMap<String, ReferringExpressionAlgorithm>();
+        EntityDescriptionCache descriptions = new EntityDescriptionCache();
+        for (AbstractReferringExpressionAlgorithm algorithm : new AbstractReferringExpressionAlgorithm[] {
+                new GardentAlgorithm(priorities, null), new GraphAlgorithm(priorities, null) }) {
+            algorithm.setCache(descriptions);
+            algorithms.put(algorithm.getClass().getName(), algorithm.withDictionaryPerRequest());
+        }
+        RequestHandler handler = new RequestHandler(algorithms, GardentAlgorithm.class.getName(), new PriorityTable(
+                priorities, null, new TermDictionary()), new ReferringExpressionCache());
+        handler.setCache(descriptions);
+
+        StringBuilder in = new StringBuilder();
+        for (String job : jobs)
+            in.append(job).append('\n');
+        StringWriter out = new StringWriter();
+        new Batch(handler, rep, workers).run(new BufferedReader(new StringReader(in.toString())), out);
+
+        Map<String, String> result = new HashMap<String, String>();
+        Pattern id = Pattern.compile("^\\{\"id\":(\\d+),");
+        for (String answer : out.toString().split("\n")) {
+            Matcher m = id.matcher(answer);
+            assertTrue(answer, m.find());
+            result.put(m.group(1), answer.replaceAll(",\"millis\":\\d+", ""));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the early failure on indistinguishable chairs.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class BisimulationTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(BisimulationTest.class);
+    }
+
+    public void testChairs() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI chairtype = f.createURI("http://alusivo/chair");
+        URI color = f.createURI("http://alusivo/color");
+        URI on = f.createURI("http://alusivo/on");
+        URI[] chairs = new URI[6];
+        URI[] rugs = new URI[chairs.length];
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            // all chairs red but the last, each on its own rug
+            for (int i = 0; i < chairs.length; i++) {
+                chairs[i] = f.createURI("http://alusivo/chair" + i);
+                rugs[i] = f.createURI("http://alusivo/rug" + i);
+                conn.add(chairs[i], RDF.TYPE, chairtype);
+                conn.add(chairs[i], color, f.createLiteral(i == chairs.length - 1 ? "blue" : "red"));
+                conn.add(chairs[i], on, rugs[i]);
+            }
+            URI referent = chairs[0];
+            List<URI> confusors = new ArrayList<URI>(Arrays.asList(chairs).subList(1, chairs.length));
+            EntityContext context = EntityContext.build(referent, confusors, new SesameKnowledgeBase(conn));
+            TermDictionary dictionary = TermDictionary.getDefault();
+            List<URI> entities = new ArrayList<URI>(Arrays.asList(chairs));
+
+            // by structure, only the blue one is told apart
+            Bisimulation structural = Bisimulation.structural(context.statements(null), entities, dictionary);
+            assertEquals(confusors.subList(0, confusors.size() - 1),
+                    structural.indistinguishable(referent, confusors));
+            assertTrue(structural.equivalent(rugs[0], rugs[1]));
+            assertFalse(structural.equivalent(rugs[0], chairs[0]));
+
+            // naming the rugs tells them all apart
+            Bisimulation named = Bisimulation.named(context.statements(null), entities, dictionary);
+            assertTrue(named.indistinguishable(referent, confusors).isEmpty());
+            assertEquals(2, named.getRounds());
+
+            long start = System.currentTimeMillis();
+            try {
+                new GraphAlgorithm(null, null, 10000L).resolve(context);
+                fail("Expected an exception");
+            } catch (IndistinguishableException e) {
+                assertEquals(referent, e.getReferent());
+                assertEquals(confusors.subList(0, confusors.size() - 1), e.getConfusors());
+            }
+            assertTrue(System.currentTimeMillis() - start < 10000L);
+
+            // without the rugs the red chairs are the same for Dale and Reiter
+            // too
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(chairtype.toString(), Arrays.asList(new String[] { "type", "color" }));
+            Map<String, List<String>> ignored = new HashMap<String, List<String>>();
+            ignored.put(chairtype.toString(), Arrays.asList(new String[] { "on" }));
+            try {
+                new DaleReiterAlgorithm(priorities, ignored).resolve(context);
+                fail("Expected an exception");
+            } catch (IndistinguishableException e) {
+                assertEquals(confusors.subList(0, confusors.size() - 1), e.getConfusors());
+            }
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+/**
+ *
+ * Size and write/read time of a stream of three-predicate expressions with
+ * the binary codec, Java serialization (reset per object, as when the
+ * expressions are sent one by one) and toString. Not run as part of the
+ * tests.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class CodecBenchmark {
+
+    private static class Options {
+
+        @Parameter(names = { "-expressions" }, description = "Number of expressions in the stream")
+        private int expressions = 200000;
+
+        @Parameter(names = { "-rounds" }, description = "Rounds, the first one is a warm-up")
+        private int rounds = 3;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        new JCommander(options, args);
+
+        List<ReferringExpression> refExps = expressions(options.expressions);
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        for (int round = 0; round < options.rounds; round++) {
+            System.out.println(round == 0 ? "warm-up" : "round " + round);
+
+            long start = System.nanoTime();
+            ByteArrayOutputStream codec = new ByteArrayOutputStream();
+            ReferringExpressionCodec.Writer writer = new ReferringExpressionCodec.Writer(codec);
+            for (ReferringExpression r : refExps)
+                writer.write(r);
+            writer.close();
+            long write = System.nanoTime() - start;
+            start = System.nanoTime();
+            ReferringExpressionCodec.Reader reader = new ReferringExpressionCodec.Reader(new ByteArrayInputStream(
+                    codec.toByteArray()), f);
+            while (reader.read() != null)
+                ;
+            reader.close();
+            print("codec", codec.size(), write, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(serialized);
+            for (ReferringExpression r : refExps) {
+                oos.writeObject(r);
+                oos.reset();
+            }
+            oos.close();
+            write = System.nanoTime() - start;
+            start = System.nanoTime();
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray()));
+            for (int i = 0; i < refExps.size(); i++)
+                ois.readObject();
+            ois.close();
+            print("Java ser.", serialized.size(), write, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long text = 0;
+            for (ReferringExpression r : refExps)
+                text += r.toString().getBytes("UTF-8").length;
+            print("toString", text, System.nanoTime() - start, -1);
+        }
+    }
+
+    private static void print(String name, long bytes, long write, long read) {
+        System.out.println(String.format("  %-10s %8.1f MB  write %8.1f ms  read %8s", name, bytes / 1e6,
+                write / 1e6, read < 0 ? "-" : String.format("%.1f ms", read / 1e6)));
+    }
+
+    private static List<ReferringExpression> expressions(int count) {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI person = f.createURI("http://dbpedia.org/ontology/Person");
+        URI country = f.createURI("http://dbpedia.org/ontology/country");
+        URI year = f.createURI("http://dbpedia.org/ontology/activeYearsStartYear");
+        List<ReferringExpression> result = new ArrayList<ReferringExpression>(count);
+        for (int i = 0; i < count; i++) {
+            URI referent = f.createURI("http://dbpedia.org/resource/Person_" + i);
+            ReferringExpression r = new ReferringExpression(referent);
+            r.addPositive(referent, RDF.TYPE, person);
+            r.addPositive(referent, country, f.createURI("http://dbpedia.org/resource/Country_" + (i % 100)));
+            r.addPositive(referent, year, f.createLiteral(String.valueOf(1900 + i % 100), XMLSchema.GYEAR));
+            result.add(r);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the grouping of identical chairs.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ConfusorClassesTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(ConfusorClassesTest.class);
+    }
+
+    public void testChairs() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI chairtype = f.createURI("http://alusivo/chair");
+        URI color = f.createURI("http://alusivo/color");
+        URI serial = f.createURI("http://alusivo/serial");
+        URI[] chairs = new URI[10];
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < chairs.length; i++) {
+                chairs[i] = f.createURI("http://alusivo/chair" + i);
+                conn.add(chairs[i], RDF.TYPE, chairtype);
+                // the referent is the only green one, the others are red or
+                // blue
+                conn.add(chairs[i], color, f.createLiteral(i == 0 ? "green" : i % 2 == 0 ? "red" : "blue"));
+                conn.add(chairs[i], serial, f.createLiteral("s" + i));
+            }
+            URI referent = chairs[0];
+            List<URI> confusors = new ArrayList<URI>(Arrays.asList(chairs).subList(1, chairs.length));
+            confusors.add(chairs[3]);
+            EntityContext context = EntityContext.build(referent, confusors, new SesameKnowledgeBase(conn));
+
+            // only color and type matter: two classes
+            ConfusorClasses classes = ConfusorClasses.byOutgoing(context,
+                    new HashSet<URI>(Arrays.asList(RDF.TYPE, color)), TermDictionary.getDefault());
+            assertEquals(Arrays.asList(chairs[1], chairs[2]), classes.getRepresentatives());
+            assertEquals(chairs[1], classes.representativeOf(chairs[9]));
+            assertEquals(Arrays.asList(chairs[1], chairs[3], chairs[5], chairs[7], chairs[9], chairs[3]),
+                    classes.expand(Collections.singletonList(chairs[1])));
+
+            // the serial tells them all apart, but the repeated one
+            classes = ConfusorClasses.byDescription(context, null, TermDictionary.getDefault());
+            assertEquals(chairs.length - 1, classes.getRepresentatives().size());
+
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(chairtype.toString(), Arrays.asList(new String[] { "type", "color" }));
+            ReferringExpression r = new DaleReiterAlgorithm(priorities, null).resolve(context);
+            assertEquals(1, r.predicates().size());
+            assertEquals(color, r.predicates().get(0).getPredicate());
+
+            // without the color, all left over, the repeated one too
+            priorities.put(chairtype.toString(), Arrays.asList(new String[] { "type" }));
+            try {
+                new DaleReiterAlgorithm(priorities, null).resolve(context);
+                fail("Expected an exception");
+            } catch (IndistinguishableException e) {
+                assertEquals(confusors, e.getConfusors());
+            }
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -80,4 +81,64 @@ public class DaleReiterAlgorithmTest extends TestCase {
         }
 
     }
+
+    public void testIndex() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+
+        ValueFactory f = rep.getValueFactory();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI size = f.createURI("http://alusivo/size");
+        URI material = f.createURI("http://alusivo/material");
+        Random random = new Random(5);
+        URI[] balls = new URI[3000];
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < balls.length; i++) {
+                balls[i] = f.createURI("http://alusivo/ball" + i);
+                conn.add(balls[i], RDF.TYPE, balltype);
+                conn.add(balls[i], color, f.createLiteral("c" + random.nextInt(4)));
+                conn.add(balls[i], size, f.createLiteral("s" + random.nextInt(6)));
+                if (random.nextBoolean())
+                    conn.add(balls[i], material, f.createLiteral("m" + random.nextInt(20)));
+            }
+
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "size", "material" }));
+            DaleReiterAlgorithm plain = new DaleReiterAlgorithm(priorities, null);
+            DaleReiterAlgorithm indexed = new DaleReiterAlgorithm(priorities, null);
+            indexed.setIndex(InvertedIndex.build(conn, indexed.getDictionary()));
+
+            for (int r = 0; r < 20; r++) {
+                URI referent = balls[random.nextInt(balls.length)];
+                List<URI> confusors = new ArrayList<URI>();
+                for (int i = 0; i < 10; i++)
+                    confusors.add(balls[random.nextInt(balls.length)]);
+                confusors.remove(referent);
+                String expected;
+                try {
+                    expected = plain.resolve(referent, confusors, conn).toString();
+                } catch (ReferringExpressionException e) {
+                    expected = e.getMessage();
+                }
+                String actual;
+                try {
+                    actual = indexed.resolve(referent, confusors, conn).toString();
+                } catch (ReferringExpressionException e) {
+                    actual = e.getMessage();
+                }
+                assertEquals(expected, actual);
+            }
+
+            try {
+                plain.setIndex(InvertedIndex.build(conn, new TermDictionary()));
+                fail("Expected an exception");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            conn.close();
+        }
+    }
 }
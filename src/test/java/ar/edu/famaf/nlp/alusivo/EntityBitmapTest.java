@@ -0,0 +1,79 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * Checks the compressed bitmaps against plain sets, over both container
+ * kinds.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class EntityBitmapTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(EntityBitmapTest.class);
+    }
+
+    private static void check(Set<Integer> expected, EntityBitmap actual) {
+        assertEquals(expected.size(), actual.cardinality());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        int[] ids = actual.toArray();
+        int i = 0;
+        for (int id : expected) {
+            assertEquals(id, ids[i++]);
+            assertTrue(actual.contains(id));
+        }
+    }
+
+    public void testOperations() throws Exception {
+        Random random = new Random(7);
+        // sparse and dense, so arrays and bitmaps meet in each operation
+        int[][] shapes = new int[][] { { 100, 200000 }, { 20000, 70000 }, { 60000, 65536 * 3 } };
+        for (int[] a : shapes)
+            for (int[] b : shapes) {
+                Set<Integer> setA = new TreeSet<Integer>();
+                Set<Integer> setB = new TreeSet<Integer>();
+                EntityBitmap bitmapA = new EntityBitmap();
+                EntityBitmap bitmapB = new EntityBitmap();
+                for (int i = 0; i < a[0]; i++) {
+                    int id = random.nextInt(a[1]);
+                    setA.add(id);
+                    bitmapA.add(id);
+                }
+                for (int i = 0; i < b[0]; i++) {
+                    int id = random.nextInt(b[1]);
+                    setB.add(id);
+                    bitmapB.add(id);
+                }
+                check(setA, bitmapA);
+                check(setB, bitmapB);
+
+                Set<Integer> and = new TreeSet<Integer>(setA);
+                and.retainAll(setB);
+                check(and, bitmapA.and(bitmapB));
+                Set<Integer> andNot = new TreeSet<Integer>(setA);
+                andNot.removeAll(setB);
+                check(andNot, bitmapA.andNot(bitmapB));
+
+                // the arguments are untouched
+                check(setA, bitmapA);
+                check(setB, bitmapB);
+            }
+        assertFalse(EntityBitmap.of(1, 2).contains(3));
+        assertEquals(EntityBitmap.of(3, 1), EntityBitmap.of(1, 3));
+        assertTrue(EntityBitmap.of(1, 2).andNot(EntityBitmap.of(2, 1)).isEmpty());
+    }
+}
@@ -0,0 +1,199 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.repository.event.base.NotifyingRepositoryConnectionWrapper;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Test case for the shared entity description cache.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class EntityDescriptionCacheTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(EntityDescriptionCacheTest.class);
+    }
+
+    public void testReadThrough() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+
+        ValueFactory f = rep.getValueFactory();
+
+        List<URI> confusors = new ArrayList<URI>();
+        URI confusor1 = f.createURI("http://alusivo/ballfar");
+        URI confusor2 = f.createURI("http://alusivo/redballclose");
+        confusors.add(confusor1);
+        confusors.add(confusor2);
+        URI referent = f.createURI("http://alusivo/redmiddle");
+
+        NotifyingRepositoryConnectionWrapper conn = new NotifyingRepositoryConnectionWrapper(rep,
+                rep.getConnection());
+        EntityDescriptionCache cache = new EntityDescriptionCache();
+        conn.addRepositoryConnectionListener(cache.invalidationListener());
+        try {
+            URI balltype = f.createURI("http://alusivo/ball");
+            URI color = f.createURI("http://alusivo/color");
+            URI distance = f.createURI("http://alusivo/distance");
+            conn.add(new StatementImpl(referent, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(confusor1, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(confusor2, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(referent, color, f.createLiteral("red")));
+            conn.add(new StatementImpl(confusor1, color, f.createLiteral("black")));
+            conn.add(new StatementImpl(confusor2, color, f.createLiteral("red")));
+            conn.add(new StatementImpl(referent, distance, f.createLiteral("middle")));
+            conn.add(new StatementImpl(confusor1, distance, f.createLiteral("far")));
+            conn.add(new StatementImpl(confusor2, distance, f.createLiteral("close")));
+
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "distance" }));
+
+            DaleReiterAlgorithm algorithm = new DaleReiterAlgorithm(priorities, null);
+            algorithm.setCache(cache);
+            ReferringExpression r = algorithm.resolve(referent, confusors, conn);
+            assertEquals(2, r.predicates().size());
+            assertEquals(0, cache.getHits());
+            assertEquals(6, cache.getMisses());
+
+            GardentAlgorithm gardent = new GardentAlgorithm(priorities, null);
+            gardent.setCache(cache);
+            gardent.resolve(referent, confusors, conn);
+            assertEquals(6, cache.getHits());
+
+            // the listener drops confusor1, the referent stays cached
+            conn.add(new StatementImpl(confusor1, color, f.createLiteral("red")));
+            assertEquals(4, cache.size());
+            r = algorithm.resolve(referent, confusors, conn);
+            assertEquals(1, r.predicates().size());
+            assertEquals(distance, r.predicates().get(0).getPredicate());
+            assertEquals(8, cache.getMisses());
+
+            cache.invalidateAll();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.getWeight());
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testEviction() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI color = f.createURI("http://alusivo/color");
+
+        EntityDescriptionCache cache = new EntityDescriptionCache(2000);
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < 100; i++) {
+                URI ball = f.createURI("http://alusivo/ball" + i);
+                conn.add(new StatementImpl(ball, color, f.createLiteral("red")));
+                assertEquals(1, cache.outgoing(ball, conn).size());
+                assertTrue(cache.getWeight() <= 2000);
+            }
+            assertTrue(cache.getEvictions() > 0);
+            assertTrue(cache.size() < 100);
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testConcurrentChanges() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI color = f.createURI("http://alusivo/color");
+        final URI ball = f.createURI("http://alusivo/ball");
+        final EntityDescriptionCache cache = new EntityDescriptionCache();
+
+        // the entity changes while its statements are being read
+        RepositoryConnection conn = new RepositoryConnectionWrapper(rep, rep.getConnection()) {
+            @Override
+            public RepositoryResult<Statement> getStatements(Resource subj, URI pred, Value obj,
+                    boolean includeInferred, Resource... contexts) throws RepositoryException {
+                RepositoryResult<Statement> result = super.getStatements(subj, pred, obj, includeInferred, contexts);
+                cache.invalidate(ball);
+                return result;
+            }
+        };
+        try {
+            conn.add(new StatementImpl(ball, color, f.createLiteral("red")));
+            assertEquals(1, cache.outgoing(ball, conn).size());
+            assertEquals(0, cache.size());
+        } finally {
+            conn.close();
+        }
+
+        // uncommitted changes are neither cached nor served from the cache
+        conn = rep.getConnection();
+        try {
+            assertEquals(1, cache.outgoing(ball, conn).size());
+            assertEquals(1, cache.size());
+            conn.begin();
+            conn.add(new StatementImpl(ball, color, f.createLiteral("blue")));
+            assertEquals(2, cache.outgoing(ball, conn).size());
+            conn.rollback();
+            assertEquals(1, cache.outgoing(ball, conn).size());
+            assertEquals(1, cache.getHits());
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testCommit() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI color = f.createURI("http://alusivo/color");
+        URI ball = f.createURI("http://alusivo/ball");
+
+        EntityDescriptionCache cache = new EntityDescriptionCache();
+        NotifyingRepositoryConnectionWrapper conn = new NotifyingRepositoryConnectionWrapper(rep,
+                rep.getConnection());
+        conn.addRepositoryConnectionListener(cache.invalidationListener());
+        RepositoryConnection reader = rep.getConnection();
+        try {
+            conn.add(ball, color, f.createLiteral("red"));
+            conn.begin();
+            conn.add(ball, color, f.createLiteral("black"));
+            // read before the change is visible to other connections
+            assertEquals(1, cache.outgoing(ball, reader).size());
+            conn.commit();
+            assertEquals(2, cache.outgoing(ball, reader).size());
+        } finally {
+            reader.close();
+            conn.close();
+            rep.shutDown();
+        }
+    }
+}
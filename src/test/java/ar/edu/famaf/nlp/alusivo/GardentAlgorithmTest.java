@@ -18,6 +18,7 @@ import junit.framework.TestSuite;
 import org.openrdf.model.URI;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
@@ -90,4 +91,36 @@ public class GardentAlgorithmTest extends TestCase {
         }
 
     }
+
+    public void testIncomingPairs() throws Exception {
+        // two identical chairs in the same room: the incoming 'contains'
+        // statements give each chair a pair of its own, (contains, chair)
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI chairtype = f.createURI("http://alusivo/chair");
+        URI color = f.createURI("http://alusivo/color");
+        URI contains = f.createURI("http://alusivo/contains");
+        URI room = f.createURI("http://alusivo/room1");
+        URI[] chairs = new URI[] { f.createURI("http://alusivo/chair1"), f.createURI("http://alusivo/chair2") };
+        MemoryKnowledgeBase.Builder builder = new MemoryKnowledgeBase.Builder();
+        for (URI chair : chairs) {
+            builder.add(new StatementImpl(chair, RDF.TYPE, chairtype));
+            builder.add(new StatementImpl(chair, color, f.createLiteral("red")));
+            builder.add(new StatementImpl(room, contains, chair));
+        }
+        EntityContext context = EntityContext.build(chairs[0], Arrays.asList(chairs[1]), builder.build());
+
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put(chairtype.toString(), Arrays.asList(new String[] { "type", "color", "contains" }));
+        ReferringExpression r = new GardentAlgorithm(priorities, null).resolve(context);
+        assertEquals(1, r.predicates().size());
+        assertEquals(contains, r.predicates().get(0).getPredicate());
+
+        // Dale and Reiter only rule out by outgoing statements
+        try {
+            new DaleReiterAlgorithm(priorities, null).resolve(context);
+            fail("Expected an exception");
+        } catch (IndistinguishableException e) {
+            assertEquals(Arrays.asList(chairs[1]), e.getConfusors());
+        }
+    }
 }
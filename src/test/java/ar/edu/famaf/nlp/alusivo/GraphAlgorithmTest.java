@@ -7,17 +7,21 @@ package ar.edu.famaf.nlp.alusivo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
 import org.openrdf.model.URI;
+import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.sail.SailRepository;
@@ -138,4 +142,49 @@ public class GraphAlgorithmTest extends TestCase {
         }
 
     }
+
+    public void testDictionaryOrder() throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI referent = f.createURI("http://alusivo/b1");
+        URI confusor = f.createURI("http://alusivo/b2");
+        URI attr = f.createURI("http://alusivo/attr");
+        // any of the values alone is a cheapest description
+        List<Value> values = new ArrayList<Value>();
+        MemoryKnowledgeBase.Builder builder = new MemoryKnowledgeBase.Builder();
+        for (int i = 0; i < 5; i++) {
+            values.add(f.createLiteral("v" + i));
+            builder.add(new StatementImpl(referent, attr, values.get(i)));
+        }
+        builder.add(new StatementImpl(confusor, attr, f.createLiteral("other")));
+        KnowledgeBase kb = builder.build();
+
+        GraphAlgorithm algorithm = new GraphAlgorithm(null, null);
+        String expected = null;
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            // same terms, other ids
+            TermDictionary dictionary = new TermDictionary();
+            for (int j = random.nextInt(100); j > 0; j--)
+                dictionary.id(f.createLiteral("filler" + j));
+            Collections.shuffle(values, random);
+            for (Value value : values)
+                dictionary.id(value);
+            ReferringExpression r = algorithm.withDictionary(dictionary).resolve(
+                    EntityContext.build(referent, Arrays.asList(confusor), kb, null));
+            if (expected == null)
+                expected = r.toString();
+            assertEquals(expected, r.toString());
+        }
+        assertTrue(expected, expected.contains("v0"));
+
+        // only the predicates of the request stay in the default dictionary
+        ReferringExpression r = algorithm.withDictionaryPerRequest().resolve(
+                EntityContext.build(referent, Arrays.asList(confusor), kb, null));
+        assertEquals(expected, r.toString());
+        for (Value value : values)
+            assertEquals(-1, TermDictionary.getDefault().lookup(value));
+        assertEquals(-1, TermDictionary.getDefault().lookup(f.createLiteral("other")));
+        assertEquals(-1, TermDictionary.getDefault().lookup(confusor));
+        assertTrue(TermDictionary.getDefault().lookup(attr) >= 0);
+    }
 }
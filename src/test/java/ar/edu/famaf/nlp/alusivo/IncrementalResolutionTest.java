@@ -0,0 +1,146 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+/**
+ *
+ * Test case for keeping an expression up to date as confusors come and go.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class IncrementalResolutionTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(IncrementalResolutionTest.class);
+    }
+
+    public void testTurns() throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI distance = f.createURI("http://alusivo/distance");
+        URI referent = f.createURI("http://alusivo/redmiddle");
+        URI ballfar = f.createURI("http://alusivo/ballfar");
+        URI redclose = f.createURI("http://alusivo/redballclose");
+        URI twin = f.createURI("http://alusivo/redmiddletwin");
+
+        MemoryKnowledgeBase.Builder builder = new MemoryKnowledgeBase.Builder();
+        for (URI ball : new URI[] { referent, ballfar, redclose, twin })
+            builder.add(ball, RDF.TYPE, balltype);
+        builder.add(referent, color, f.createLiteral("red"));
+        builder.add(ballfar, color, f.createLiteral("black"));
+        builder.add(redclose, color, f.createLiteral("red"));
+        builder.add(twin, color, f.createLiteral("red"));
+        builder.add(referent, distance, f.createLiteral("middle"));
+        builder.add(ballfar, distance, f.createLiteral("far"));
+        builder.add(redclose, distance, f.createLiteral("close"));
+        builder.add(twin, distance, f.createLiteral("middle"));
+        MemoryKnowledgeBase kb = builder.build();
+
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "distance" }));
+        DaleReiterAlgorithm algorithm = new DaleReiterAlgorithm(priorities, null);
+
+        EntityContext context = EntityContext.build(referent, Collections.singletonList(ballfar), kb);
+        ReferringExpression r = algorithm.resolve(context);
+        assertEquals(1, r.predicates().size());
+        IncrementalResolution incremental = algorithm.incremental(r, context);
+        List<URI> none = Collections.emptyList();
+
+        // the red ball close needs the distance too, as resolving anew
+        r = incremental.update(Collections.singletonList(redclose), none, kb, null);
+        assertEquals(Arrays.asList(ballfar, redclose), incremental.getContext().getConfusors());
+        assertEquals(algorithm.resolve(incremental.getContext()).toString(), r.toString());
+
+        // without the black ball the color is not needed any more
+        r = incremental.update(none, Collections.singletonList(ballfar), kb, null);
+        assertEquals(1, r.predicates().size());
+        assertEquals(distance, r.predicates().get(0).getPredicate());
+        List<URI> candidates = new ArrayList<URI>(incremental.getContext().getConfusors());
+        candidates.add(referent);
+        assertEquals(Collections.singletonList(referent),
+                Resolver.resolve(r, candidates, incremental.getContext()));
+
+        // nothing rules out the twin
+        try {
+            incremental.update(Collections.singletonList(twin), none, kb, null);
+            fail("Expected an exception");
+        } catch (ReferringExpressionException e) {
+            assertEquals(Collections.singletonList(twin), incremental.getRemaining());
+        }
+
+        // and once it leaves the expression is back
+        r = incremental.update(none, Collections.singletonList(twin), kb, null);
+        assertTrue(incremental.getRemaining().isEmpty());
+        assertEquals(1, r.predicates().size());
+    }
+
+    public void testContextUpdate() throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI color = f.createURI("http://alusivo/color");
+        URI near = f.createURI("http://alusivo/near");
+        URI referent = f.createURI("http://alusivo/redmiddle");
+        URI ballfar = f.createURI("http://alusivo/ballfar");
+        URI redclose = f.createURI("http://alusivo/redballclose");
+
+        MemoryKnowledgeBase.Builder builder = new MemoryKnowledgeBase.Builder();
+        builder.add(referent, color, f.createLiteral("red"));
+        builder.add(ballfar, color, f.createLiteral("black"));
+        builder.add(redclose, color, f.createLiteral("red"));
+        // shared by the descriptions of both confusors
+        builder.add(ballfar, near, redclose);
+        MemoryKnowledgeBase kb = builder.build();
+        List<URI> none = Collections.emptyList();
+
+        EntityContext context = EntityContext.build(referent, Collections.singletonList(ballfar), kb);
+        EntityContext view = context.withConfusors(Collections.singletonList(ballfar));
+        EntityContext updated = context.update(Collections.singletonList(redclose), none, kb, null);
+        try {
+            context.outgoing(referent);
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // views share the indexes, they go stale too
+        try {
+            view.hasEntity(redclose);
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // a view of the updated context is current
+        assertTrue(updated.withConfusors(Collections.singletonList(redclose)).hasEntity(redclose));
+        updated = updated.update(none, Collections.singletonList(ballfar), kb, null);
+        assertEquals(Collections.singletonList(redclose), updated.getConfusors());
+        assertFalse(updated.hasEntity(ballfar));
+        // the statement shared with the remaining confusor stays
+        assertTrue(updated.contains(ballfar, near, redclose));
+        assertFalse(updated.contains(ballfar, color, f.createLiteral("black")));
+
+        EntityContext built = EntityContext.build(referent, Collections.singletonList(redclose), kb);
+        assertEquals(new HashSet<Statement>(built.statements(null)), new HashSet<Statement>(updated.statements(null)));
+        assertEquals(built.predicates(), updated.predicates());
+    }
+}
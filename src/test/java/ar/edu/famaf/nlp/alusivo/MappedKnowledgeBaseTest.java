@@ -0,0 +1,268 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.Rio;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the memory-mapped index against the in-memory knowledge base.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class MappedKnowledgeBaseTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(MappedKnowledgeBaseTest.class);
+    }
+
+    private File dir;
+    private URI[] balls;
+    private URI nextTo;
+    private List<Statement> stmts;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("alusivo", "index");
+        dir.delete();
+
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI size = f.createURI("http://alusivo/size");
+        nextTo = f.createURI("http://alusivo/next_to");
+        balls = new URI[50];
+        stmts = new ArrayList<Statement>();
+        Random random = new Random(42);
+        Value[] colors = new Value[] { f.createLiteral("red"), f.createLiteral("rojo", "es"),
+                f.createLiteral("azul \"claro\"", "es"), f.createLiteral("café") };
+        for (int i = 0; i < balls.length; i++) {
+            balls[i] = f.createURI("http://alusivo/ball" + i);
+            stmts.add(new StatementImpl(balls[i], RDF.TYPE, balltype));
+            stmts.add(new StatementImpl(balls[i], color, colors[random.nextInt(colors.length)]));
+            stmts.add(new StatementImpl(balls[i], size, f.createLiteral(String.valueOf(i % 3), XMLSchema.INT)));
+        }
+        for (int i = 0; i < 200; i++)
+            stmts.add(new StatementImpl(balls[random.nextInt(balls.length)], nextTo, balls[random
+                    .nextInt(balls.length)]));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    private void check(MappedKnowledgeBase mapped) throws Exception {
+        MemoryKnowledgeBase kb = new MemoryKnowledgeBase.Builder().addAll(stmts).build();
+        assertEquals(kb.size(), mapped.size());
+
+        for (URI ball : balls) {
+            assertEquals(new HashSet<Statement>(kb.outgoing(ball)), new HashSet<Statement>(mapped.outgoing(ball)));
+            assertEquals(new HashSet<Statement>(kb.incoming(ball)), new HashSet<Statement>(mapped.incoming(ball)));
+            assertEquals(kb.types(ball), mapped.types(ball));
+            for (URI other : new URI[] { balls[0], balls[1], null }) {
+                assertEquals(kb.contains(ball, nextTo, other), mapped.contains(ball, nextTo, other));
+                assertEquals(kb.contains(ball, null, other), mapped.contains(ball, null, other));
+                assertEquals(kb.contains(null, nextTo, other), mapped.contains(null, nextTo, other));
+            }
+        }
+        for (Statement stmt : stmts) {
+            assertTrue(mapped.contains(stmt.getSubject(), stmt.getPredicate(), stmt.getObject()));
+            assertEquals(stmt.getObject(), mapped.term(mapped.id(stmt.getObject())));
+        }
+        // statements with filtered predicates are skipped
+        PredicateFilter filter = new PredicateFilter() {
+            public boolean accept(URI predicate) {
+                return !predicate.equals(nextTo);
+            }
+        };
+        for (URI ball : balls) {
+            List<Statement> expected = new ArrayList<Statement>();
+            for (Statement stmt : kb.outgoing(ball))
+                if (filter.accept(stmt.getPredicate()))
+                    expected.add(stmt);
+            assertEquals(expected, kb.outgoing(ball, filter));
+            assertEquals(new HashSet<Statement>(expected), new HashSet<Statement>(mapped.outgoing(ball, filter)));
+            assertTrue(kb.incoming(ball, filter).isEmpty());
+            assertTrue(mapped.incoming(ball, filter).isEmpty());
+        }
+        URI unknown = ValueFactoryImpl.getInstance().createURI("http://alusivo/unknown");
+        assertFalse(mapped.contains(null, unknown, null));
+        assertTrue(mapped.outgoing(unknown).isEmpty());
+        assertTrue(mapped.contains(null, null, null));
+    }
+
+    public void testFromStatements() throws Exception {
+        TripleIndexBuilder.build(stmts, dir);
+        check(new MappedKnowledgeBase(dir));
+    }
+
+    public void testSmallRuns() throws Exception {
+        // many runs for terms and for both triple orders, repeated
+        // statements across runs included
+        List<Statement> repeated = new ArrayList<Statement>(stmts);
+        repeated.addAll(stmts.subList(0, 100));
+        new TripleIndexBuilder(7).index(repeated, dir);
+        check(new MappedKnowledgeBase(dir));
+        // only the index is left behind
+        assertEquals(4, dir.listFiles().length);
+    }
+
+    public void testFailedRebuild() throws Exception {
+        TripleIndexBuilder.build(stmts, dir);
+        // breaks on the second pass, with the terms already written
+        Iterable<Statement> broken = new Iterable<Statement>() {
+            private int passes = 0;
+
+            public Iterator<Statement> iterator() {
+                if (++passes == 2)
+                    throw new IllegalStateException("Gone");
+                return stmts.subList(0, 10).iterator();
+            }
+        };
+        try {
+            TripleIndexBuilder.build(broken, dir);
+            fail("Expected the rebuild to fail");
+        } catch (IllegalStateException e) {
+            // the old index is untouched
+        }
+        check(new MappedKnowledgeBase(dir));
+        assertEquals(0, siblings().size());
+
+        TripleIndexBuilder.build(stmts.subList(0, 10), dir);
+        assertEquals(10, new MappedKnowledgeBase(dir).size());
+        assertEquals(4, dir.listFiles().length);
+        assertEquals(0, siblings().size());
+    }
+
+    /**
+     * Staging folders left next to the index.
+     */
+    private List<String> siblings() {
+        List<String> result = new ArrayList<String>();
+        for (String name : dir.getAbsoluteFile().getParentFile().list())
+            if (name.startsWith(dir.getName()) && !name.equals(dir.getName()))
+                result.add(name);
+        return result;
+    }
+
+    public void testFromFile() throws Exception {
+        File rdf = File.createTempFile("alusivo", ".nt");
+        try {
+            write(rdf);
+            TripleIndexBuilder.build(rdf, RDFFormat.NTRIPLES, dir);
+            check(new MappedKnowledgeBase(dir));
+        } finally {
+            rdf.delete();
+        }
+    }
+
+    public void testFromRepository() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            conn.add(stmts);
+            TripleIndexBuilder.build(conn, dir);
+        } finally {
+            conn.close();
+        }
+        assertTrue(MappedKnowledgeBase.exists(dir));
+        MappedKnowledgeBase mapped = new MappedKnowledgeBase(dir);
+        check(mapped);
+
+        // extra type on top of the snapshot
+        URI special = ValueFactoryImpl.getInstance().createURI("http://alusivo/special");
+        KnowledgeBase kb = new OverlayKnowledgeBase(mapped, Collections.<Statement> singletonList(new StatementImpl(
+                balls[0], RDF.TYPE, special)));
+        assertEquals(mapped.types(balls[0]).size() + 1, kb.types(balls[0]).size());
+        assertTrue(kb.types(balls[0]).contains(special));
+        assertTrue(kb.contains(null, RDF.TYPE, special));
+        assertEquals(1, kb.incoming(special).size());
+        assertEquals(mapped.outgoing(balls[0]).size() + 1, kb.outgoing(balls[0]).size());
+        assertEquals(mapped.outgoing(balls[1]), kb.outgoing(balls[1]));
+    }
+
+    private void write(File rdf) throws IOException {
+        FileOutputStream out = new FileOutputStream(rdf);
+        try {
+            Rio.write(stmts, out, RDFFormat.NTRIPLES);
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void testSameAnswerAsRepository() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI referent = f.createURI("http://alusivo/twocolors");
+        URI confusor = f.createURI("http://alusivo/blue");
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            conn.add(referent, RDF.TYPE, balltype);
+            conn.add(confusor, RDF.TYPE, balltype);
+            // either color rules the confusor out, the repository returns
+            // them in this order and the snapshot by term id
+            conn.add(referent, color, f.createLiteral("zred"));
+            conn.add(referent, color, f.createLiteral("agreen"));
+            conn.add(confusor, color, f.createLiteral("blue"));
+            TripleIndexBuilder.build(conn, dir);
+
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color" }));
+            DaleReiterAlgorithm algorithm = new DaleReiterAlgorithm(priorities, null);
+            List<URI> confusors = Collections.singletonList(confusor);
+            ReferringExpression overRepository = algorithm.resolve(referent, confusors, conn);
+            ReferringExpression overSnapshot = algorithm.resolve(EntityContext.build(referent, confusors,
+                    new MappedKnowledgeBase(dir)));
+            assertEquals(1, overRepository.predicates().size());
+            assertEquals(overRepository.toString(), overSnapshot.toString());
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+}
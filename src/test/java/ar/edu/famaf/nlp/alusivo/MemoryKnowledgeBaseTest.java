@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import info.aduna.iteration.Iterations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the in-memory knowledge base against the Sesame adapter.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class MemoryKnowledgeBaseTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(MemoryKnowledgeBaseTest.class);
+    }
+
+    public void testSameAsSesame() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI nextTo = f.createURI("http://alusivo/next_to");
+        URI[] balls = new URI[50];
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            Random random = new Random(42);
+            for (int i = 0; i < balls.length; i++) {
+                balls[i] = f.createURI("http://alusivo/ball" + i);
+                conn.add(balls[i], RDF.TYPE, balltype);
+                conn.add(balls[i], color, f.createLiteral("color" + random.nextInt(5)));
+            }
+            for (int i = 0; i < 200; i++)
+                conn.add(balls[random.nextInt(balls.length)], nextTo, balls[random.nextInt(balls.length)]);
+
+            MemoryKnowledgeBase kb = new MemoryKnowledgeBase.Builder().addAll(
+                    Iterations.asList(conn.getStatements(null, null, null, false))).build();
+            SesameKnowledgeBase sesame = new SesameKnowledgeBase(conn);
+            assertEquals(conn.size(), kb.size());
+
+            for (URI ball : balls) {
+                assertEquals(new HashSet<Statement>(sesame.outgoing(ball)), new HashSet<Statement>(kb.outgoing(ball)));
+                assertEquals(new HashSet<Statement>(sesame.incoming(ball)), new HashSet<Statement>(kb.incoming(ball)));
+                assertEquals(sesame.types(ball), kb.types(ball));
+                for (URI other : new URI[] { balls[0], balls[1], null }) {
+                    assertEquals(sesame.contains(ball, nextTo, other), kb.contains(ball, nextTo, other));
+                    assertEquals(sesame.contains(ball, null, other), kb.contains(ball, null, other));
+                    assertEquals(sesame.contains(null, nextTo, other), kb.contains(null, nextTo, other));
+                }
+            }
+            assertFalse(kb.contains(null, f.createURI("http://alusivo/unknown"), null));
+            assertTrue(kb.contains(null, null, null));
+
+            // an algorithm runs the same over either knowledge base
+            List<URI> confusors = new ArrayList<URI>(Arrays.asList(balls).subList(1, 10));
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "next_to" }));
+            GardentAlgorithm algorithm = new GardentAlgorithm(priorities, null);
+            String fromSesame = algorithm.resolve(EntityContext.build(balls[0], confusors, sesame)).toString();
+            String fromMemory = algorithm.resolve(EntityContext.build(balls[0], confusors, kb)).toString();
+            assertEquals(fromSesame, fromMemory);
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testSort() throws Exception {
+        Random random = new Random(7);
+        int n = 5000;
+        int[] triples = new int[3 * n];
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < 3; k++)
+                triples[3 * i + k] = random.nextInt(20);
+            expected.add(String.format("%02d %02d %02d", triples[3 * i], triples[3 * i + 1], triples[3 * i + 2]));
+        }
+        MemoryKnowledgeBase.sort(triples, 0, n);
+        Collections.sort(expected);
+        for (int i = 0; i < n; i++)
+            assertEquals(expected.get(i),
+                    String.format("%02d %02d %02d", triples[3 * i], triples[3 * i + 1], triples[3 * i + 2]));
+        assertEquals(new HashSet<String>(expected).size(), MemoryKnowledgeBase.dedup(triples, n));
+    }
+}
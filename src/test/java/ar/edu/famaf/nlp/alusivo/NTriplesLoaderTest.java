@@ -0,0 +1,189 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import info.aduna.iteration.Iterations;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.Model;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.Rio;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the streaming loader against a plain Rio parse.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class NTriplesLoaderTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(NTriplesLoaderTest.class);
+    }
+
+    private String ntriples(int n) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            result.append("<http://alusivo/ball" + i + "> <http://alusivo/color> \"color" + (i % 7) + "\"@en .\n");
+            result.append("<http://alusivo/ball" + i + "> <http://alusivo/next_to> <http://alusivo/ball"
+                    + ((i * 13) % n) + "> .\n");
+            // blank nodes shared across chunks
+            result.append("_:group" + (i % 5) + " <http://alusivo/member> <http://alusivo/ball" + i + "> .\n");
+            if (i % 10 == 0)
+                result.append("# comment\n\n");
+        }
+        return result.toString();
+    }
+
+    private RepositoryConnection connection() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        return rep.getConnection();
+    }
+
+    public void testSameAsRio() throws Exception {
+        String text = ntriples(300);
+        Model expected = Rio.parse(new ByteArrayInputStream(text.getBytes("UTF-8")), "http://localhost/",
+                RDFFormat.NTRIPLES);
+
+        RepositoryConnection conn = connection();
+        try {
+            NTriplesLoader loader = new NTriplesLoader(conn);
+            loader.setThreads(4);
+            loader.setChunkLines(7);
+            loader.setBatchSize(100);
+            assertEquals(expected.size(), loader.load(new ByteArrayInputStream(text.getBytes("UTF-8"))));
+            assertEquals(expected.size(), conn.size());
+            assertEquals(new HashSet<String>(text(expected)), new HashSet<String>(text(Iterations.asList(conn
+                    .getStatements(null, null, null, false)))));
+
+            // five blank nodes, shared across chunks
+            assertEquals(5, countSubjects(Iterations.asList(conn.getStatements(null, null, null, false)), "member"));
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testSmallInternCache() throws Exception {
+        // 300 balls, many more than the cache holds
+        String text = ntriples(300);
+        Model expected = Rio.parse(new ByteArrayInputStream(text.getBytes("UTF-8")), "http://localhost/",
+                RDFFormat.NTRIPLES);
+
+        RepositoryConnection conn = connection();
+        try {
+            NTriplesLoader loader = new NTriplesLoader(conn);
+            loader.setThreads(4);
+            loader.setChunkLines(7);
+            loader.setInternSize(16);
+            assertEquals(expected.size(), loader.load(new ByteArrayInputStream(text.getBytes("UTF-8"))));
+            assertEquals(new HashSet<String>(text(expected)), new HashSet<String>(text(Iterations.asList(conn
+                    .getStatements(null, null, null, false)))));
+            assertEquals(5, countSubjects(Iterations.asList(conn.getStatements(null, null, null, false)), "member"));
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testSameOrderAsModel() throws Exception {
+        String text = ntriples(300);
+        Model model = Rio.parse(new ByteArrayInputStream(text.getBytes("UTF-8")), "http://localhost/",
+                RDFFormat.NTRIPLES);
+
+        RepositoryConnection plain = connection();
+        RepositoryConnection conn = connection();
+        try {
+            plain.add(model);
+            NTriplesLoader loader = new NTriplesLoader(conn);
+            loader.setThreads(4);
+            loader.setChunkLines(7);
+            loader.load(new ByteArrayInputStream(text.getBytes("UTF-8")));
+            assertEquals(text(Iterations.asList(plain.getStatements(null, null, null, false))),
+                    text(Iterations.asList(conn.getStatements(null, null, null, false))));
+        } finally {
+            plain.close();
+            conn.close();
+        }
+    }
+
+    private List<String> text(Iterable<Statement> stmts) {
+        List<String> result = new ArrayList<String>();
+        for (Statement stmt : stmts)
+            if (stmt.getSubject() instanceof URI)
+                result.add(stmt.toString());
+        return result;
+    }
+
+    private int countSubjects(List<Statement> stmts, String predicate) {
+        Set<Resource> subjects = new HashSet<Resource>();
+        for (Statement stmt : stmts)
+            if (stmt.getPredicate().getLocalName().equals(predicate))
+                subjects.add(stmt.getSubject());
+        return subjects.size();
+    }
+
+    public void testParseError() throws Exception {
+        String text = ntriples(20) + "<http://alusivo/broken> <http://alusivo/color> .\n";
+        RepositoryConnection conn = connection();
+        try {
+            NTriplesLoader loader = new NTriplesLoader(conn);
+            loader.setChunkLines(10);
+            loader.load(new ByteArrayInputStream(text.getBytes("UTF-8")));
+            fail("Expected a parse error");
+        } catch (RDFParseException e) {
+            assertEquals(ntriples(20).split("\n", -1).length, e.getLineNumber());
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testCallerTransaction() throws Exception {
+        String text = ntriples(20);
+        RepositoryConnection conn = connection();
+        try {
+            NTriplesLoader loader = new NTriplesLoader(conn);
+            loader.setChunkLines(10);
+            loader.setBatchSize(7);
+            conn.begin();
+            long loaded = loader.load(new ByteArrayInputStream(text.getBytes("UTF-8")));
+            // neither committed nor rolled back
+            assertTrue(conn.isActive());
+            conn.commit();
+            assertEquals(loaded, conn.size());
+
+            // a failed load is undone by the caller as a whole
+            conn.begin();
+            try {
+                loader.load(new ByteArrayInputStream((ntriples(30) + "<http://alusivo/broken> .\n").getBytes("UTF-8")));
+                fail("Expected a parse error");
+            } catch (RDFParseException e) {
+                assertTrue(conn.isActive());
+                conn.rollback();
+            }
+            assertEquals(loaded, conn.size());
+        } finally {
+            conn.close();
+        }
+    }
+}
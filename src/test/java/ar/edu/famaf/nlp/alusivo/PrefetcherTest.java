@@ -0,0 +1,176 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.repository.base.RepositoryWrapper;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the concurrent prefetch gives the same contexts and expressions as
+ * fetching sequentially, over a native store.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class PrefetcherTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(PrefetcherTest.class);
+    }
+
+    public void testSameAsSequential() throws Exception {
+        File dir = File.createTempFile("alusivo", "native");
+        dir.delete();
+        Repository rep = Stores.create(Stores.NATIVE, dir, Stores.DEFAULT_INDEXES);
+        Prefetcher prefetcher = new Prefetcher(4);
+        try {
+            ValueFactory f = rep.getValueFactory();
+            URI balltype = f.createURI("http://alusivo/ball");
+            URI color = f.createURI("http://alusivo/color");
+            URI size = f.createURI("http://alusivo/size");
+            URI nextTo = f.createURI("http://alusivo/next_to");
+            Random random = new Random(3);
+            List<URI> balls = new ArrayList<URI>();
+            RepositoryConnection conn = rep.getConnection();
+            try {
+                for (int i = 0; i < 100; i++) {
+                    URI ball = f.createURI("http://alusivo/ball" + i);
+                    balls.add(ball);
+                    conn.add(ball, RDF.TYPE, balltype);
+                    conn.add(ball, color, f.createLiteral("c" + random.nextInt(3)));
+                    conn.add(ball, size, f.createLiteral("s" + random.nextInt(3)));
+                }
+                for (int i = 0; i < 300; i++)
+                    conn.add(balls.get(random.nextInt(balls.size())), nextTo, balls.get(random.nextInt(balls.size())));
+
+                URI referent = balls.get(0);
+                List<URI> confusors = balls.subList(1, 30);
+                EntityContext sequential = EntityContext.build(referent, confusors, new SesameKnowledgeBase(conn));
+                EntityContext prefetched = EntityContext.build(referent, confusors,
+                        prefetcher.knowledgeBase(conn, null));
+                for (URI ball : balls.subList(0, 30)) {
+                    assertEquals(sequential.outgoing(ball), prefetched.outgoing(ball));
+                    assertEquals(sequential.incoming(ball), prefetched.incoming(ball));
+                }
+
+                Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+                priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "size", "next_to" }));
+                DaleReiterAlgorithm algorithm = new DaleReiterAlgorithm(priorities, null);
+                String expected;
+                try {
+                    expected = algorithm.resolve(referent, confusors, conn).toString();
+                } catch (ReferringExpressionException e) {
+                    expected = e.getMessage();
+                }
+                algorithm.setPrefetcher(prefetcher);
+                String actual;
+                try {
+                    actual = algorithm.resolve(referent, confusors, conn).toString();
+                } catch (ReferringExpressionException e) {
+                    actual = e.getMessage();
+                }
+                assertEquals(expected, actual);
+
+                // uncommitted changes are only seen by this connection
+                conn.begin();
+                try {
+                    URI extra = f.createURI("http://alusivo/extra");
+                    conn.add(balls.get(1), extra, f.createLiteral("yes"));
+                    KnowledgeBase kb = prefetcher.knowledgeBase(conn, null);
+                    kb.prefetch(balls.subList(0, 5), null);
+                    assertTrue(kb.contains(balls.get(1), extra, null));
+                    assertEquals(sequential.outgoing(balls.get(1)).size() + 1, kb.outgoing(balls.get(1)).size());
+                } finally {
+                    conn.rollback();
+                }
+            } finally {
+                conn.close();
+            }
+        } finally {
+            prefetcher.shutdown();
+            rep.shutDown();
+            delete(dir);
+        }
+    }
+
+    public void testPooledAndFiltered() throws Exception {
+        final AtomicInteger opened = new AtomicInteger();
+        Repository rep = new RepositoryWrapper(new SailRepository(new MemoryStore())) {
+            @Override
+            public RepositoryConnection getConnection() throws RepositoryException {
+                opened.incrementAndGet();
+                return new RepositoryConnectionWrapper(this, super.getConnection());
+            }
+        };
+        rep.initialize();
+        Prefetcher prefetcher = new Prefetcher(3);
+        ValueFactory f = rep.getValueFactory();
+        final URI color = f.createURI("http://alusivo/color");
+        URI nextTo = f.createURI("http://alusivo/next_to");
+        List<URI> balls = new ArrayList<URI>();
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < 20; i++) {
+                URI ball = f.createURI("http://alusivo/ball" + i);
+                balls.add(ball);
+                conn.add(ball, color, f.createLiteral("c" + i % 3));
+                if (i > 0)
+                    conn.add(ball, nextTo, balls.get(i - 1));
+            }
+            PredicateFilter noColor = new PredicateFilter() {
+                public boolean accept(URI predicate) {
+                    return !predicate.equals(color);
+                }
+            };
+            EntityContext sequential = EntityContext.build(balls.get(0), balls.subList(1, 20),
+                    new SesameKnowledgeBase(conn), noColor);
+            for (int round = 0; round < 5; round++) {
+                EntityContext prefetched = EntityContext.build(balls.get(0), balls.subList(1, 20),
+                        prefetcher.knowledgeBase(conn, null), noColor);
+                for (URI ball : balls) {
+                    assertEquals(sequential.outgoing(ball), prefetched.outgoing(ball));
+                    assertEquals(sequential.incoming(ball), prefetched.incoming(ball));
+                }
+            }
+            // the first connection plus at most the pool
+            assertTrue(String.valueOf(opened.get()), opened.get() <= 1 + 3);
+        } finally {
+            conn.close();
+            prefetcher.shutdown();
+            rep.shutDown();
+        }
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+}
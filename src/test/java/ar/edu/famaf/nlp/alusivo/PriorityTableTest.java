@@ -0,0 +1,125 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the compiled priorities.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class PriorityTableTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(PriorityTableTest.class);
+    }
+
+    public void testRanks() throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put("http://alusivo/ball", new ArrayList<String>(Arrays.asList("type", "color", "size")));
+        Map<String, List<String>> ignored = new HashMap<String, List<String>>();
+        ignored.put("http://alusivo/ball", Arrays.asList("weight"));
+        ignored.put("http://alusivo/cube", Arrays.asList("color"));
+        TermDictionary dictionary = new TermDictionary();
+        PriorityTable table = new PriorityTable(priorities, ignored, dictionary);
+
+        // the compiled table does not see later changes
+        priorities.get("http://alusivo/ball").add("shape");
+
+        List<Value> types = new ArrayList<Value>();
+        types.add(f.createURI("http://alusivo/cube"));
+        assertNull(table.forTypes(types));
+        types.add(f.createURI("http://alusivo/ball"));
+        PriorityTable.Ranks ranks = table.forTypes(types);
+        assertEquals("http://alusivo/ball", ranks.getType());
+        assertEquals(3, ranks.getPriorities().size());
+
+        URI size = f.createURI("http://alusivo/size");
+        URI otherColor = f.createURI("http://example.org/color");
+        URI weight = f.createURI("http://alusivo/weight");
+        URI shape = f.createURI("http://alusivo/shape");
+        // a big id, to grow the table
+        for (int i = 0; i < 5000; i++)
+            dictionary.id(f.createLiteral(i));
+        assertEquals(2, ranks.rank(dictionary.id(size)));
+        assertEquals(1, ranks.rank(dictionary.id(otherColor)));
+        assertEquals(PriorityTable.UNRANKED, ranks.rank(dictionary.id(weight)));
+        assertEquals(PriorityTable.UNRANKED, ranks.rank(dictionary.id(shape)));
+        assertTrue(ranks.isIgnored(dictionary.id(weight)));
+        assertFalse(ranks.isIgnored(dictionary.id(size)));
+        assertFalse(ranks.isUnknown("weight"));
+        assertTrue(ranks.isUnknown("shape"));
+
+        // over another dictionary the ids differ
+        TermDictionary other = new TermDictionary();
+        PriorityTable.Ranks otherRanks = table.withDictionary(other).forTypes(types);
+        assertEquals(2, otherRanks.rank(other.id(size)));
+        assertTrue(otherRanks.isIgnored(other.id(weight)));
+    }
+
+    public void testFilter() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI ball = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI weight = f.createURI("http://alusivo/weight");
+        URI[] balls = new URI[3];
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < balls.length; i++) {
+                balls[i] = f.createURI("http://alusivo/ball" + i);
+                conn.add(balls[i], RDF.TYPE, ball);
+                conn.add(balls[i], color, f.createLiteral(i == 0 ? "red" : "blue"));
+                conn.add(balls[i], weight, f.createLiteral(i));
+            }
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(ball.stringValue(), Arrays.asList("type", "color"));
+            Map<String, List<String>> ignored = new HashMap<String, List<String>>();
+            ignored.put(ball.stringValue(), Arrays.asList("weight"));
+            PriorityTable table = new PriorityTable(priorities, ignored, TermDictionary.getDefault());
+
+            KnowledgeBase kb = new SesameKnowledgeBase(conn);
+            PriorityTable.Ranks ranks = table.forEntity(balls[0], kb);
+            assertNotNull(ranks);
+            List<URI> confusors = Arrays.asList(balls[1], balls[2]);
+            EntityContext context = EntityContext.build(balls[0], confusors, kb, ranks);
+            assertTrue(context.statementsWith(weight).isEmpty());
+            assertEquals(3, context.statementsWith(color).size());
+            assertEquals(2, context.outgoing(balls[0]).size());
+
+            // weight alone would tell the balls apart, but it is ignored
+            ReferringExpression expr = new GardentAlgorithm(priorities, ignored).resolve(balls[0], confusors, conn);
+            assertTrue(expr.toString().contains("color"));
+            assertFalse(expr.toString().contains("weight"));
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.event.base.NotifyingRepositoryConnectionWrapper;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Test case for the cache of resolved expressions.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ReferringExpressionCacheTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(ReferringExpressionCacheTest.class);
+    }
+
+    public void testInvalidation() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+
+        ValueFactory f = rep.getValueFactory();
+
+        List<URI> confusors = new ArrayList<URI>();
+        URI confusor1 = f.createURI("http://alusivo/ballfar");
+        URI confusor2 = f.createURI("http://alusivo/redballclose");
+        confusors.add(confusor1);
+        confusors.add(confusor2);
+        URI referent = f.createURI("http://alusivo/redmiddle");
+        URI other = f.createURI("http://alusivo/other");
+
+        NotifyingRepositoryConnectionWrapper conn = new NotifyingRepositoryConnectionWrapper(rep,
+                rep.getConnection());
+        ReferringExpressionCache cache = new ReferringExpressionCache();
+        conn.addRepositoryConnectionListener(cache.invalidationListener());
+        try {
+            URI balltype = f.createURI("http://alusivo/ball");
+            URI color = f.createURI("http://alusivo/color");
+            URI distance = f.createURI("http://alusivo/distance");
+            conn.add(new StatementImpl(referent, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(confusor1, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(confusor2, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(referent, color, f.createLiteral("red")));
+            conn.add(new StatementImpl(confusor1, color, f.createLiteral("black")));
+            conn.add(new StatementImpl(confusor2, color, f.createLiteral("red")));
+            conn.add(new StatementImpl(referent, distance, f.createLiteral("middle")));
+            conn.add(new StatementImpl(confusor1, distance, f.createLiteral("far")));
+            conn.add(new StatementImpl(confusor2, distance, f.createLiteral("close")));
+
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "distance" }));
+
+            ReferringExpressionAlgorithm algorithm = cache.wrap(new DaleReiterAlgorithm(priorities, null),
+                    "dale-reiter");
+            ReferringExpression r = algorithm.resolve(referent, confusors, conn);
+            assertEquals(2, r.predicates().size());
+            assertEquals(1, cache.getMisses());
+
+            // same confusors in another order
+            List<URI> reversed = new ArrayList<URI>(confusors);
+            Collections.reverse(reversed);
+            assertSame(r, algorithm.resolve(referent, reversed, conn));
+            assertEquals(1, cache.getHits());
+
+            // another configuration is another entry
+            ReferringExpressionAlgorithm gardent = cache.wrap(new GardentAlgorithm(priorities, null), "gardent");
+            gardent.resolve(referent, confusors, conn);
+            assertEquals(2, cache.size());
+
+            // changes to unrelated entities keep the results
+            conn.add(new StatementImpl(other, color, f.createLiteral("red")));
+            assertEquals(2, cache.size());
+            assertSame(r, cache.get("dale-reiter", referent, confusors));
+
+            // changes to a confusor drop both
+            conn.add(new StatementImpl(confusor1, color, f.createLiteral("red")));
+            assertEquals(0, cache.size());
+            assertEquals(2, cache.getInvalidations());
+            r = algorithm.resolve(referent, confusors, conn);
+            assertEquals(1, r.predicates().size());
+            assertEquals(distance, r.predicates().get(0).getPredicate());
+
+            cache.invalidateAll();
+            assertEquals(0, cache.size());
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testEviction() throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+
+        List<URI> balls = new ArrayList<URI>();
+        for (int i = 0; i < 20; i++)
+            balls.add(f.createURI("http://alusivo/ball" + i));
+        MemoryKnowledgeBase.Builder builder = new MemoryKnowledgeBase.Builder();
+        for (int i = 0; i < balls.size(); i++) {
+            builder.add(balls.get(i), RDF.TYPE, balltype);
+            builder.add(balls.get(i), color, f.createLiteral("color" + i));
+        }
+        MemoryKnowledgeBase kb = builder.build();
+
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color" }));
+        ReferringExpressionCache cache = new ReferringExpressionCache(5);
+        ReferringExpressionAlgorithm algorithm = cache.wrap(new DaleReiterAlgorithm(priorities, null),
+                "dale-reiter");
+        for (URI ball : balls) {
+            List<URI> confusors = new ArrayList<URI>(balls);
+            confusors.remove(ball);
+            algorithm.resolve(EntityContext.build(ball, confusors, kb));
+            assertTrue(cache.size() <= 5);
+        }
+        assertEquals(15, cache.getEvictions());
+    }
+
+    public void testInFlight() throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        final URI referent = f.createURI("http://alusivo/redmiddle");
+        final URI confusor = f.createURI("http://alusivo/ballfar");
+        URI other = f.createURI("http://alusivo/other");
+        final List<URI> confusors = Collections.singletonList(confusor);
+        final ReferringExpressionCache cache = new ReferringExpressionCache();
+        final Value[] changing = new Value[1];
+        ReferringExpressionAlgorithm algorithm = cache.wrap(new ReferringExpressionAlgorithm() {
+            public ReferringExpression resolve(URI referent, List<URI> confusors, RepositoryConnection repo) {
+                return null;
+            }
+
+            public ReferringExpression resolve(EntityContext context) {
+                // the repository changes while resolving
+                cache.invalidate(changing[0]);
+                return new ReferringExpression(context.getReferent());
+            }
+        }, "stub");
+        MemoryKnowledgeBase kb = new MemoryKnowledgeBase.Builder().build();
+
+        // a change to an unrelated entity keeps the result
+        changing[0] = other;
+        algorithm.resolve(EntityContext.build(referent, confusors, kb));
+        assertNotNull(cache.get("stub", referent, confusors));
+
+        // a change to an entity it depends on drops it
+        cache.invalidateAll();
+        changing[0] = confusor;
+        algorithm.resolve(EntityContext.build(referent, confusors, kb));
+        assertNull(cache.get("stub", referent, confusors));
+        changing[0] = referent;
+        algorithm.resolve(EntityContext.build(referent, confusors, kb));
+        assertNull(cache.get("stub", referent, confusors));
+    }
+
+    public void testCommit() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI referent = f.createURI("http://alusivo/redmiddle");
+        URI confusor = f.createURI("http://alusivo/ballfar");
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        List<URI> confusors = Collections.singletonList(confusor);
+
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color" }));
+        ReferringExpressionCache cache = new ReferringExpressionCache();
+        ReferringExpressionAlgorithm algorithm = cache.wrap(new GardentAlgorithm(priorities, null), "gardent");
+        NotifyingRepositoryConnectionWrapper conn = new NotifyingRepositoryConnectionWrapper(rep,
+                rep.getConnection());
+        conn.addRepositoryConnectionListener(cache.invalidationListener());
+        RepositoryConnection reader = rep.getConnection();
+        try {
+            conn.add(referent, RDF.TYPE, balltype);
+            conn.add(confusor, RDF.TYPE, balltype);
+            conn.add(referent, color, f.createLiteral("red"));
+            conn.add(confusor, color, f.createLiteral("black"));
+            conn.begin();
+            conn.remove(confusor, color, f.createLiteral("black"));
+            conn.add(confusor, color, f.createLiteral("red"));
+            // another connection does not see the change until it commits
+            ReferringExpression r = algorithm.resolve(referent, confusors, reader);
+            assertEquals(1, r.predicates().size());
+            assertSame(r, cache.get("gardent", referent, confusors));
+            conn.commit();
+            assertNull(cache.get("gardent", referent, confusors));
+            try {
+                algorithm.resolve(referent, confusors, reader);
+                fail("Distinguishable after the commit");
+            } catch (ReferringExpressionException e) {
+                // expected
+            }
+        } finally {
+            reader.close();
+            conn.close();
+            rep.shutDown();
+        }
+    }
+}
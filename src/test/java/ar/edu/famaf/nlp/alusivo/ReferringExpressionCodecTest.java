@@ -0,0 +1,130 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+
+/**
+ *
+ * Round-trip and size checks for the binary codec.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ReferringExpressionCodecTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(ReferringExpressionCodecTest.class);
+    }
+
+    private ValueFactory f = ValueFactoryImpl.getInstance();
+
+    private List<ReferringExpression> expressions(int count) {
+        URI person = f.createURI("http://dbpedia.org/ontology/Person");
+        URI country = f.createURI("http://dbpedia.org/ontology/country");
+        URI birthPlace = f.createURI("http://dbpedia.org/ontology/birthPlace");
+        URI name = f.createURI("http://xmlns.com/foaf/0.1/name");
+        URI year = f.createURI("http://dbpedia.org/ontology/activeYearsStartYear");
+        List<ReferringExpression> result = new ArrayList<ReferringExpression>();
+        for (int i = 0; i < count; i++) {
+            URI referent = f.createURI("http://dbpedia.org/resource/Person_" + i);
+            ReferringExpression r = new ReferringExpression(referent);
+            r.addPositive(referent, RDF.TYPE, person);
+            r.addPositive(referent, country, f.createURI("http://dbpedia.org/resource/Country_" + (i % 10)));
+            r.addNegative(referent, name, f.createLiteral("Nombre " + (i % 3), "es"));
+            r.addPositive(referent, year, f.createLiteral(String.valueOf(1900 + i % 50), XMLSchema.GYEAR));
+            r.addPositive(f.createURI("http://dbpedia.org/resource/City_" + (i % 20)), birthPlace, referent);
+            r.addNegative(referent, birthPlace, f.createBNode("b" + (i % 2)));
+            result.add(r);
+        }
+        return result;
+    }
+
+    public void testRoundTrip() throws Exception {
+        List<ReferringExpression> refExps = expressions(100);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReferringExpressionCodec.Writer writer = new ReferringExpressionCodec.Writer(bytes);
+        for (ReferringExpression r : refExps)
+            writer.write(r);
+        writer.close();
+
+        ReferringExpressionCodec.Reader reader = new ReferringExpressionCodec.Reader(new ByteArrayInputStream(
+                bytes.toByteArray()), f);
+        for (ReferringExpression r : refExps) {
+            ReferringExpression decoded = reader.read();
+            assertNotNull(decoded);
+            assertEquals(r.toString(), decoded.toString());
+            assertEquals(r.hasNegatives(), decoded.hasNegatives());
+            assertNull(decoded.predicates().get(0).getSubject());
+        }
+        assertNull(reader.read());
+        reader.close();
+
+        ReferringExpression single = refExps.get(7);
+        assertEquals(single.toString(), ReferringExpressionCodec.decode(ReferringExpressionCodec.encode(single), f)
+                .toString());
+    }
+
+    public void testSmallerThanAlternatives() throws Exception {
+        List<ReferringExpression> refExps = expressions(1000);
+
+        ByteArrayOutputStream codec = new ByteArrayOutputStream();
+        ReferringExpressionCodec.Writer writer = new ReferringExpressionCodec.Writer(codec);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(serialized);
+        long text = 0;
+        for (ReferringExpression r : refExps) {
+            writer.write(r);
+            oos.writeObject(r);
+            text += r.toString().getBytes("UTF-8").length;
+        }
+        writer.close();
+        oos.close();
+
+        assertTrue(codec.size() < text);
+        assertTrue(codec.size() < serialized.size());
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray()));
+        assertEquals(refExps.get(0).toString(), ois.readObject().toString());
+        ois.close();
+    }
+
+    public void testCorruptVarints() throws Exception {
+        byte[] header = ReferringExpressionCodec.encode(new ReferringExpression());
+        // header plus an empty expression, the size byte goes last
+        header = Arrays.copyOf(header, header.length - 1);
+        byte[][] corrupt = { { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 },
+                { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F } };
+        for (byte[] size : corrupt) {
+            byte[] bytes = Arrays.copyOf(header, header.length + size.length);
+            System.arraycopy(size, 0, bytes, header.length, size.length);
+            try {
+                ReferringExpressionCodec.decode(bytes, f);
+                fail("Expected an exception");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Varint"));
+            }
+        }
+    }
+}
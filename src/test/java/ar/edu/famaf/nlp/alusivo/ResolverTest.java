@@ -0,0 +1,346 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.base.RepositoryWrapper;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sparql.SPARQLRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Simple test case for the Resolver.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ResolverTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(ResolverTest.class);
+    }
+
+    private Repository rep;
+    private ValueFactory f;
+    private URI referent, confusor1, confusor2, balltype, color, distance, nextTo;
+    private List<URI> candidates;
+
+    @Override
+    protected void setUp() throws Exception {
+        rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        f = rep.getValueFactory();
+
+        referent = f.createURI("http://alusivo/redmiddle");
+        confusor1 = f.createURI("http://alusivo/ballfar");
+        confusor2 = f.createURI("http://alusivo/redballclose");
+        candidates = new ArrayList<URI>();
+        candidates.add(confusor1);
+        candidates.add(referent);
+        candidates.add(confusor2);
+
+        balltype = f.createURI("http://alusivo/ball");
+        color = f.createURI("http://alusivo/color");
+        distance = f.createURI("http://alusivo/distance");
+        nextTo = f.createURI("http://alusivo/next_to");
+
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            conn.add(new StatementImpl(referent, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(confusor1, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(confusor2, RDF.TYPE, balltype));
+            conn.add(new StatementImpl(referent, color, f.createLiteral("red")));
+            conn.add(new StatementImpl(confusor1, color, f.createLiteral("black")));
+            conn.add(new StatementImpl(confusor2, color, f.createLiteral("red")));
+            conn.add(new StatementImpl(referent, distance, f.createLiteral("middle")));
+            conn.add(new StatementImpl(confusor1, distance, f.createLiteral("far")));
+            conn.add(new StatementImpl(confusor2, distance, f.createLiteral("close")));
+            conn.add(new StatementImpl(confusor1, nextTo, confusor1));
+            conn.add(new StatementImpl(referent, nextTo, confusor2));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        rep.shutDown();
+    }
+
+    public void testPositive() throws Exception {
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, color, f.createLiteral("red"));
+        r.addPositive(referent, distance, f.createLiteral("middle"));
+
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            List<URI> resolved = Resolver.resolve(r, candidates, conn);
+            assertEquals(1, resolved.size());
+            assertEquals(referent, resolved.get(0));
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testNegativeKeepsOrder() throws Exception {
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, RDF.TYPE, balltype);
+        r.addNegative(referent, color, f.createLiteral("black"));
+
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            List<URI> resolved = Resolver.resolve(r, candidates, conn);
+            assertEquals(2, resolved.size());
+            assertEquals(referent, resolved.get(0));
+            assertEquals(confusor2, resolved.get(1));
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testRelations() throws Exception {
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, nextTo, confusor2);
+
+        ReferringExpression self = new ReferringExpression(confusor1);
+        self.addPositive(confusor1, nextTo, confusor1);
+
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            List<URI> resolved = Resolver.resolve(r, candidates, conn);
+            assertEquals(1, resolved.size());
+            assertEquals(referent, resolved.get(0));
+
+            resolved = Resolver.resolve(self, candidates, conn);
+            assertEquals(1, resolved.size());
+            assertEquals(confusor1, resolved.get(0));
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testSelectivity() throws Exception {
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, RDF.TYPE, balltype);
+        r.addNegative(referent, color, f.createLiteral("black"));
+        r.addPositive(referent, distance, f.createLiteral("middle"));
+
+        PredicateStatistics stats = new PredicateStatistics();
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < 2; i++) {
+                List<URI> resolved = Resolver.resolve(r, candidates, conn, stats);
+                assertEquals(1, resolved.size());
+                assertEquals(referent, resolved.get(0));
+            }
+            assertEquals(3, stats.size());
+            assertEquals(3L, stats.estimate(r.predicates().get(0), conn));
+            assertEquals(1L, stats.estimate(r.predicates().get(2), conn));
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testSparql() throws Exception {
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, RDF.TYPE, balltype);
+        r.addNegative(referent, color, f.createLiteral("black"));
+
+        ReferringExpression self = new ReferringExpression(confusor1);
+        self.addPositive(confusor1, nextTo, confusor1);
+
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            List<URI> resolved = Resolver.resolveSparql(r, candidates, conn);
+            assertEquals(Resolver.resolve(r, candidates, conn), resolved);
+            assertEquals(2, resolved.size());
+            assertEquals(referent, resolved.get(0));
+
+            resolved = Resolver.resolveSparql(self, candidates, conn);
+            assertEquals(1, resolved.size());
+            assertEquals(confusor1, resolved.get(0));
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testSparqlEndpoint() throws Exception {
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, RDF.TYPE, balltype);
+        r.addNegative(referent, color, f.createLiteral("black"));
+
+        SparqlEndpoint endpoint = new SparqlEndpoint(rep);
+        Repository remote = new SPARQLRepository(endpoint.start());
+        remote.initialize();
+        RepositoryConnection conn = rep.getConnection();
+        RepositoryConnection remoteConn = remote.getConnection();
+        try {
+            // one candidate per query
+            List<URI> resolved = Resolver.resolveSparql(r, candidates, remoteConn, 1);
+            assertEquals(Resolver.resolve(r, candidates, conn), resolved);
+            assertEquals(candidates.size(), endpoint.getQueries());
+
+            // a blank node would match anything in the query
+            BNode blank = f.createBNode();
+            conn.add(referent, nextTo, blank);
+            ReferringExpression b = new ReferringExpression(referent);
+            b.addPositive(referent, nextTo, blank);
+            try {
+                Resolver.resolveSparql(b, candidates, remoteConn);
+                fail("Expected an exception");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            remoteConn.close();
+            conn.close();
+            remote.shutDown();
+            endpoint.stop();
+        }
+    }
+
+    public void testParallel() throws Exception {
+        List<URI> many = new ArrayList<URI>();
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < 5000; i++) {
+                URI ball = f.createURI("http://alusivo/ball" + i);
+                conn.add(new StatementImpl(ball, RDF.TYPE, balltype));
+                conn.add(new StatementImpl(ball, color, f.createLiteral(i % 7 == 0 ? "red" : "black")));
+                many.add(ball);
+            }
+        } finally {
+            conn.close();
+        }
+        many.addAll(candidates);
+
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, RDF.TYPE, balltype);
+        r.addPositive(referent, color, f.createLiteral("red"));
+
+        List<URI> resolved = Resolver.resolveParallel(r, many, rep, 4);
+        conn = rep.getConnection();
+        try {
+            assertEquals(Resolver.resolve(r, many, conn), resolved);
+        } finally {
+            conn.close();
+        }
+        assertEquals(5000 / 7 + 1 + 2, resolved.size());
+        assertEquals(referent, resolved.get(resolved.size() - 2));
+
+        // the bindings are fetched once, only checking candidates one by one
+        // takes a connection per partition
+        final AtomicInteger connections = new AtomicInteger();
+        Repository counting = new RepositoryWrapper(rep) {
+            @Override
+            public RepositoryConnection getConnection() throws RepositoryException {
+                connections.incrementAndGet();
+                return super.getConnection();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertEquals(resolved,
+                    Resolver.resolveParallel(r, many, counting, executor, 4, new PredicateStatistics(), 100));
+            assertEquals(1 + 4, connections.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testResolveAll() throws Exception {
+        List<ReferringExpression> refExps = new ArrayList<ReferringExpression>();
+        ReferringExpression r = new ReferringExpression(referent);
+        r.addPositive(referent, RDF.TYPE, balltype);
+        r.addNegative(referent, color, f.createLiteral("black"));
+        refExps.add(r);
+        r = new ReferringExpression(referent);
+        r.addPositive(referent, RDF.TYPE, balltype);
+        r.addPositive(referent, distance, f.createLiteral("middle"));
+        refExps.add(r);
+        r = new ReferringExpression(confusor1);
+        r.addPositive(confusor1, RDF.TYPE, balltype);
+        r.addNegative(confusor1, color, f.createLiteral("red"));
+        refExps.add(r);
+        r = new ReferringExpression(confusor2);
+        r.addNegative(confusor2, RDF.TYPE, balltype);
+        refExps.add(r);
+
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            List<List<URI>> resolved = Resolver.resolveAll(refExps, candidates, conn);
+            assertEquals(refExps.size(), resolved.size());
+            for (int i = 0; i < refExps.size(); i++)
+                assertEquals(Resolver.resolve(refExps.get(i), candidates, conn), resolved.get(i));
+            assertEquals(2, resolved.get(0).size());
+            assertEquals(referent, resolved.get(1).get(0));
+            assertEquals(confusor1, resolved.get(2).get(0));
+            assertTrue(resolved.get(3).isEmpty());
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testEntityContext() throws Exception {
+        List<URI> confusors = new ArrayList<URI>();
+        confusors.add(confusor1);
+        confusors.add(confusor2);
+
+        RepositoryConnection conn = rep.getConnection();
+        EntityContext context;
+        try {
+            context = EntityContext.build(referent, confusors, conn);
+        } finally {
+            conn.close();
+        }
+        rep.shutDown();
+
+        // no repository access from here on
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "distance" }));
+        ReferringExpression r = new DaleReiterAlgorithm(priorities, null).resolve(context);
+        assertEquals(2, r.predicates().size());
+        List<URI> resolved = Resolver.resolve(r, candidates, context);
+        assertEquals(1, resolved.size());
+        assertEquals(referent, resolved.get(0));
+
+        r = new GardentAlgorithm(priorities, null).resolve(context);
+        resolved = Resolver.resolve(r, candidates, context);
+        assertEquals(1, resolved.size());
+        assertEquals(referent, resolved.get(0));
+
+        // nothing is known about entities outside the snapshot
+        ReferringExpression negative = new ReferringExpression(referent);
+        negative.addNegative(referent, color, f.createLiteral("black"));
+        try {
+            Resolver.resolve(negative, Arrays.asList(referent, f.createURI("http://alusivo/elsewhere")), context);
+            fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Test case for the server mode, over a local socket.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class ServerTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(ServerTest.class);
+    }
+
+    public void testRequests() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI distance = f.createURI("http://alusivo/distance");
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            URI[] balls = new URI[] { f.createURI("http://alusivo/redmiddle"), f.createURI("http://alusivo/ballfar"),
+                    f.createURI("http://alusivo/redballclose") };
+            String[][] values = { { "red", "middle" }, { "black", "far" }, { "red", "close" } };
+            for (int i = 0; i < balls.length; i++) {
+                conn.add(balls[i], color, f.createLiteral(values[i][0]));
+                conn.add(balls[i], distance, f.createLiteral(values[i][1]));
+            }
+            // the first one gets its type from the request
+            conn.add(balls[1], RDF.TYPE, balltype);
+            conn.add(balls[2], RDF.TYPE, balltype);
+        } finally {
+            conn.close();
+        }
+
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "distance" }));
+        Map<String, ReferringExpressionAlgorithm> algorithms = new LinkedHashMap<String, ReferringExpressionAlgorithm>();
+        algorithms.put(DaleReiterAlgorithm.class.getName(), new DaleReiterAlgorithm(priorities, null));
+        RequestHandler handler = new RequestHandler(algorithms, DaleReiterAlgorithm.class.getName(),
+                new PriorityTable(priorities, null, TermDictionary.getDefault()), new ReferringExpressionCache());
+        EntityDescriptionCache descriptions = new EntityDescriptionCache();
+        handler.setCache(descriptions);
+
+        Server server = new Server(handler, rep, 2);
+        server.start(0);
+        Socket socket = new Socket(InetAddress.getByName(null), server.getPort());
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+
+            out.write("{\"id\": 1, \"referent\": \"http://alusivo/redmiddle\", \"type\": \"http://alusivo/ball\","
+                    + " \"confusors\": [\"http://alusivo/ballfar\", \"http://alusivo/redballclose\"],"
+                    + " \"algorithm\": \"DaleReiterAlgorithm\"}\n");
+            out.flush();
+            String response = in.readLine();
+            assertTrue(response, response.startsWith("{\"id\":1,\"expression\":[{\"predicate\":\"" + color
+                    + "\",\"object\":\"\\\"red\\\"\"},{\"predicate\":\"" + distance
+                    + "\",\"object\":\"\\\"middle\\\"\"}],\"millis\":"));
+            // requests with a type read through the shared cache too
+            assertEquals(6, descriptions.size());
+
+            out.write("{\"id\": \"v\", \"op\": \"verify\", \"expression\": [{\"predicate\": \"" + color
+                    + "\", \"object\": \"\\\"red\\\"\"}], \"candidates\": [\"http://alusivo/redmiddle\","
+                    + " \"http://alusivo/ballfar\", \"http://alusivo/redballclose\"]}\n");
+            out.flush();
+            response = in.readLine();
+            assertTrue(response, response.startsWith("{\"id\":\"v\",\"resolved\":[\"http://alusivo/redmiddle\","
+                    + "\"http://alusivo/redballclose\"],\"millis\":"));
+
+            // errors are answered, the connection stays
+            out.write("{\"id\": 3, \"referent\": \"http://alusivo/redmiddle\", \"confusors\": [],"
+                    + " \"algorithm\": \"Unknown\"}\n");
+            out.write("not json\n");
+            out.write("{\"op\": \"stats\"}\n");
+            out.flush();
+            response = in.readLine();
+            assertTrue(response, response.startsWith("{\"id\":3,\"error\":\"Unknown algorithm 'Unknown'\""));
+            response = in.readLine();
+            assertTrue(response, response.contains("\"error\":"));
+            response = in.readLine();
+            assertTrue(response, response.startsWith("{\"requests\":4,\"errors\":2,"));
+        } finally {
+            socket.close();
+            server.stop();
+            rep.shutDown();
+        }
+        assertEquals(5, handler.getRequests());
+    }
+
+    public void testIdleClient() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        RequestHandler handler = new RequestHandler(new HashMap<String, ReferringExpressionAlgorithm>(),
+                DaleReiterAlgorithm.class.getName(), null, null);
+
+        // a single worker, taken by a client that sends nothing
+        Server server = new Server(handler, rep, 1);
+        server.setIdleTimeout(200);
+        server.start(0);
+        Socket idle = new Socket(InetAddress.getByName(null), server.getPort());
+        Socket socket = new Socket(InetAddress.getByName(null), server.getPort());
+        try {
+            socket.setSoTimeout(10000);
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            out.write("{\"op\": \"stats\"}\n");
+            out.flush();
+            String response = in.readLine();
+            assertTrue(response, response.startsWith("{\"requests\":0,"));
+            // and the idle one was dropped
+            assertEquals(-1, idle.getInputStream().read());
+        } finally {
+            idle.close();
+            socket.close();
+            server.stop();
+            rep.shutDown();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openrdf.query.BooleanQuery;
+import org.openrdf.query.GraphQuery;
+import org.openrdf.query.Query;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.resultio.BooleanQueryResultFormat;
+import org.openrdf.query.resultio.QueryResultIO;
+import org.openrdf.query.resultio.sparqlxml.SPARQLResultsXMLWriter;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.rio.RDFFormat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * Stand-in for a remote SPARQL endpoint in the tests: answers the SPARQL
+ * protocol over HTTP on a local port from a repository, so a SPARQLRepository
+ * pointed at it goes through the same code paths as against a public
+ * endpoint. Like those, it can cap the rows of each answer.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class SparqlEndpoint {
+
+    private Repository repository;
+    private int maxRows = Integer.MAX_VALUE;
+    private HttpServer server;
+    private AtomicInteger queries = new AtomicInteger();
+
+    public SparqlEndpoint(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Rows beyond this are silently dropped, as public endpoints do.
+     */
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    public int getQueries() {
+        return queries.get();
+    }
+
+    /**
+     * Start listening on a free port and return the URL of the endpoint.
+     */
+    public String start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), 0), 0);
+        server.createContext("/sparql", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                answer(exchange);
+            }
+        });
+        server.start();
+        return "http://localhost:" + server.getAddress().getPort() + "/sparql";
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        String params = exchange.getRequestURI().getRawQuery();
+        if (exchange.getRequestMethod().equals("POST")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                body.write(buffer, 0, read);
+            params = body.toString("UTF-8");
+        }
+        String queryString = null;
+        if (params != null)
+            for (String param : params.split("&"))
+                if (param.startsWith("query="))
+                    queryString = URLDecoder.decode(param.substring("query=".length()), "UTF-8");
+
+        queries.incrementAndGet();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        String contentType;
+        int status = 200;
+        try {
+            RepositoryConnection conn = repository.getConnection();
+            try {
+                Query query = conn.prepareQuery(QueryLanguage.SPARQL, queryString);
+                if (query instanceof TupleQuery) {
+                    TupleQueryResult rows = ((TupleQuery) query).evaluate();
+                    try {
+                        SPARQLResultsXMLWriter writer = new SPARQLResultsXMLWriter(result);
+                        writer.startQueryResult(rows.getBindingNames());
+                        for (int i = 0; i < maxRows && rows.hasNext(); i++)
+                            writer.handleSolution(rows.next());
+                        writer.endQueryResult();
+                    } finally {
+                        rows.close();
+                    }
+                    contentType = "application/sparql-results+xml";
+                } else if (query instanceof BooleanQuery) {
+                    QueryResultIO.writeBoolean(((BooleanQuery) query).evaluate(), BooleanQueryResultFormat.SPARQL,
+                            result);
+                    contentType = "application/sparql-results+xml";
+                } else {
+                    QueryResultIO.write(((GraphQuery) query).evaluate(), RDFFormat.NTRIPLES, result);
+                    contentType = RDFFormat.NTRIPLES.getDefaultMIMEType();
+                }
+            } finally {
+                conn.close();
+            }
+        } catch (Exception e) {
+            result.reset();
+            result.write(String.valueOf(e.getMessage()).getBytes("UTF-8"));
+            contentType = "text/plain";
+            status = 400;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(status, result.size());
+        OutputStream out = exchange.getResponseBody();
+        result.writeTo(out);
+        out.close();
+    }
+}
@@ -0,0 +1,177 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.base.RepositoryConnectionWrapper;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sparql.SPARQLRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+/**
+ *
+ * Checks the batched SPARQL retrieval, with an in-process repository standing
+ * in for the endpoint.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class SparqlKnowledgeBaseTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(SparqlKnowledgeBaseTest.class);
+    }
+
+    public void testBatches() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI nextTo = f.createURI("http://alusivo/next_to");
+        Random random = new Random(11);
+        List<URI> balls = new ArrayList<URI>();
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < 250; i++) {
+                URI ball = f.createURI("http://alusivo/ball" + i);
+                balls.add(ball);
+                conn.add(ball, RDF.TYPE, balltype);
+                conn.add(ball, color, f.createLiteral(i % 2 == 0 ? "red \"dark\"" : "azul", "es"));
+            }
+            for (int i = 0; i < 500; i++)
+                conn.add(balls.get(random.nextInt(balls.size())), nextTo, balls.get(random.nextInt(balls.size())));
+            assertFalse(SparqlKnowledgeBase.isRemote(conn));
+
+            SparqlKnowledgeBase kb = new SparqlKnowledgeBase(conn);
+            kb.prefetch(balls);
+            // outgoing and incoming, for three batches
+            assertEquals(6, kb.getQueries());
+            KnowledgeBase sesame = new SesameKnowledgeBase(conn);
+            for (URI ball : balls) {
+                assertEquals(new HashSet<Statement>(sesame.outgoing(ball)), new HashSet<Statement>(kb.outgoing(ball)));
+                assertEquals(new HashSet<Statement>(sesame.incoming(ball)), new HashSet<Statement>(kb.incoming(ball)));
+                assertEquals(sesame.types(ball), kb.types(ball));
+            }
+            assertEquals(6, kb.getQueries());
+
+            // not prefetched, fetched on use
+            URI other = f.createURI("http://alusivo/other");
+            assertTrue(kb.outgoing(other).isEmpty());
+            assertEquals(8, kb.getQueries());
+
+            // same expression as over plain lookups
+            Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+            priorities.put(balltype.toString(), Arrays.asList(new String[] { "type", "color", "next_to" }));
+            GardentAlgorithm algorithm = new GardentAlgorithm(priorities, null);
+            List<URI> confusors = balls.subList(1, 6);
+            kb = new SparqlKnowledgeBase(conn);
+            String expected = algorithm.resolve(EntityContext.build(balls.get(0), confusors, sesame)).toString();
+            assertEquals(expected, algorithm.resolve(EntityContext.build(balls.get(0), confusors, kb)).toString());
+            assertEquals(2, kb.getQueries());
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+
+    public void testPagesAndFailures() throws Exception {
+        Repository rep = new SailRepository(new MemoryStore());
+        rep.initialize();
+        ValueFactory f = rep.getValueFactory();
+        URI color = f.createURI("http://alusivo/color");
+        URI nextTo = f.createURI("http://alusivo/next_to");
+        List<URI> balls = new ArrayList<URI>();
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 0; i < 40; i++) {
+                URI ball = f.createURI("http://alusivo/ball" + i);
+                balls.add(ball);
+                conn.add(ball, color, f.createLiteral("c" + i % 3));
+            }
+            for (int i = 0; i < 40; i++)
+                for (int j = 0; j < 40; j += 7)
+                    conn.add(balls.get(i), nextTo, balls.get(j));
+        } finally {
+            conn.close();
+        }
+
+        SparqlEndpoint endpoint = new SparqlEndpoint(rep);
+        // as a public endpoint would, truncate the answers
+        endpoint.setMaxRows(25);
+        SPARQLRepository remote = new SPARQLRepository(endpoint.start());
+        remote.initialize();
+        conn = rep.getConnection();
+        RepositoryConnection remoteConn = remote.getConnection();
+        try {
+            SparqlKnowledgeBase kb = new SparqlKnowledgeBase(remoteConn);
+            kb.setPageSize(25);
+            kb.prefetch(balls);
+            KnowledgeBase sesame = new SesameKnowledgeBase(conn);
+            for (URI ball : balls) {
+                assertEquals(new HashSet<Statement>(sesame.outgoing(ball)), new HashSet<Statement>(kb.outgoing(ball)));
+                assertEquals(new HashSet<Statement>(sesame.incoming(ball)), new HashSet<Statement>(kb.incoming(ball)));
+            }
+            // 40 * 6 + 40 outgoing and 40 * 6 incoming rows, in pages of 25
+            assertEquals(280 / 25 + 1 + 240 / 25 + 1, kb.getQueries());
+        } finally {
+            remoteConn.close();
+            remote.shutDown();
+            endpoint.stop();
+        }
+
+        // the incoming query of the batch fails once
+        final boolean[] failed = new boolean[1];
+        RepositoryConnection failing = new RepositoryConnectionWrapper(rep, conn) {
+            @Override
+            public TupleQuery prepareTupleQuery(QueryLanguage ql, String query, String baseURI)
+                    throws MalformedQueryException, RepositoryException {
+                if (!failed[0] && query.contains("VALUES ?o")) {
+                    failed[0] = true;
+                    throw new RepositoryException("Endpoint down");
+                }
+                return super.prepareTupleQuery(ql, query, baseURI);
+            }
+        };
+        try {
+            SparqlKnowledgeBase kb = new SparqlKnowledgeBase(failing);
+            try {
+                kb.prefetch(balls);
+                fail("Expected the query to fail");
+            } catch (RepositoryException e) {
+                // nothing kept for the batch
+            }
+            KnowledgeBase sesame = new SesameKnowledgeBase(conn);
+            assertEquals(new HashSet<Statement>(sesame.outgoing(balls.get(0))), new HashSet<Statement>(kb
+                    .outgoing(balls.get(0))));
+            assertFalse(kb.incoming(balls.get(7)).isEmpty());
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryResult;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+/**
+ *
+ * Lookup latency of the access patterns of the algorithms (outgoing, incoming,
+ * types and ground statements) on a memory store and on native stores with
+ * different index specifications. Not run as part of the tests.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class StoreBenchmark {
+
+    private static class Options {
+
+        @Parameter(names = { "-rdf" }, description = "RDF statements in N-Triple format, synthetic data if missing")
+        private String rdf;
+
+        @Parameter(names = { "-entities" }, description = "Number of entities for the synthetic data")
+        private int entities = 100000;
+
+        @Parameter(names = { "-indexes" }, description = "Index specifications for the native stores", variableArity = true)
+        private List<String> indexes = new ArrayList<String>(Arrays.asList("spoc,posc", "spoc,posc,ospc"));
+
+        @Parameter(names = { "-samples" }, description = "Lookups per access pattern")
+        private int samples = 2000;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        new JCommander(options, args);
+
+        File tmp = File.createTempFile("alusivo", "bench");
+        tmp.delete();
+
+        bench("memory", Stores.create(Stores.MEMORY, null, null), options);
+        for (String indexes : options.indexes)
+            bench("native " + indexes, Stores.create(Stores.NATIVE, new File(tmp, indexes), indexes), options);
+    }
+
+    private static void bench(String name, Repository rep, Options options) throws Exception {
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            long start = System.currentTimeMillis();
+            if (options.rdf != null) {
+                FileInputStream in = new FileInputStream(options.rdf);
+                try {
+                    new NTriplesLoader(conn).load(in);
+                } finally {
+                    in.close();
+                }
+            } else
+                synthetic(conn, options.entities);
+            long load = System.currentTimeMillis() - start;
+
+            // sample entities with outgoing and incoming statements
+            List<Statement> all = new ArrayList<Statement>();
+            RepositoryResult<Statement> stmts = conn.getStatements(null, null, null, false);
+            try {
+                int i = 0;
+                while (stmts.hasNext() && all.size() < options.samples * 10)
+                    if (i++ % 7 == 0)
+                        all.add(stmts.next());
+                    else
+                        stmts.next();
+            } finally {
+                stmts.close();
+            }
+            Random random = new Random(42);
+            List<Statement> sample = new ArrayList<Statement>();
+            for (int i = 0; i < options.samples; i++)
+                sample.add(all.get(random.nextInt(all.size())));
+
+            System.out.println(name + ": " + conn.size() + " statements loaded in " + load + "ms");
+            String[] patterns = { "outgoing (s,*,*)", "incoming (*,*,o)", "types (s,type,*)", "ground (s,p,o)" };
+            for (int pattern = 0; pattern < patterns.length; pattern++) {
+                // one warm-up round
+                run(conn, sample, pattern);
+                long t = System.nanoTime();
+                long found = run(conn, sample, pattern);
+                double micros = (System.nanoTime() - t) / 1000.0 / sample.size();
+                System.out.println(String.format("  %-18s %10.1fus/lookup %10d statements", patterns[pattern],
+                        micros, found));
+            }
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+
+    private static long run(RepositoryConnection conn, List<Statement> sample, int pattern) throws Exception {
+        long result = 0;
+        for (Statement stmt : sample) {
+            RepositoryResult<Statement> stmts;
+            switch (pattern) {
+            case 0:
+                stmts = conn.getStatements(stmt.getSubject(), null, null, true);
+                break;
+            case 1:
+                stmts = conn.getStatements(null, null, stmt.getObject(), true);
+                break;
+            case 2:
+                stmts = conn.getStatements(stmt.getSubject(), RDF.TYPE, null, true);
+                break;
+            default:
+                if (conn.hasStatement(stmt.getSubject(), stmt.getPredicate(), stmt.getObject(), true))
+                    result++;
+                continue;
+            }
+            try {
+                while (stmts.hasNext()) {
+                    stmts.next();
+                    result++;
+                }
+            } finally {
+                stmts.close();
+            }
+        }
+        return result;
+    }
+
+    private static void synthetic(RepositoryConnection conn, int entities) throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        Random random = new Random(7);
+        URI[] types = new URI[50];
+        for (int i = 0; i < types.length; i++)
+            types[i] = f.createURI("http://dbpedia.org/ontology/Type" + i);
+        URI[] predicates = new URI[20];
+        for (int i = 0; i < predicates.length; i++)
+            predicates[i] = f.createURI("http://dbpedia.org/ontology/p" + i);
+        conn.begin();
+        for (int i = 0; i < entities; i++) {
+            Resource entity = f.createURI("http://dbpedia.org/resource/E" + i);
+            conn.add(entity, RDF.TYPE, types[i % types.length]);
+            for (int j = 0; j < 3; j++)
+                conn.add(entity, predicates[random.nextInt(predicates.length)],
+                        f.createURI("http://dbpedia.org/resource/E" + random.nextInt(entities)));
+            conn.add(entity, predicates[random.nextInt(predicates.length)], f.createLiteral("value " + (i % 1000)));
+            if (i % 50000 == 49999) {
+                conn.commit();
+                conn.begin();
+            }
+        }
+        conn.commit();
+    }
+}
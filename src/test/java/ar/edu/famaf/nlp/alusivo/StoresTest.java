@@ -0,0 +1,117 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+
+/**
+ *
+ * Runs an algorithm over a persistent native store.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class StoresTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(StoresTest.class);
+    }
+
+    private String resolve(Repository rep) throws Exception {
+        ValueFactory f = rep.getValueFactory();
+        URI referent = f.createURI("http://alusivo/ball1");
+        List<URI> confusors = new ArrayList<URI>();
+        confusors.add(f.createURI("http://alusivo/ball2"));
+        confusors.add(f.createURI("http://alusivo/ball3"));
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put("http://alusivo/ball", Arrays.asList(new String[] { "type", "color", "size" }));
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            return new DaleReiterAlgorithm(priorities, null).resolve(referent, confusors, conn).toString();
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void populate(Repository rep) throws Exception {
+        ValueFactory f = rep.getValueFactory();
+        URI balltype = f.createURI("http://alusivo/ball");
+        URI color = f.createURI("http://alusivo/color");
+        URI size = f.createURI("http://alusivo/size");
+        RepositoryConnection conn = rep.getConnection();
+        try {
+            for (int i = 1; i <= 3; i++) {
+                URI ball = f.createURI("http://alusivo/ball" + i);
+                conn.add(ball, RDF.TYPE, balltype);
+                conn.add(ball, color, f.createLiteral(i == 1 ? "red" : "blue"));
+                conn.add(ball, size, f.createLiteral(i == 3 ? "big" : "small"));
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void testNative() throws Exception {
+        File dir = File.createTempFile("alusivo", "native");
+        dir.delete();
+        try {
+            Repository memory = Stores.create(Stores.MEMORY, null, null);
+            populate(memory);
+            String expected = resolve(memory);
+            memory.shutDown();
+
+            Repository rep = Stores.create(Stores.NATIVE, dir, "spoc,posc,ospc");
+            populate(rep);
+            assertEquals(expected, resolve(rep));
+            rep.shutDown();
+
+            // the data persists
+            rep = Stores.create(Stores.NATIVE, dir, "spoc,posc,ospc");
+            RepositoryConnection conn = rep.getConnection();
+            try {
+                assertEquals(9, conn.size());
+            } finally {
+                conn.close();
+            }
+            assertEquals(expected, resolve(rep));
+            rep.shutDown();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testUnknown() throws Exception {
+        try {
+            Stores.create("sql", null, null);
+            fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+}
@@ -0,0 +1,153 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package ar.edu.famaf.nlp.alusivo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+/**
+ *
+ * Checks the term dictionary and the primitive index.
+ *
+ * @author Pablo Duboue <pablo.duboue@gmail.com>
+ *
+ */
+public class TermDictionaryTest extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(TermDictionaryTest.class);
+    }
+
+    public void testConcurrentIds() throws Exception {
+        final TermDictionary dictionary = new TermDictionary();
+        final ValueFactory f = ValueFactoryImpl.getInstance();
+        final int terms = 5000;
+        final int[][] seen = new int[4][terms];
+        Thread[] threads = new Thread[seen.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < terms; i++) {
+                        // each thread in a different order
+                        int term = thread % 2 == 0 ? i : terms - 1 - i;
+                        Value value = term % 2 == 0 ? f.createURI("http://alusivo/p" + term) : f.createLiteral("v"
+                                + term);
+                        seen[thread][term] = dictionary.id(value);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(terms, dictionary.size());
+        Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < terms; i++) {
+            for (int t = 1; t < seen.length; t++)
+                assertEquals(seen[0][i], seen[t][i]);
+            ids.add(seen[0][i]);
+            Value value = dictionary.term(seen[0][i]);
+            if (i % 2 == 0) {
+                assertEquals(f.createURI("http://alusivo/p" + i), value);
+                assertEquals("p" + i, dictionary.localName(seen[0][i]));
+                // cached, the same string each time
+                assertSame(dictionary.localName(seen[0][i]), dictionary.localName(seen[0][i]));
+            } else {
+                assertEquals(f.createLiteral("v" + i), value);
+                assertNull(dictionary.localName(seen[0][i]));
+            }
+        }
+        assertEquals(terms, ids.size());
+
+        URI unknown = f.createURI("http://alusivo/unknown");
+        assertEquals(-1, dictionary.lookup(unknown));
+        assertEquals(terms, dictionary.id(unknown));
+        assertEquals(terms, dictionary.lookup(unknown));
+    }
+
+    public void testKeys() throws Exception {
+        long key = TermDictionary.key(7, Integer.MAX_VALUE);
+        assertEquals(7, TermDictionary.first(key));
+        assertEquals(Integer.MAX_VALUE, TermDictionary.second(key));
+        key = TermDictionary.key(Integer.MAX_VALUE, -1);
+        assertEquals(Integer.MAX_VALUE, TermDictionary.first(key));
+        assertEquals(-1, TermDictionary.second(key));
+    }
+
+    public void testRequestDictionary() throws Exception {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        TermDictionary root = new TermDictionary();
+        URI color = f.createURI("http://alusivo/color");
+        URI red = f.createURI("http://alusivo/red");
+        int p = root.id(color);
+
+        TermDictionary request = new TermDictionary(root);
+        TermDictionary nested = new TermDictionary(request);
+        assertSame(root, request.getPredicates());
+        assertSame(root, nested.getPredicates());
+        assertEquals(p, request.predicate(color));
+        assertEquals(p, nested.predicate(color));
+        assertEquals(color, request.term(p));
+        assertEquals("color", request.localName(p));
+
+        // values stay in the request dictionary, away from the predicate ids
+        int v = request.id(red);
+        assertTrue(v > p);
+        assertEquals(red, request.term(v));
+        assertEquals("red", request.localName(v));
+        assertEquals(-1, root.lookup(red));
+        assertEquals(1, root.size());
+
+        // a new predicate seen by a request goes to the long-lived dictionary
+        URI size = f.createURI("http://alusivo/size");
+        int s = request.predicate(size);
+        assertEquals(s, root.lookup(size));
+        assertEquals(size, request.term(s));
+
+        // the rank tables are kept across requests
+        Map<String, List<String>> priorities = new HashMap<String, List<String>>();
+        priorities.put("http://alusivo/ball", Arrays.asList("color", "size"));
+        DaleReiterAlgorithm algorithm = new DaleReiterAlgorithm(priorities, null);
+        AbstractReferringExpressionAlgorithm perRequest = algorithm
+                .withDictionary(new TermDictionary(algorithm.getDictionary()));
+        assertSame(algorithm.priorities, perRequest.priorities);
+    }
+
+    public void testLongIndex() throws Exception {
+        LongIndex index = new LongIndex();
+        Random random = new Random(3);
+        long[] keys = new long[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = TermDictionary.key(random.nextInt(1000), random.nextInt(1000));
+            index.add(keys[i]);
+        }
+        Set<Long> distinct = new HashSet<Long>();
+        for (long key : keys)
+            distinct.add(key);
+        assertEquals(distinct.size(), index.size());
+        for (int i = 0; i < index.size(); i++)
+            assertEquals(i, index.indexOf(index.key(i)));
+        for (long key : keys)
+            assertTrue(index.contains(key));
+        assertEquals(-1, index.indexOf(TermDictionary.key(1000, 1000)));
+    }
+}